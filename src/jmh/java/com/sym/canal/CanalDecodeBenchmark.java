@@ -0,0 +1,197 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.dispatcher.KeyOrderedDispatcher;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.canal.parser.CanalEntryParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * canal 解析和分发链路的基准测试, 不需要 canal server. 每次调用处理一个合成的批次,
+ * 结果按输入的行数归一化, 即吞吐量单位是 行/秒. 加上 -prof gc 以后 gc.alloc.rate.norm 就是每行分配的字节数:
+ * <pre>
+ * mvn -Pbenchmark -DskipTests package
+ * java -jar target/benchmarks.jar CanalDecodeBenchmark -prof gc
+ * </pre>
+ *
+ * @author shenyanming
+ * Create on 2021/08/28 10:30
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CanalDecodeBenchmark {
+
+    private static final int BATCH_ROWS = 1000;
+
+    /**
+     * 表宽度: narrow 为5列, wide 为60列
+     */
+    @Param({"narrow", "wide"})
+    public String width;
+
+    /**
+     * 事件分布: insert 为全部插入, mixed 为 50% 插入、30% 更新、20% 删除
+     */
+    @Param({"insert", "mixed"})
+    public String mix;
+
+    /**
+     * 被客户端过滤掉的表所占的百分比
+     */
+    @Param({"0", "50"})
+    public int ignoredPercent;
+
+    private List<CanalEntry.Entry> batch;
+    private CanalEntryParser parser;
+    private KeyOrderedDispatcher dispatcher;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Random random = new Random(20210828);
+        int columns = "wide".equals(width) ? 60 : 5;
+        batch = new ArrayList<>(BATCH_ROWS);
+        for (int i = 0; i < BATCH_ROWS; i++) {
+            String table = random.nextInt(100) < ignoredPercent ? "t_log" : "t_order";
+            batch.add(entry(table, eventType(random), i, columns, random));
+        }
+        parser = new CanalEntryParser(CanalEntryFilter.builder().exclude("test\\.t_log").build());
+        dispatcher = new KeyOrderedDispatcher("benchmark", 4);
+        // 预热表结构缓存
+        parser.parse(batch);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    /**
+     * 只解析
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public List<ICanalMessageHandler.CanalMessage> decode() throws Exception {
+        return parser.parse(batch);
+    }
+
+    /**
+     * 解析以后按照表名+主键分片, 即分发到工作线程之前的全部工作
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public List<List<ICanalMessageHandler.CanalMessage>> decodeAndShard() throws Exception {
+        return dispatcher.shard(parser.parse(batch));
+    }
+
+    /**
+     * 解析以后按类型读取每一列, 模拟处理器访问全部数据
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public void decodeAndRead(Blackhole blackhole) throws Exception {
+        for (ICanalMessageHandler.CanalMessage message : parser.parse(batch)) {
+            List<CanalRow> rows = message.getAfterRows().isEmpty() ? message.getBeforeRows() : message.getAfterRows();
+            for (CanalRow row : rows) {
+                for (int i = 0, size = row.getSchema().size(); i < size; i++) {
+                    blackhole.consume(row.get(i));
+                }
+            }
+        }
+    }
+
+    private CanalEntry.EventType eventType(Random random) {
+        if ("insert".equals(mix)) {
+            return CanalEntry.EventType.INSERT;
+        }
+        int value = random.nextInt(10);
+        return value < 5 ? CanalEntry.EventType.INSERT
+                : value < 8 ? CanalEntry.EventType.UPDATE : CanalEntry.EventType.DELETE;
+    }
+
+    static CanalEntry.Entry entry(String table, CanalEntry.EventType eventType, long id, int columns, Random random) {
+        List<CanalEntry.Column> before = new ArrayList<>(columns);
+        List<CanalEntry.Column> after = new ArrayList<>(columns);
+        for (int i = 0; i < columns; i++) {
+            int sqlType;
+            String value;
+            switch (i % 5) {
+                case 0:
+                    sqlType = Types.BIGINT;
+                    value = i == 0 ? String.valueOf(id) : String.valueOf(random.nextInt(1_000_000));
+                    break;
+                case 1:
+                    sqlType = Types.INTEGER;
+                    value = String.valueOf(random.nextInt(10));
+                    break;
+                case 2:
+                    sqlType = Types.DECIMAL;
+                    value = random.nextInt(100000) + "." + random.nextInt(100);
+                    break;
+                case 3:
+                    sqlType = Types.VARCHAR;
+                    value = "name-" + random.nextInt(100000);
+                    break;
+                default:
+                    sqlType = Types.TIMESTAMP;
+                    value = "2021-08-28 10:" + (10 + random.nextInt(50)) + ":00";
+                    break;
+            }
+            CanalEntry.Column column = CanalEntry.Column.newBuilder()
+                    .setIndex(i)
+                    .setName("c" + i)
+                    .setSqlType(sqlType)
+                    .setIsKey(i == 0)
+                    .setUpdated(true)
+                    .setValue(value)
+                    .build();
+            before.add(column);
+            after.add(column);
+        }
+        CanalEntry.RowData.Builder rowData = CanalEntry.RowData.newBuilder();
+        if (eventType != CanalEntry.EventType.INSERT) {
+            rowData.addAllBeforeColumns(before);
+        }
+        if (eventType != CanalEntry.EventType.DELETE) {
+            rowData.addAllAfterColumns(after);
+        }
+        return CanalEntry.Entry.newBuilder()
+                .setEntryType(CanalEntry.EntryType.ROWDATA)
+                .setHeader(CanalEntry.Header.newBuilder()
+                        .setSchemaName("test")
+                        .setTableName(table)
+                        .setEventType(eventType)
+                        .setExecuteTime(System.currentTimeMillis()))
+                .setStoreValue(CanalEntry.RowChange.newBuilder()
+                        .setEventType(eventType)
+                        .addRowDatas(rowData)
+                        .build()
+                        .toByteString())
+                .build();
+    }
+}
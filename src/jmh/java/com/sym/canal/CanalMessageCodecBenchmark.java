@@ -0,0 +1,126 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.gson.Gson;
+import com.sym.canal.codec.CanalMessageCodec;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.canal.parser.CanalEntryParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CanalMessageCodec}与 Java 序列化、Gson 的对比, 每次调用编码或解码一个批次, 吞吐量单位是 行/秒.
+ * 启动时会打印三种方式编码后的字节数:
+ * <pre>
+ * mvn -Pbenchmark -DskipTests package
+ * java -jar target/benchmarks.jar CanalMessageCodecBenchmark -prof gc
+ * </pre>
+ *
+ * @author shenyanming
+ * Create on 2021/10/02 15:30
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CanalMessageCodecBenchmark {
+
+    private static final int BATCH_ROWS = 1000;
+    private static final Gson GSON = new Gson();
+
+    /**
+     * 表宽度: narrow 为5列, wide 为60列
+     */
+    @Param({"narrow", "wide"})
+    public String width;
+
+    private ArrayList<ICanalMessageHandler.CanalMessage> messageList;
+    private byte[] codecBytes;
+    private byte[] javaBytes;
+    private String json;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Random random = new Random(20211002);
+        int columns = "wide".equals(width) ? 60 : 5;
+        List<CanalEntry.Entry> batch = new ArrayList<>(BATCH_ROWS);
+        for (int i = 0; i < BATCH_ROWS; i++) {
+            batch.add(CanalDecodeBenchmark.entry("t_order", CanalEntry.EventType.INSERT, i, columns, random));
+        }
+        messageList = new ArrayList<>(new CanalEntryParser(CanalEntryFilter.acceptAll()).parse(batch));
+        codecBytes = codecEncode();
+        javaBytes = javaEncode();
+        json = gsonEncode();
+        System.out.println("\nencoded bytes per row, codec: " + codecBytes.length / BATCH_ROWS
+                + ", java: " + javaBytes.length / BATCH_ROWS
+                + ", gson: " + json.getBytes(StandardCharsets.UTF_8).length / BATCH_ROWS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public byte[] codecEncode() {
+        return CanalMessageCodec.encode(messageList);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public List<ICanalMessageHandler.CanalMessage> codecDecode() {
+        return CanalMessageCodec.decode(codecBytes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public byte[] javaEncode() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(stream)) {
+            output.writeObject(messageList);
+        }
+        return stream.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public Object javaDecode() throws Exception {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(javaBytes))) {
+            return input.readObject();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public String gsonEncode() {
+        return GSON.toJson(messageList);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public List<ICanalMessageHandler.CanalMessage> gsonDecode() {
+        return Arrays.asList(GSON.fromJson(json, ICanalMessageHandler.CanalMessage[].class));
+    }
+}
@@ -0,0 +1,104 @@
+package com.sym.kafka;
+
+import com.sym.kafka.consumer.deserializer.OrderDeserializer;
+import com.sym.kafka.consumer.deserializer.OrderViewDeserializer;
+import com.sym.kafka.domain.Order;
+import com.sym.kafka.producer.serializer.OrderSerializer;
+import com.sym.util.JSONUtil;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OrderSerializer}与 生产者默认的{@link StringSerializer} + {@link JSONUtil}的对比, 以及消费端完整解码与{@link OrderViewDeserializer}只读取一个字段的对比, 单位是 条/秒.
+ * 加上 -prof gc 以后 gc.alloc.rate.norm 就是每条消息分配的字节数:
+ * <pre>
+ * mvn -Pbenchmark -DskipTests package
+ * java -jar target/benchmarks.jar OrderSerializerBenchmark -prof gc
+ * </pre>
+ *
+ * @author shenyanming
+ * @date 2021/10/4 15:10.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderSerializerBenchmark {
+
+    private static final String TOPIC = "order";
+
+    private final OrderSerializer orderSerializer = new OrderSerializer();
+    private final OrderDeserializer orderDeserializer = new OrderDeserializer();
+    private final OrderViewDeserializer orderViewDeserializer = new OrderViewDeserializer();
+    private final StringSerializer stringSerializer = new StringSerializer();
+    private final StringDeserializer stringDeserializer = new StringDeserializer();
+
+    private Order order;
+    private byte[] binary;
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        order = Order.builder()
+                .orderId(1633320000001L)
+                .orderNo("SO20211004000000001")
+                .merchantId(10086L)
+                .userId(987654321L)
+                .amount(new BigDecimal("128.50"))
+                .status(2)
+                .createTime(1633320000000L)
+                .build();
+        binary = orderSerializer.serialize(TOPIC, order);
+        json = stringSerializer.serialize(TOPIC, JSONUtil.toJson(order));
+        System.out.println("\nencoded bytes, binary: " + binary.length + ", json: " + json.length);
+    }
+
+    @Benchmark
+    public byte[] binarySerialize() {
+        return orderSerializer.serialize(TOPIC, order);
+    }
+
+    @Benchmark
+    public Order binaryDeserialize() {
+        return orderDeserializer.deserialize(TOPIC, binary);
+    }
+
+    /**
+     * 只读取路由需要的商户id
+     */
+    @Benchmark
+    public long binaryRoute() {
+        return orderDeserializer.deserialize(TOPIC, binary).getMerchantId();
+    }
+
+    @Benchmark
+    public long viewRoute() {
+        return orderViewDeserializer.deserialize(TOPIC, binary).getMerchantId();
+    }
+
+    @Benchmark
+    public byte[] jsonSerialize() {
+        return stringSerializer.serialize(TOPIC, JSONUtil.toJson(order));
+    }
+
+    @Benchmark
+    public Order jsonDeserialize() {
+        return JSONUtil.fromJson(stringDeserializer.deserialize(TOPIC, json), Order.class);
+    }
+}
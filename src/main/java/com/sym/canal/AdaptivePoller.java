@@ -0,0 +1,125 @@
+package com.sym.canal;
+
+import com.sym.canal.config.CanalConfig;
+
+/**
+ * 自适应拉取策略:
+ * <ul>
+ *     <li>空轮询时, 休眠时间从{@link CanalConfig#getMinIdleMillis()}开始指数退避, 直到{@link CanalConfig#getMaxIdleMillis()};
+ *     一旦拉取到数据立即重置, 不再休眠</li>
+ *     <li>根据每个批次的处理耗时调整下一次拉取的条数, 使批次处理耗时接近{@link CanalConfig#getTargetHandleMillis()},
+ *     条数限制在[{@link CanalConfig#getMinBatchSize()}, {@link CanalConfig#getMaxBatchSize()}]之间</li>
+ * </ul>
+ * 只会被拉取线程修改, 其它线程可以随时读取当前值作为监控指标.
+ *
+ * @author shenyanming
+ * Create on 2021/07/19 21:05
+ */
+public class AdaptivePoller {
+
+    private final long minIdleMillis;
+    private final long maxIdleMillis;
+    private final long targetHandleMillis;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+
+    /**
+     * 当前的拉取条数
+     */
+    private volatile int batchSize;
+
+    /**
+     * 当前的空轮询休眠时间, 0表示上一次拉取到了数据
+     */
+    private volatile long idleMillis;
+
+    /**
+     * 最近一个批次的处理耗时
+     */
+    private volatile long lastHandleMillis;
+
+    /**
+     * 累计的拉取次数和空轮询次数
+     */
+    private volatile long polls;
+    private volatile long emptyPolls;
+
+    public AdaptivePoller(CanalConfig config) {
+        this.maxBatchSize = Math.max(config.getMaxBatchSize(), 1);
+        this.minBatchSize = Math.min(Math.max(config.getMinBatchSize(), 1), maxBatchSize);
+        this.maxIdleMillis = Math.max(config.getMaxIdleMillis(), 1);
+        this.minIdleMillis = Math.min(Math.max(config.getMinIdleMillis(), 1), maxIdleMillis);
+        this.targetHandleMillis = config.getTargetHandleMillis();
+        this.batchSize = maxBatchSize;
+    }
+
+    /**
+     * 没有拉取到数据
+     *
+     * @return 需要休眠的时间
+     */
+    public long onEmpty() {
+        polls++;
+        emptyPolls++;
+        long idle = idleMillis;
+        idle = idle == 0 ? minIdleMillis : Math.min(idle << 1, maxIdleMillis);
+        idleMillis = idle;
+        return idle;
+    }
+
+    /**
+     * 拉取到了数据, 重置退避
+     */
+    public void onData() {
+        polls++;
+        idleMillis = 0;
+    }
+
+    /**
+     * 一个批次处理完成, 调整下一次拉取的条数. 每次最多翻倍或者减半, 避免单个批次的抖动造成大幅波动.
+     *
+     * @param entries      批次内的 entry 数
+     * @param handleMillis 批次的处理耗时
+     */
+    public void onHandled(int entries, long handleMillis) {
+        lastHandleMillis = handleMillis;
+        if (targetHandleMillis <= 0 || entries <= 0) {
+            return;
+        }
+        int current = batchSize;
+        long desired = handleMillis <= 0 ? (long) current << 1 : entries * targetHandleMillis / handleMillis;
+        if (desired > current && entries < current) {
+            // 批次本身就没拉满, 说明没有积压, 不需要再扩大
+            return;
+        }
+        desired = Math.max(Math.min(desired, (long) current << 1), current >> 1);
+        batchSize = (int) Math.max(Math.min(desired, maxBatchSize), minBatchSize);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * 最长的休眠时间, 至少1毫秒
+     */
+    public long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    public long getLastHandleMillis() {
+        return lastHandleMillis;
+    }
+
+    public long getPolls() {
+        return polls;
+    }
+
+    public long getEmptyPolls() {
+        return emptyPolls;
+    }
+}
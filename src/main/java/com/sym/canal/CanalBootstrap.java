@@ -0,0 +1,339 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import com.alibaba.otter.canal.protocol.Message;
+import com.sym.canal.config.CanalConfig;
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.CanalTableSchema;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.datasource.hikari.SymHikariDatasource;
+import lombok.Builder;
+import lombok.Singular;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 全量 + 增量的初始化: 新的下游从空数据开始时, 先把 canal 的消费位置推进到当前位置并记录下来,
+ * 再按主键区间并行扫描源表, 以 INSERT 的形式交给处理器, 最后从记录的位置启动{@link CanalClient}追增量.
+ * <p>
+ * 扫描期间发生的变更会在追增量时重放, 与全量数据有重叠, 所以处理器需要是幂等的(按主键覆盖写);
+ * 追增量的客户端默认开启合并窗口, 同一行的多次变更只写一次最终结果. 并行扫描时处理器会被多个线程同时调用, 需要是线程安全的.
+ * 单列数值主键的表按主键区间切分, 其它表整表扫描
+ *
+ * @author shenyanming
+ * Create on 2021/09/25 10:30
+ */
+@Slf4j
+public class CanalBootstrap {
+
+    private final CanalConfig canalConfig;
+    private final Supplier<Connection> connectionSupplier;
+
+    /**
+     * 需要初始化的表, 库名.表名
+     */
+    private final List<String> tables;
+
+    /**
+     * 并行扫描的线程数
+     */
+    private final int parallelism;
+
+    /**
+     * 每个主键区间的跨度
+     */
+    private final long chunkSize;
+
+    /**
+     * 每次交给处理器的行数
+     */
+    private final int batchRows;
+
+    /**
+     * @param canalConfig        canal 配置, 追增量的客户端也使用它, 没有开启合并时默认开启
+     * @param connectionSupplier 获取源库连接, 默认使用{@link SymHikariDatasource#getConnection()}
+     */
+    @Builder
+    private CanalBootstrap(CanalConfig canalConfig, Supplier<Connection> connectionSupplier, @Singular List<String> tables,
+                           int parallelism, long chunkSize, int batchRows) {
+        this.canalConfig = Objects.requireNonNull(canalConfig);
+        this.connectionSupplier = Objects.isNull(connectionSupplier) ? SymHikariDatasource::getConnection : connectionSupplier;
+        this.tables = tables;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.chunkSize = chunkSize > 0 ? chunkSize : 50000;
+        this.batchRows = batchRows > 0 ? batchRows : 1000;
+    }
+
+    /**
+     * 执行全量初始化, 然后启动追增量的客户端
+     *
+     * @return 已经启动的客户端
+     */
+    public CanalClient start(ICanalMessageHandler handler) {
+        long skipped = fastForward();
+        log.info("canal position recorded, destination: {}, skipped entries: {}", canalConfig.getDestination(), skipped);
+        long rows = snapshot(handler);
+        log.info("snapshot finished, destination: {}, rows: {}", canalConfig.getDestination(), rows);
+        CanalClient client = new CanalClient(catchUpConfig(), handler);
+        client.start();
+        return client;
+    }
+
+    /**
+     * 把 canal 的消费位置推进到当前位置: 拉取并提交所有已有的数据, 不做处理. 之后的变更都会在追增量时重放
+     *
+     * @return 跳过的 entry 数
+     */
+    long fastForward() {
+        CanalConnector connector = CanalClient.newServerConnector(canalConfig);
+        connector.connect();
+        try {
+            connector.subscribe(canalConfig.getFilter());
+            connector.rollback();
+            long skipped = 0;
+            while (true) {
+                Message message = connector.getWithoutAck(Math.max(canalConfig.getMaxBatchSize(), 1000));
+                if (message.getId() == -1 || message.getEntries().isEmpty()) {
+                    return skipped;
+                }
+                connector.ack(message.getId());
+                skipped += message.getEntries().size();
+            }
+        } finally {
+            connector.disconnect();
+        }
+    }
+
+    /**
+     * 并行扫描所有表
+     *
+     * @return 扫描的行数
+     */
+    long snapshot(ICanalMessageHandler handler) {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory());
+        AtomicLong rows = new AtomicLong();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String table : tables) {
+                for (Chunk chunk : split(table)) {
+                    futures.add(executor.submit(() -> {
+                        rows.addAndGet(scan(chunk, handler));
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return rows.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("snapshot is interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("snapshot failure", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 追增量的配置: 没有开启合并时开启, 在途窗口至少能容纳一个合并窗口
+     */
+    private CanalConfig catchUpConfig() {
+        if (canalConfig.getCoalesceWindowBatches() > 0) {
+            return canalConfig;
+        }
+        return canalConfig.toBuilder()
+                .coalesceWindowBatches(16)
+                .coalesceWindowMillis(500)
+                .maxInFlightBatches(Math.max(canalConfig.getMaxInFlightBatches(), 16))
+                .build();
+    }
+
+    /**
+     * 按主键区间切分, 单列数值主键才能切分
+     */
+    private List<Chunk> split(String table) {
+        int dot = table.indexOf('.');
+        String schemaName = table.substring(0, dot);
+        String tableName = table.substring(dot + 1);
+        try (Connection connection = connection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            List<String> keyColumns = new ArrayList<>();
+            try (ResultSet resultSet = metaData.getPrimaryKeys(schemaName, null, tableName)) {
+                while (resultSet.next()) {
+                    keyColumns.add(resultSet.getString("COLUMN_NAME"));
+                }
+            }
+            if (keyColumns.size() != 1) {
+                return Collections.singletonList(new Chunk(schemaName, tableName, keyColumns, null, 0, 0));
+            }
+            String keyColumn = keyColumns.get(0);
+            String sql = "SELECT MIN(`" + keyColumn + "`), MAX(`" + keyColumn + "`) FROM `" + schemaName + "`.`" + tableName + "`";
+            try (PreparedStatement statement = connection.prepareStatement(sql);
+                 ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                int type = resultSet.getMetaData().getColumnType(1);
+                if (!isInteger(type)) {
+                    return Collections.singletonList(new Chunk(schemaName, tableName, keyColumns, null, 0, 0));
+                }
+                long min = resultSet.getLong(1);
+                long max = resultSet.getLong(2);
+                if (resultSet.wasNull()) {
+                    // 空表
+                    return Collections.emptyList();
+                }
+                List<Chunk> chunks = new ArrayList<>();
+                long start = min;
+                while (true) {
+                    long end;
+                    try {
+                        end = Math.min(Math.addExact(start, chunkSize - 1), max);
+                    } catch (ArithmeticException e) {
+                        // 主键接近 Long.MAX_VALUE
+                        end = max;
+                    }
+                    chunks.add(new Chunk(schemaName, tableName, keyColumns, keyColumn, start, end));
+                    if (end == max) {
+                        break;
+                    }
+                    // end < max, 不会溢出
+                    start = end + 1;
+                }
+                log.info("table {} is split into {} chunks", table, chunks.size());
+                return chunks;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("can not split table: " + table, e);
+        }
+    }
+
+    /**
+     * 扫描一个区间, 每攒够{@link #batchRows}行交给处理器
+     */
+    private long scan(Chunk chunk, ICanalMessageHandler handler) throws SQLException {
+        String sql = "SELECT * FROM `" + chunk.schemaName + "`.`" + chunk.tableName + "`"
+                + (Objects.isNull(chunk.keyColumn) ? "" : " WHERE `" + chunk.keyColumn + "` BETWEEN ? AND ?");
+        long rows = 0;
+        long executeTime = System.currentTimeMillis();
+        try (Connection connection = connection();
+             PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            if (Objects.nonNull(chunk.keyColumn)) {
+                statement.setLong(1, chunk.start);
+                statement.setLong(2, chunk.end);
+            }
+            // 流式读取, 不把整个区间读进内存
+            statement.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                CanalTableSchema schema = schema(chunk, resultSet.getMetaData());
+                int columns = schema.size();
+                List<CanalRow> batch = new ArrayList<>(batchRows);
+                while (resultSet.next()) {
+                    String[] values = new String[columns];
+                    for (int i = 0; i < columns; i++) {
+                        values[i] = resultSet.getString(i + 1);
+                    }
+                    batch.add(new CanalRow(schema, values));
+                    if (batch.size() >= batchRows) {
+                        resolve(chunk, batch, executeTime, handler);
+                        rows += batch.size();
+                        batch = new ArrayList<>(batchRows);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    resolve(chunk, batch, executeTime, handler);
+                    rows += batch.size();
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static void resolve(Chunk chunk, List<CanalRow> batch, long executeTime, ICanalMessageHandler handler) {
+        ICanalMessageHandler.CanalMessage message = new ICanalMessageHandler.CanalMessage();
+        message.setEventType(ICanalMessageHandler.CanalEventType.INSERT);
+        message.setSchemaName(chunk.schemaName);
+        message.setTableName(chunk.tableName);
+        message.setExecuteTime(executeTime);
+        message.setAfterRows(batch);
+        handler.resolve(Collections.singletonList(message));
+    }
+
+    private static CanalTableSchema schema(Chunk chunk, ResultSetMetaData metaData) throws SQLException {
+        int columns = metaData.getColumnCount();
+        String[] columnNames = new String[columns];
+        int[] sqlTypes = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            columnNames[i] = metaData.getColumnName(i + 1);
+            sqlTypes[i] = metaData.getColumnType(i + 1);
+        }
+        int[] keyIndexes = chunk.keyColumns.stream()
+                .mapToInt(keyColumn -> Arrays.asList(columnNames).indexOf(keyColumn))
+                .filter(index -> index >= 0)
+                .toArray();
+        return new CanalTableSchema(chunk.schemaName, chunk.tableName, columnNames, sqlTypes, keyIndexes);
+    }
+
+    private Connection connection() throws SQLException {
+        Connection connection = connectionSupplier.get();
+        if (Objects.isNull(connection)) {
+            throw new SQLException("can not get connection");
+        }
+        return connection;
+    }
+
+    private static boolean isInteger(int sqlType) {
+        return sqlType == Types.TINYINT || sqlType == Types.SMALLINT || sqlType == Types.INTEGER || sqlType == Types.BIGINT;
+    }
+
+    /**
+     * 扫描区间, keyColumn 为 null 表示整表扫描
+     */
+    private static class Chunk {
+        private final String schemaName;
+        private final String tableName;
+        private final List<String> keyColumns;
+        private final String keyColumn;
+        private final long start;
+        private final long end;
+
+        Chunk(String schemaName, String tableName, List<String> keyColumns, String keyColumn, long start, long end) {
+            this.schemaName = schemaName;
+            this.tableName = tableName;
+            this.keyColumns = keyColumns;
+            this.keyColumn = keyColumn;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static class ThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "canal-bootstrap-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
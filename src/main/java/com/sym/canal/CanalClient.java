@@ -4,13 +4,37 @@ import com.alibaba.otter.canal.client.CanalConnector;
 import com.alibaba.otter.canal.client.CanalConnectors;
 import com.alibaba.otter.canal.protocol.CanalEntry;
 import com.alibaba.otter.canal.protocol.Message;
-import com.google.gson.Gson;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.sym.canal.coalescer.CanalRowCoalescer;
+import com.sym.canal.coalescer.CoalescingWindow;
 import com.sym.canal.config.CanalConfig;
+import com.sym.canal.dispatcher.KeyOrderedDispatcher;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.IAsyncCanalMessageHandler;
 import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.canal.metrics.CanalMetrics;
+import com.sym.canal.parser.CanalEntryParser;
+import com.sym.canal.parser.CanalSchemaRegistry;
+import com.sym.canal.parser.CanalTransaction;
+import com.sym.canal.parser.CanalTransactionAssembler;
+import com.sym.canal.replay.CanalRecorder;
+import com.sym.canal.replay.RecordingCanalConnector;
+import com.sym.canal.replay.ReplayCanalConnector;
+import com.sym.canal.spool.CanalSpool;
+import com.sym.canal.spool.SpoolRecord;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
@@ -30,6 +54,11 @@ public class CanalClient implements Runnable {
     private final static int SUSPEND = 1 << 2;
     private final static int STOP = 1 << 3;
 
+    /**
+     * 连接异常以后重新连接的间隔(毫秒)
+     */
+    private final static long RECONNECT_MILLIS = 1000;
+
     /**
      * 原子操作类
      */
@@ -52,9 +81,100 @@ public class CanalClient implements Runnable {
     private Thread thread;
 
     /**
-     * 消息处理
+     * 调度器, 为 null 时表示使用独立的工作线程
+     */
+    private CanalSupervisor supervisor;
+
+    /**
+     * 是否已经连接到 canal server
+     */
+    private boolean connected;
+
+    /**
+     * 消息处理, 同步的处理器也会包装成异步的
+     */
+    private IAsyncCanalMessageHandler messageHandler;
+
+    /**
+     * 分发器, 为 null 时表示在当前线程串行处理
+     */
+    private KeyOrderedDispatcher dispatcher;
+
+    /**
+     * entry 解析器
+     */
+    private CanalEntryParser parser;
+
+    /**
+     * 自适应拉取策略
+     */
+    private AdaptivePoller poller;
+
+    /**
+     * 在途批次, 即已经拉取但还没提交的批次, 按照 batchId 从小到大排列
+     */
+    private final Deque<InFlightBatch> inFlightBatches = new ArrayDeque<>();
+
+    /**
+     * 最大在途批次数
+     */
+    private int maxInFlightBatches;
+
+    /**
+     * 有批次处理失败, 等待在途批次都结束以后回滚
+     */
+    private boolean rollbackPending;
+
+    /**
+     * 上一个批次处理完成的时间, 用来计算批次的实际处理耗时(排除在窗口中排队的时间)
+     */
+    private long lastCompletedNanos;
+
+    /**
+     * 合并窗口, 为 null 时表示不合并变更
+     */
+    private CoalescingWindow coalescingWindow;
+
+    /**
+     * 事务组装器, 为 null 时表示不按事务投递
+     */
+    private CanalTransactionAssembler transactionAssembler;
+
+    /**
+     * 横跨多个批次、还没拿到事务尾的事务的处理通知, 包含它的批次都要等待它
      */
-    private ICanalMessageHandler messageHandler;
+    private CompletableFuture<Void> openTransaction;
+
+    /**
+     * 本地缓冲, 为 null 时表示处理完才提交批次
+     */
+    private CanalSpool spool;
+
+    /**
+     * 从本地缓冲读取批次的处理线程
+     */
+    private Thread spoolThread;
+
+    /**
+     * 已经写入缓冲但还没有刷盘提交的批次
+     */
+    private final List<Long> unackedBatchIds = new ArrayList<>();
+
+    /**
+     * 按事务投递时, 缓冲的每条记录都由完整的事务组成, 批次末尾没结束的事务和它所在的批次先留在内存里
+     */
+    private List<CanalEntry.Entry> carriedEntries = new ArrayList<>();
+    private final List<Long> carriedBatchIds = new ArrayList<>();
+
+    /**
+     * 缓冲中最早一个未提交批次的拉取时间, 用来统计提交耗时
+     */
+    private long spoolFetchedNanos;
+
+    /**
+     * 监控指标
+     */
+    private CanalMetrics metrics;
 
     /**
      * 表示 canal client 是否处于启动状态
@@ -63,20 +183,112 @@ public class CanalClient implements Runnable {
 
 
     public CanalClient() {
-        this(list -> {
-            Gson gson = new Gson();
-            log.info("获取数据：{}", gson.toJson(list));
-        });
+        this(list -> log.info("获取数据：{}", list));
     }
 
     public CanalClient(ICanalMessageHandler handler) {
-        CanalConfig canalConfig = CanalConfig.defaultConfig();
-        connector = CanalConnectors.newSingleConnector(new InetSocketAddress(canalConfig.getHost(), canalConfig.getPost()),
-                canalConfig.getDestination(), canalConfig.getUsername(), canalConfig.getPassword());
+        this(CanalConfig.defaultConfig(), handler);
+    }
+
+    public CanalClient(CanalConfig canalConfig, ICanalMessageHandler handler) {
+        this(canalConfig, IAsyncCanalMessageHandler.of(Objects.requireNonNull(handler)), true);
+    }
+
+    /**
+     * 使用异步处理器创建客户端. 不提供同名的构造方法, 否则传入 lambda 时和同步处理器的构造方法有歧义
+     */
+    public static CanalClient async(CanalConfig canalConfig, IAsyncCanalMessageHandler handler) {
+        return new CanalClient(canalConfig, handler, false);
+    }
+
+    /**
+     * @param blocking 处理器是否为同步的, 同步的处理器需要交给工作线程处理才能预取下一批次
+     */
+    private CanalClient(CanalConfig canalConfig, IAsyncCanalMessageHandler handler, boolean blocking) {
+        this(canalConfig, newConnector(canalConfig), handler, blocking);
+    }
+
+    /**
+     * 使用指定的连接器, 测试时可以直接传入{@link ReplayCanalConnector}
+     */
+    CanalClient(CanalConfig canalConfig, CanalConnector connector, IAsyncCanalMessageHandler handler, boolean blocking) {
+        this.connector = Objects.requireNonNull(connector);
         this.messageHandler = Objects.requireNonNull(handler);
         this.status = NONE;
-        this.thread = new Thread(this);
+        this.thread = new Thread(this, "canal-" + canalConfig.getDestination());
         this.config = canalConfig;
+        this.poller = new AdaptivePoller(canalConfig);
+        this.metrics = new CanalMetrics(canalConfig.getDestination(), poller);
+        this.maxInFlightBatches = Math.max(canalConfig.getMaxInFlightBatches(), 1);
+        this.parser = new CanalEntryParser(Objects.isNull(canalConfig.getEntryFilter())
+                ? CanalEntryFilter.acceptAll() : canalConfig.getEntryFilter(),
+                new CanalSchemaRegistry(canalConfig.getProjections(), canalConfig.getRetainedColumns()),
+                canalConfig.isDeltaUpdates());
+        int parallelism = Math.max(canalConfig.getParallelism(), 1);
+        if (canalConfig.isTransactional()) {
+            this.transactionAssembler = new CanalTransactionAssembler();
+            if (parallelism > 1) {
+                log.warn("transactional delivery ignores parallelism: {}", parallelism);
+                parallelism = 1;
+            }
+        }
+        if (parallelism > 1 || (blocking && canalConfig.getMaxInFlightBatches() > 1)) {
+            // 并行处理, 或者同步处理器需要预取下一批次时, 都交由工作线程处理
+            this.dispatcher = new KeyOrderedDispatcher("canal-" + canalConfig.getDestination(), parallelism);
+        }
+        if (canalConfig.getCoalesceWindowBatches() > 0 && !canalConfig.isTransactional()) {
+            int windowBatches = canalConfig.getCoalesceWindowBatches();
+            if (windowBatches > maxInFlightBatches && Objects.isNull(canalConfig.getSpoolDir())) {
+                // 在途窗口满了就会提前合并, 超出的部分永远用不上
+                log.warn("coalesce window batches: {} exceeds max in-flight batches: {}, clamped",
+                        windowBatches, maxInFlightBatches);
+                windowBatches = maxInFlightBatches;
+            }
+            this.coalescingWindow = new CoalescingWindow(windowBatches, canalConfig.getCoalesceWindowMillis());
+        }
+        if (Objects.nonNull(canalConfig.getSpoolDir())) {
+            try {
+                this.spool = new CanalSpool(new File(canalConfig.getSpoolDir(), canalConfig.getDestination()),
+                        canalConfig.getSpoolSegmentBytes());
+            } catch (IOException e) {
+                throw new IllegalStateException("can not open canal spool", e);
+            }
+            this.spoolThread = new Thread(this::consumeSpool, "canal-" + canalConfig.getDestination() + "-spool");
+        }
+    }
+
+    /**
+     * 根据配置创建 canal server 连接器, 配置了回放文件时回放录制的数据, 配置了录制文件时录制提交的批次
+     */
+    static CanalConnector newConnector(CanalConfig canalConfig) {
+        if (StringUtils.isNotBlank(canalConfig.getReplayFile())) {
+            return ReplayCanalConnector.builder()
+                    .file(new File(canalConfig.getReplayFile()))
+                    .entriesPerSecond(canalConfig.getReplayEntriesPerSecond())
+                    .build();
+        }
+        CanalConnector connector = newServerConnector(canalConfig);
+        if (StringUtils.isBlank(canalConfig.getRecordFile())) {
+            return connector;
+        }
+        try {
+            return new RecordingCanalConnector(connector, new CanalRecorder(new File(canalConfig.getRecordFile())));
+        } catch (IOException e) {
+            throw new IllegalStateException("can not open canal record file: " + canalConfig.getRecordFile(), e);
+        }
+    }
+
+    /**
+     * canal server 连接器, 单机或者集群模式
+     */
+    static CanalConnector newServerConnector(CanalConfig canalConfig) {
+        if (StringUtils.isNotBlank(canalConfig.getZkServers())) {
+            // 集群模式, 通过 zookeeper 发现 canal server, 主备切换时自动重连
+            return CanalConnectors.newClusterConnector(canalConfig.getZkServers(),
+                    canalConfig.getDestination(), canalConfig.getUsername(), canalConfig.getPassword());
+        }
+        return CanalConnectors.newSingleConnector(new InetSocketAddress(canalConfig.getHost(), canalConfig.getPost()),
+                canalConfig.getDestination(), canalConfig.getUsername(), canalConfig.getPassword());
     }
 
     /**
@@ -89,7 +301,34 @@ public class CanalClient implements Runnable {
         }
         if (STATUS_UPDATER.compareAndSet(this, NONE, RUNNING)) {
             log.info("canal client start..");
-            thread.start();
+            metrics.register();
+            if (Objects.isNull(supervisor)) {
+                thread.start();
+            } else {
+                supervisor.schedule(this);
+            }
+            if (Objects.nonNull(spoolThread)) {
+                spoolThread.start();
+            }
+        }
+    }
+
+    /**
+     * 暂停, 不再拉取新的批次, 在途批次处理完以后照常提交, 连接保持不变
+     */
+    public void suspend() {
+        if (STATUS_UPDATER.compareAndSet(this, RUNNING, SUSPEND)) {
+            log.info("canal client suspend..");
+        }
+    }
+
+    /**
+     * 从暂停中恢复
+     */
+    public void resume() {
+        if (STATUS_UPDATER.compareAndSet(this, SUSPEND, RUNNING)) {
+            log.info("canal client resume..");
+            wakeup();
         }
     }
 
@@ -98,102 +337,271 @@ public class CanalClient implements Runnable {
             log.info("canal client is already stop");
             return;
         }
-        if (STATUS_UPDATER.compareAndSet(this, RUNNING, STOP)) {
+        if (STATUS_UPDATER.compareAndSet(this, RUNNING, STOP) || STATUS_UPDATER.compareAndSet(this, SUSPEND, STOP)) {
             log.info("canal client stop..");
-            thread.interrupt();
+            if (Objects.isNull(supervisor)) {
+                thread.interrupt();
+            } else {
+                wakeup();
+            }
+            if (Objects.nonNull(spoolThread)) {
+                spoolThread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 由{@link CanalSupervisor}驱动时立即执行下一步, 独立线程暂停期间本来就会定时检查状态
+     */
+    private void wakeup() {
+        if (Objects.nonNull(supervisor)) {
+            supervisor.wakeup(this);
+        }
+    }
+
+    /**
+     * 解析并处理一个批次的数据, 不会提交批次. 开启了合并时, 只合并批次内的变更
+     *
+     * @return 处理完成(或失败)的通知
+     */
+    private CompletableFuture<Void> process(List<CanalEntry.Entry> entryList) {
+        try {
+            List<ICanalMessageHandler.CanalMessage> messageList = parse(entryList);
+            return deliver(Objects.isNull(coalescingWindow) ? messageList : CanalRowCoalescer.coalesce(messageList));
+        } catch (Exception e) {
+            return failedFuture(e);
         }
     }
 
-    private void process(List<CanalEntry.Entry> entryList, long batchId) {
-        List<ICanalMessageHandler.CanalMessage> messageList = new ArrayList<>(entryList.size());
-        ICanalMessageHandler.CanalMessage canalMessage;
+    /**
+     * 按事务处理一个批次的数据, 每个完整的事务调用一次处理器. 批次末尾还没结束的事务留到后续批次,
+     * 本批次要等到它处理完才算完成
+     *
+     * @return 处理完成(或失败)的通知
+     */
+    private CompletableFuture<Void> processTransactions(List<CanalEntry.Entry> entryList) {
+        List<CanalTransaction> transactionList;
         try {
-            for (CanalEntry.Entry entry : entryList) {
-                // 只对行数据变化有兴趣
-                if (entry.getEntryType() != CanalEntry.EntryType.ROWDATA) {
-                    continue;
-                }
-                // 解析具体数据内容
-                CanalEntry.RowChange rowChange = CanalEntry.RowChange.parseFrom(entry.getStoreValue());
-                CanalEntry.EventType eventType = rowChange.getEventType();
-                // 获取表名
-                String tableName = entry.getHeader().getTableName();
-                // 组装数据
-                canalMessage = new ICanalMessageHandler.CanalMessage();
-                canalMessage.setTableName(tableName);
-                canalMessage.parseCanalEventType(eventType);
-                // 针对增删改
-                if (eventType != CanalEntry.EventType.INSERT && eventType != CanalEntry.EventType.UPDATE
-                        && eventType != CanalEntry.EventType.DELETE) {
-                    continue;
-                }
-                List<Map<String, Object>> rowDataBeforeList = new ArrayList<>();
-                List<Map<String, Object>> rowDataAfterList = new ArrayList<>();
-                for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
-                    if (eventType == CanalEntry.EventType.INSERT) {
-                        // insert sql 只有修改后的数据
-                        rowDataAfterList.add(convertRowData(rowData.getAfterColumnsList()));
-                    } else if (eventType == CanalEntry.EventType.DELETE) {
-                        // delete sql 只有修改前的数据
-                        rowDataBeforeList.add(convertRowData(rowData.getBeforeColumnsList()));
+            transactionList = transactionAssembler.append(entryList);
+        } catch (Exception e) {
+            return failedFuture(e);
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(transactionList.size() + 1);
+        for (CanalTransaction transaction : transactionList) {
+            CompletableFuture<Void> future = deliver(transaction);
+            if (Objects.nonNull(openTransaction)) {
+                // 第一个完整的事务就是之前批次里没结束的事务
+                CompletableFuture<Void> previous = openTransaction;
+                openTransaction = null;
+                future.whenComplete((v, e) -> {
+                    if (Objects.isNull(e)) {
+                        previous.complete(null);
                     } else {
-                        // update sql, 既有修改前的数据, 也有修改后的数据
-                        rowDataBeforeList.add(convertRowData(rowData.getBeforeColumnsList()));
-                        rowDataAfterList.add(convertRowData(rowData.getAfterColumnsList()));
+                        previous.completeExceptionally(e);
                     }
-                }
-                canalMessage.setRowDataBeforeList(rowDataBeforeList);
-                canalMessage.setRowDataAfterList(rowDataAfterList);
-                messageList.add(canalMessage);
+                });
             }
-            // 处理解析好的数据
-            if (!messageList.isEmpty()) {
-                messageHandler.resolve(messageList);
+            futures.add(future);
+        }
+        if (transactionAssembler.isOpen()) {
+            if (Objects.isNull(openTransaction)) {
+                openTransaction = new CompletableFuture<>();
             }
-            // 提交这一批次的数据
-            connector.ack(batchId);
+            futures.add(openTransaction);
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * 解析一个完整的事务交给处理器, 开启了合并时只合并事务内的变更
+     */
+    private CompletableFuture<Void> deliver(CanalTransaction transaction) {
+        try {
+            List<ICanalMessageHandler.CanalMessage> messageList = parse(transaction.getEntries());
+            for (ICanalMessageHandler.CanalMessage message : messageList) {
+                message.setTransactionId(transaction.getTransactionId());
+            }
+            return deliver(config.getCoalesceWindowBatches() > 0 ? CanalRowCoalescer.coalesce(messageList) : messageList);
+        } catch (Exception e) {
+            return failedFuture(e);
+        }
+    }
+
+    /**
+     * 将解析好的数据交给处理器
+     *
+     * @return 处理完成(或失败)的通知
+     */
+    private CompletableFuture<Void> deliver(List<ICanalMessageHandler.CanalMessage> messageList) {
+        if (messageList.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (Objects.nonNull(dispatcher)) {
+            // 交给工作线程处理, 多个分片时按照表名+主键分片并行处理
+            return dispatcher.dispatch(messageList, messageHandler);
+        }
+        try {
+            // 异步处理器不会阻塞拉取线程
+            CompletionStage<Void> stage = messageHandler.resolve(messageList);
+            return Objects.isNull(stage) ? CompletableFuture.completedFuture(null) : stage.toCompletableFuture();
+        } catch (Exception e) {
+            return failedFuture(e);
+        }
+    }
+
+    /**
+     * 解析一个批次的数据放入合并窗口, 窗口满了才会交给处理器
+     *
+     * @return 处理完成(或失败)的通知
+     */
+    private CompletableFuture<Void> coalesce(List<CanalEntry.Entry> entryList) {
+        CompletableFuture<Void> future;
+        try {
+            future = coalescingWindow.add(parse(entryList));
         } catch (Exception e) {
-            log.error("canal message process failure, ", e);
+            return failedFuture(e);
+        }
+        if (coalescingWindow.isFull()) {
+            coalescingWindow.flush(this::deliver);
+        }
+        return future;
+    }
+
+    /**
+     * 解析 entry, 同时记录解析耗时和行数
+     */
+    private List<ICanalMessageHandler.CanalMessage> parse(List<CanalEntry.Entry> entryList)
+            throws InvalidProtocolBufferException {
+        long startNanos = System.nanoTime();
+        List<ICanalMessageHandler.CanalMessage> messageList = parser.parse(entryList);
+        metrics.onParsed(messageList, System.nanoTime() - startNanos);
+        return messageList;
+    }
+
+    /**
+     * 批次中最后一条数据在数据库上的执行时间, 用来计算端到端延迟
+     */
+    private static long executeTime(List<CanalEntry.Entry> entryList) {
+        return entryList.isEmpty() ? 0 : entryList.get(entryList.size() - 1).getHeader().getExecuteTime();
+    }
+
+    private static CompletableFuture<Void> failedFuture(Throwable e) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * 按照 batchId 顺序提交已经处理完的批次, 遇到处理失败的批次则进入回滚
+     */
+    private void ackCompleted() {
+        InFlightBatch batch;
+        while (!rollbackPending && Objects.nonNull(batch = inFlightBatches.peekFirst()) && batch.future.isDone()) {
+            inFlightBatches.pollFirst();
+            try {
+                batch.future.join();
+            } catch (Exception e) {
+                log.error("canal message process failure, batchId: {}, ", batch.batchId, e);
+                // 还没交给处理器的批次永远不会完成, 直接丢弃, 回滚以后会重新拉取
+                if (Objects.nonNull(coalescingWindow)) {
+                    coalescingWindow.discard();
+                }
+                resetTransaction();
+                rollbackPending = true;
+                return;
+            }
+            // 提交这一批次的数据
+            connector.ack(batch.batchId);
+            long startNanos = Math.max(batch.submittedNanos, lastCompletedNanos);
+            poller.onHandled(batch.entries, TimeUnit.NANOSECONDS.toMillis(batch.completedNanos - startNanos));
+            metrics.onHandled(batch.executeTime, batch.completedNanos - startNanos);
+            metrics.onAcked(System.nanoTime() - batch.submittedNanos);
+            lastCompletedNanos = batch.completedNanos;
         }
     }
 
-    private boolean isRunning() {
+    /**
+     * 等待在途批次都结束以后, 回滚到最早一个未提交的批次, 下次拉取时会重新获取这些数据
+     *
+     * @return 下一步之前需要等待的毫秒数
+     */
+    private long rollback() {
+        if (Objects.nonNull(waitingFor())) {
+            return 500;
+        }
+        inFlightBatches.clear();
+        connector.rollback();
+        rollbackPending = false;
+        // 回滚以后稍等一会再重新拉取
+        return 500;
+    }
+
+    /**
+     * 丢弃还没结束的事务, 重新读取时会从事务头开始组装
+     */
+    private void resetTransaction() {
+        if (Objects.nonNull(transactionAssembler)) {
+            transactionAssembler.reset();
+            if (Objects.nonNull(openTransaction)) {
+                openTransaction.cancel(false);
+                openTransaction = null;
+            }
+        }
+    }
+
+    /**
+     * 等待批次处理结束, 不关心处理结果
+     */
+    private static void awaitQuietly(CompletableFuture<Void> future, long timeoutMillis) {
+        try {
+            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // ignore
+        }
+    }
+
+    boolean isRunning() {
         return status == RUNNING;
     }
 
-    private boolean isStop() {
+    boolean isStop() {
         return status == STOP;
     }
 
-    private Map<String, Object> convertRowData(List<CanalEntry.Column> columnList) {
-        Map<String, Object> map = new HashMap<>(columnList.size());
-        for (CanalEntry.Column column : columnList) {
-            map.put(column.getName(), column.getValue());
+    /**
+     * 当前运行状态: NONE、RUNNING、SUSPEND、STOP
+     */
+    public String getStatus() {
+        switch (status) {
+            case RUNNING:
+                return "RUNNING";
+            case SUSPEND:
+                return "SUSPEND";
+            case STOP:
+                return "STOP";
+            default:
+                return "NONE";
         }
-        return map;
+    }
+
+    public String getDestination() {
+        return config.getDestination();
     }
 
     @Override
     public void run() {
-        connector.connect();
-        connector.subscribe(config.getFilter());
-        connector.rollback();
         try {
-            while (isRunning() && !thread.isInterrupted()) {
-                // 获取指定数量的数据
-                Message message = connector.getWithoutAck(config.getMaxBatchSize());
-                long batchId = message.getId();
-                int size = message.getEntries().size();
-                if (batchId == -1 || size == 0) {
-                    // 没有任何数据
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException e) {
-                        // ignore
+            while (!isStop() && !Thread.currentThread().isInterrupted()) {
+                long waitMillis = step();
+                if (waitMillis > 0) {
+                    CompletableFuture<Void> future = waitingFor();
+                    if (Objects.isNull(future)) {
+                        sleepQuietly(waitMillis);
+                    } else {
+                        awaitQuietly(future, waitMillis);
                     }
-                } else {
-                    // 获取到数据
-                    process(message.getEntries(), batchId);
                 }
             }
         } finally {
@@ -202,7 +610,346 @@ public class CanalClient implements Runnable {
             } else {
                 log.info("client is closed, program exit");
             }
+            close();
+        }
+    }
+
+    /**
+     * 执行一步: 提交已经处理完的批次, 然后最多拉取一个批次. 每一步都不会阻塞等待处理结果,
+     * 独立线程和{@link CanalSupervisor}都通过它来驱动客户端. 连接异常时断开连接, 下一步重新连接
+     *
+     * @return 下一步之前需要等待的毫秒数, 0表示立即执行. 等待期间{@link #waitingFor()}完成的话可以提前执行
+     */
+    long step() {
+        try {
+            if (!connected) {
+                connector.connect();
+                connector.subscribe(config.getFilter());
+                connector.rollback();
+                connected = true;
+            }
+            return Objects.isNull(spool) ? fetchAndProcess() : fetchAndSpool();
+        } catch (Exception e) {
+            log.error("canal client failure, destination: {}, ", config.getDestination(), e);
+            disconnect();
+            return RECONNECT_MILLIS;
+        }
+    }
+
+    /**
+     * 下一步需要等待的处理结果: 回滚时是任意一个还没结束的在途批次, 否则是最早的在途批次, 没有则返回 null
+     */
+    CompletableFuture<Void> waitingFor() {
+        for (InFlightBatch batch : inFlightBatches) {
+            if (!batch.future.isDone()) {
+                return batch.future;
+            }
+            if (!rollbackPending) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 拉取一个批次交给处理器, 处理完成以后按顺序提交
+     *
+     * @return 下一步之前需要等待的毫秒数
+     */
+    private long fetchAndProcess() {
+        ackCompleted();
+        if (rollbackPending) {
+            return rollback();
+        }
+        if (!isRunning()) {
+            // 暂停时不再拉取, 只提交处理完的批次. 合并窗口中的批次也要先交给处理器, 否则永远等不到
+            flushCoalescingWindow();
+            return poller.getMaxIdleMillis();
+        }
+        if (inFlightBatches.size() >= maxInFlightBatches && !isTransactionOpen()) {
+            // 窗口已满, 等待最早的批次处理完. 跨批次的事务要拉到事务尾才能完成, 这时不受窗口限制
+            flushCoalescingWindow();
+            return 500;
+        }
+        // 获取指定数量的数据
+        Message message = connector.getWithoutAck(poller.getBatchSize());
+        long batchId = message.getId();
+        int size = message.getEntries().size();
+        if (batchId == -1 || size == 0) {
+            // 没有任何数据, 按照退避时间休眠, 有在途批次的话等待它处理完, 好尽快提交
+            flushCoalescingWindow();
+            return poller.onEmpty();
+        }
+        // 获取到数据
+        poller.onData();
+        metrics.onFetched(size);
+        long submittedNanos = System.nanoTime();
+        CompletableFuture<Void> future;
+        if (Objects.nonNull(transactionAssembler)) {
+            future = processTransactions(message.getEntries());
+        } else if (Objects.nonNull(coalescingWindow)) {
+            future = coalesce(message.getEntries());
+        } else {
+            future = process(message.getEntries());
+        }
+        inFlightBatches.addLast(new InFlightBatch(batchId, size, executeTime(message.getEntries()), submittedNanos, future));
+        return 0;
+    }
+
+    private boolean isTransactionOpen() {
+        return Objects.nonNull(transactionAssembler) && transactionAssembler.isOpen();
+    }
+
+    private void flushCoalescingWindow() {
+        if (Objects.nonNull(coalescingWindow)) {
+            coalescingWindow.flush(this::deliver);
+        }
+    }
+
+    /**
+     * 拉取一个批次写入本地缓冲, 成组刷盘以后就提交, 不等待处理
+     *
+     * @return 下一步之前需要等待的毫秒数
+     */
+    private long fetchAndSpool() {
+        if (!isRunning()) {
+            forceAndAck();
+            return poller.getMaxIdleMillis();
+        }
+        Message message = connector.getWithoutAck(poller.getBatchSize());
+        long batchId = message.getId();
+        if (batchId == -1 || message.getEntries().isEmpty()) {
+            // 空闲的时候把攒着的批次都提交掉
+            forceAndAck();
+            return poller.onEmpty();
+        }
+        poller.onData();
+        metrics.onFetched(message.getEntries().size());
+        if (spoolFetchedNanos == 0) {
+            spoolFetchedNanos = System.nanoTime();
+        }
+        List<CanalEntry.Entry> entryList = message.getEntries();
+        int boundary = entryList.size();
+        if (Objects.nonNull(transactionAssembler)) {
+            carriedEntries.addAll(entryList);
+            entryList = carriedEntries;
+            boundary = CanalTransactionAssembler.boundary(entryList);
+        }
+        try {
+            if (boundary > 0) {
+                spool.append(batchId, entryList.subList(0, boundary));
+            }
+        } catch (IOException e) {
+            log.error("canal spool append failure, batchId: {}, ", batchId, e);
+            // 已经追加但没有提交的批次会被 canal server 重新投递, 不能留在缓冲里
+            spool.discardUncommitted();
+            unackedBatchIds.clear();
+            carriedEntries.clear();
+            carriedBatchIds.clear();
+            connector.rollback();
+            return 500;
+        }
+        if (boundary == entryList.size()) {
+            unackedBatchIds.addAll(carriedBatchIds);
+            unackedBatchIds.add(batchId);
+            carriedEntries.clear();
+            carriedBatchIds.clear();
+        } else {
+            // 跨批次的事务还没结束, 它之前的批次都已经完整写入缓冲
+            if (boundary > 0) {
+                unackedBatchIds.addAll(carriedBatchIds);
+                carriedBatchIds.clear();
+                carriedEntries = new ArrayList<>(entryList.subList(boundary, entryList.size()));
+            }
+            carriedBatchIds.add(batchId);
+        }
+        if (unackedBatchIds.size() >= Math.max(config.getSpoolForceBatches(), 1)) {
+            forceAndAck();
+        }
+        return 0;
+    }
+
+    /**
+     * 缓冲刷盘, 然后按顺序提交批次
+     */
+    private void forceAndAck() {
+        if (unackedBatchIds.isEmpty()) {
+            return;
+        }
+        spool.force();
+        for (Long batchId : unackedBatchIds) {
+            connector.ack(batchId);
+        }
+        unackedBatchIds.clear();
+        metrics.onAcked(System.nanoTime() - spoolFetchedNanos);
+        spoolFetchedNanos = carriedBatchIds.isEmpty() ? 0 : System.nanoTime();
+    }
+
+    /**
+     * 断开连接并丢弃所有未提交的批次, 重新连接以后 canal server 会从最早未提交的位置重新投递
+     */
+    private void disconnect() {
+        if (Objects.nonNull(coalescingWindow)) {
+            coalescingWindow.discard();
+        }
+        resetTransaction();
+        inFlightBatches.clear();
+        if (Objects.nonNull(spool)) {
+            spool.discardUncommitted();
+        }
+        unackedBatchIds.clear();
+        carriedEntries.clear();
+        carriedBatchIds.clear();
+        rollbackPending = false;
+        connected = false;
+        try {
             connector.disconnect();
+        } catch (Exception e) {
+            log.warn("canal connector disconnect failure, destination: {}, ", config.getDestination(), e);
+        }
+    }
+
+    /**
+     * 停止以后释放资源
+     */
+    void close() {
+        if (connected && Objects.nonNull(spool)) {
+            try {
+                forceAndAck();
+            } catch (Exception e) {
+                log.warn("canal spool ack failure, destination: {}, ", config.getDestination(), e);
+            }
+        }
+        disconnect();
+        if (connector instanceof Closeable) {
+            try {
+                ((Closeable) connector).close();
+            } catch (IOException e) {
+                log.warn("canal connector close failure, destination: {}, ", config.getDestination(), e);
+            }
+        }
+        if (Objects.nonNull(spoolThread)) {
+            spoolThread.interrupt();
+            // 等处理线程退出以后再关闭缓冲, 它可能还在提交检查点. 客户端线程被 stop() 中断过, 等待前先清除中断标记
+            boolean interrupted = Thread.interrupted();
+            try {
+                spoolThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (Objects.nonNull(spool)) {
+            spool.close();
+        }
+        if (Objects.nonNull(dispatcher)) {
+            dispatcher.shutdown();
+        }
+        metrics.unregister();
+    }
+
+    /**
+     * 从本地缓冲中按顺序读取批次交给处理器, 处理成功以后移动检查点, 失败则重试同一个批次
+     */
+    private void consumeSpool() {
+        while (!isStop() && !spoolThread.isInterrupted()) {
+            if (!isRunning()) {
+                // 暂停时不再交给处理器
+                sleepQuietly(500);
+                continue;
+            }
+            SpoolRecord record;
+            try {
+                record = spool.poll(500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                log.error("canal spool read failure, ", e);
+                sleepQuietly(500);
+                continue;
+            }
+            if (Objects.isNull(record)) {
+                // 空闲的时候检查点刷盘
+                spool.forceCheckpoint();
+                continue;
+            }
+            try {
+                // 按事务投递时缓冲记录都由完整的事务组成, 不会有跨记录的事务
+                long startNanos = System.nanoTime();
+                (Objects.isNull(transactionAssembler) ? process(record.getEntries())
+                        : processTransactions(record.getEntries())).join();
+                spool.commit(record);
+                metrics.onHandled(executeTime(record.getEntries()), System.nanoTime() - startNanos);
+            } catch (Exception e) {
+                log.error("canal message process failure, batchId: {}, ", record.getBatchId(), e);
+                resetTransaction();
+                sleepQuietly(500);
+            }
+        }
+        spool.forceCheckpoint();
+        log.info("canal spool consumer exit");
+    }
+
+    /**
+     * 表结构注册中心, 下游可以共用
+     */
+    public CanalSchemaRegistry getSchemaRegistry() {
+        return parser.getSchemaRegistry();
+    }
+
+    /**
+     * 监控指标, 同时注册在 JMX 上
+     */
+    public CanalMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 自适应拉取的当前状态, 可以作为监控指标
+     */
+    public AdaptivePoller getPoller() {
+        return poller;
+    }
+
+    /**
+     * 由{@link CanalSupervisor}驱动时绑定, 不再使用独立线程
+     */
+    void bind(CanalSupervisor supervisor) {
+        if (status != NONE) {
+            throw new IllegalStateException("canal client is already started");
+        }
+        this.supervisor = supervisor;
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // 恢复中断标记, 由调用方的循环检查后退出
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 在途批次
+     */
+    private static class InFlightBatch {
+        private final long batchId;
+        private final int entries;
+        private final long executeTime;
+        private final long submittedNanos;
+        private final CompletableFuture<Void> future;
+        private volatile long completedNanos;
+
+        InFlightBatch(long batchId, int entries, long executeTime, long submittedNanos, CompletableFuture<Void> future) {
+            this.batchId = batchId;
+            this.entries = entries;
+            this.executeTime = executeTime;
+            this.submittedNanos = submittedNanos;
+            // 使用记录了完成时间以后的 future, 它完成时 completedNanos 一定已经赋值
+            this.future = future.whenComplete((v, e) -> completedNanos = System.nanoTime());
         }
     }
 }
@@ -0,0 +1,206 @@
+package com.sym.canal;
+
+import com.sym.canal.config.CanalConfig;
+import com.sym.canal.handler.IAsyncCanalMessageHandler;
+import com.sym.canal.handler.ICanalMessageHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在一个共享的调度线程池上运行多个 destination 的{@link CanalClient}, 不再每个 destination 独占一个线程.
+ * 每次调度只执行客户端的一步(最多拉取一个批次), 执行完重新排队, 所以各个 destination 轮流获得时间片;
+ * 空闲的 destination 按照退避时间定时唤醒, 在途批次处理完成时也会提前唤醒.
+ * 调度线程上会执行同步的处理器, 处理耗时较长时应该使用异步处理器或者开启并行处理
+ *
+ * @author shenyanming
+ * Create on 2021/08/14 10:20
+ */
+@Slf4j
+public class CanalSupervisor {
+
+    /**
+     * 调度状态: 等待定时器或者处理结果唤醒、已经排队、正在执行
+     */
+    private final static int WAITING = 0;
+    private final static int QUEUED = 1;
+    private final static int EXECUTING = 2;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * destination -> 客户端
+     */
+    private final Map<String, CanalClient> clients = new ConcurrentHashMap<>();
+
+    /**
+     * 客户端 -> 调度任务
+     */
+    private final Map<CanalClient, Task> tasks = new ConcurrentHashMap<>();
+
+    public CanalSupervisor(int threads) {
+        AtomicInteger index = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(threads, 1), r -> {
+            Thread thread = new Thread(r, "canal-supervisor-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 注册一个 destination, 返回的客户端需要调用{@link CanalClient#start()}才开始运行
+     */
+    public CanalClient register(CanalConfig canalConfig, ICanalMessageHandler handler) {
+        return register(new CanalClient(canalConfig, handler));
+    }
+
+    /**
+     * 注册一个使用异步处理器的 destination, 见{@link CanalClient#async(CanalConfig, IAsyncCanalMessageHandler)}
+     */
+    public CanalClient registerAsync(CanalConfig canalConfig, IAsyncCanalMessageHandler handler) {
+        return register(CanalClient.async(canalConfig, handler));
+    }
+
+    private CanalClient register(CanalClient client) {
+        if (Objects.nonNull(clients.putIfAbsent(client.getDestination(), client))) {
+            throw new IllegalArgumentException("destination is already registered: " + client.getDestination());
+        }
+        client.bind(this);
+        return client;
+    }
+
+    public CanalClient get(String destination) {
+        return clients.get(destination);
+    }
+
+    public void startAll() {
+        clients.values().forEach(CanalClient::start);
+    }
+
+    /**
+     * 每个 destination 当前的运行状态
+     */
+    public Map<String, String> getStatus() {
+        Map<String, String> status = new LinkedHashMap<>();
+        clients.forEach((destination, client) -> status.put(destination, client.getStatus()));
+        return Collections.unmodifiableMap(status);
+    }
+
+    /**
+     * 停止所有 destination, 等它们释放资源以后关闭调度线程池
+     */
+    public void shutdown() {
+        clients.values().forEach(CanalClient::stop);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!tasks.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        scheduler.shutdownNow();
+    }
+
+    void schedule(CanalClient client) {
+        Task task = new Task(client);
+        tasks.put(client, task);
+        task.state.set(QUEUED);
+        scheduler.execute(task);
+    }
+
+    void wakeup(CanalClient client) {
+        Task task = tasks.get(client);
+        if (Objects.nonNull(task)) {
+            task.wakeup();
+        }
+    }
+
+    /**
+     * 一个 destination 的调度任务, 同一时刻最多只有一个线程在执行它
+     */
+    private class Task implements Runnable {
+        private final CanalClient client;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        /**
+         * 只在持有 EXECUTING 状态时写入, 通过 state 发布给执行 wakeup 的线程
+         */
+        private volatile ScheduledFuture<?> timer;
+
+        Task(CanalClient client) {
+            this.client = client;
+        }
+
+        void wakeup() {
+            if (state.compareAndSet(WAITING, QUEUED)) {
+                ScheduledFuture<?> previous = timer;
+                if (Objects.nonNull(previous)) {
+                    previous.cancel(false);
+                }
+                scheduler.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(QUEUED, EXECUTING)) {
+                // 同一个任务被重复提交, 已经有线程在执行它
+                return;
+            }
+            if (client.isStop()) {
+                close();
+                return;
+            }
+            long waitMillis;
+            try {
+                waitMillis = client.step();
+            } catch (Throwable e) {
+                log.error("canal client step failure, destination: {}, ", client.getDestination(), e);
+                waitMillis = 1000;
+            }
+            if (client.isStop()) {
+                close();
+            } else if (waitMillis <= 0) {
+                // 还有数据, 排到队尾让其它 destination 先执行
+                state.set(QUEUED);
+                scheduler.execute(this);
+            } else {
+                // 进入 WAITING 之前读完 client 的状态, 之后其它线程随时可能开始执行 step()
+                CompletableFuture<Void> future = client.waitingFor();
+                ScheduledFuture<?> next = scheduler.schedule(this::wakeup, waitMillis, TimeUnit.MILLISECONDS);
+                timer = next;
+                state.set(WAITING);
+                if (next.isDone()) {
+                    // 定时器在进入 WAITING 之前就触发了, 那次唤醒被忽略, 这里补上
+                    wakeup();
+                }
+                if (Objects.nonNull(future)) {
+                    future.whenComplete((v, e) -> wakeup());
+                }
+            }
+        }
+
+        private void close() {
+            try {
+                client.close();
+            } catch (Exception e) {
+                log.error("canal client close failure, destination: {}, ", client.getDestination(), e);
+            } finally {
+                tasks.remove(client);
+                clients.remove(client.getDestination());
+                log.info("canal client is closed, destination: {}", client.getDestination());
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.sym.canal.coalescer;
+
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.canal.handler.ICanalMessageHandler.CanalEventType;
+import com.sym.canal.handler.ICanalMessageHandler.CanalMessage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 按照表名+主键合并变更, 只保留每一行的最终结果:
+ * <pre>
+ *   INSERT + UPDATE = INSERT(最终的数据)
+ *   INSERT + DELETE = 无
+ *   UPDATE + UPDATE = UPDATE(最初的修改前数据, 最终的修改后数据)
+ *   UPDATE + DELETE = DELETE(最初的修改前数据)
+ *   DELETE + INSERT = UPDATE(删除前的数据, 插入的数据)
+ * </pre>
+ * 增量模式下 UPDATE 只包含部分列, 合并时把后面的修改叠加到前面的数据上, 不会丢失前面修改过的列.
+ * 修改了主键的 UPDATE 按照删除旧主键、插入新主键处理. 没有主键的表无法合并, 原样保留.
+ * 不同主键之间的顺序按照第一次出现的顺序, 同一主键只会输出一次.
+ *
+ * @author shenyanming
+ * Create on 2021/08/01 10:35
+ */
+public class CanalRowCoalescer {
+
+    private CanalRowCoalescer() {
+    }
+
+    /**
+     * 合并变更
+     *
+     * @param messageList 按 binlog 顺序排列的消息
+     * @return 合并后的消息, 相邻的同表同事件的行合并成一个消息
+     */
+    public static List<CanalMessage> coalesce(List<CanalMessage> messageList) {
+        Map<Object, Change> changes = new LinkedHashMap<>();
+        for (CanalMessage message : messageList) {
+            List<CanalRow> beforeRows = message.getBeforeRows();
+            List<CanalRow> afterRows = message.getAfterRows();
+            int rows = Math.max(beforeRows.size(), afterRows.size());
+            for (int i = 0; i < rows; i++) {
+                CanalRow before = i < beforeRows.size() ? beforeRows.get(i) : null;
+                CanalRow after = i < afterRows.size() ? afterRows.get(i) : null;
+                CanalRow keyRow = after == null ? before : after;
+                if (keyRow.getSchema().getKeyIndexes().length == 0) {
+                    // 没有主键, 用一个唯一的 key 原样保留
+                    changes.put(new Object(), new Change(message, message.getEventType(), before, after));
+                    continue;
+                }
+                if (message.getEventType() == CanalEventType.UPDATE && !before.sameKey(after)) {
+                    // 修改了主键
+                    merge(changes, new RowKey(message, before), new Change(message, CanalEventType.DELETE, before, null));
+                    merge(changes, new RowKey(message, after), new Change(message, CanalEventType.INSERT, null, after));
+                } else {
+                    merge(changes, new RowKey(message, keyRow), new Change(message, message.getEventType(), before, after));
+                }
+            }
+        }
+        return group(changes.values());
+    }
+
+    private static void merge(Map<Object, Change> changes, RowKey key, Change current) {
+        Change previous = changes.get(key);
+        if (previous == null) {
+            changes.put(key, current);
+            return;
+        }
+        Change merged;
+        switch (previous.eventType) {
+            case INSERT:
+                // 插入以后又删除了, 相当于什么都没有发生
+                merged = current.eventType == CanalEventType.DELETE ? null
+                        : new Change(current.message, CanalEventType.INSERT, null, CanalRow.overlay(previous.after, current.after));
+                break;
+            case UPDATE:
+                // 修改前的数据以最初的为准, 修改后的数据以最终的为准
+                merged = current.eventType == CanalEventType.DELETE
+                        ? new Change(current.message, CanalEventType.DELETE, CanalRow.overlay(current.before, previous.before), null)
+                        : new Change(current.message, CanalEventType.UPDATE, CanalRow.overlay(current.before, previous.before),
+                        CanalRow.overlay(previous.after, current.after));
+                break;
+            default:
+                // 删除以后又插入了, 相当于修改
+                merged = current.eventType == CanalEventType.INSERT
+                        ? new Change(current.message, CanalEventType.UPDATE, previous.before, current.after)
+                        : current;
+                break;
+        }
+        if (merged == null) {
+            changes.remove(key);
+        } else {
+            changes.put(key, merged);
+        }
+    }
+
+    /**
+     * 相邻的同表同事件的行合并成一个消息
+     */
+    private static List<CanalMessage> group(Iterable<Change> changes) {
+        List<CanalMessage> messageList = new ArrayList<>();
+        CanalMessage last = null;
+        Iterator<Change> iterator = changes.iterator();
+        while (iterator.hasNext()) {
+            Change change = iterator.next();
+            if (last == null || last.getEventType() != change.eventType
+                    || !Objects.equals(last.getTableName(), change.message.getTableName())
+                    || !Objects.equals(last.getSchemaName(), change.message.getSchemaName())) {
+                last = change.message.emptyCopy();
+                last.setEventType(change.eventType);
+                messageList.add(last);
+            }
+            if (change.before != null) {
+                last.getBeforeRows().add(change.before);
+            }
+            if (change.after != null) {
+                last.getAfterRows().add(change.after);
+            }
+        }
+        return messageList;
+    }
+
+    /**
+     * 一行数据的净变更
+     */
+    private static class Change {
+        private final ICanalMessageHandler.CanalMessage message;
+        private final CanalEventType eventType;
+        private final CanalRow before;
+        private final CanalRow after;
+
+        Change(CanalMessage message, CanalEventType eventType, CanalRow before, CanalRow after) {
+            this.message = message;
+            this.eventType = eventType;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    /**
+     * 库名+表名+主键
+     */
+    private static class RowKey {
+        private final String schemaName;
+        private final String tableName;
+        private final CanalRow row;
+        private final int hash;
+
+        RowKey(CanalMessage message, CanalRow row) {
+            this.schemaName = message.getSchemaName();
+            this.tableName = message.getTableName();
+            this.row = row;
+            this.hash = 31 * tableName.hashCode() + row.keyHash();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RowKey)) {
+                return false;
+            }
+            RowKey other = (RowKey) obj;
+            return hash == other.hash && tableName.equals(other.tableName)
+                    && Objects.equals(schemaName, other.schemaName) && row.sameKey(other.row);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.sym.canal.coalescer;
+
+import com.sym.canal.handler.ICanalMessageHandler.CanalMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 合并窗口: 攒够若干个批次或者等待足够长的时间以后, 把窗口内的数据合并成净变更再一起交给处理器.
+ * 窗口内每个批次都会得到一个通知, 合并后的数据处理完以后一起完成, 所以这些批次会在同一时刻提交.
+ *
+ * @author shenyanming
+ * Create on 2021/08/01 11:20
+ */
+public class CoalescingWindow {
+
+    /**
+     * 窗口最多包含的批次数
+     */
+    private final int maxBatches;
+
+    /**
+     * 窗口最长的等待时间
+     */
+    private final long maxNanos;
+
+    private final List<CanalMessage> messageList = new ArrayList<>();
+    private final List<CompletableFuture<Void>> batchFutures = new ArrayList<>();
+    private long firstNanos;
+
+    public CoalescingWindow(int maxBatches, long maxMillis) {
+        this.maxBatches = Math.max(maxBatches, 1);
+        this.maxNanos = maxMillis <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+
+    /**
+     * 加入一个批次的数据
+     *
+     * @return 该批次的处理通知
+     */
+    public CompletableFuture<Void> add(List<CanalMessage> batchMessages) {
+        if (batchFutures.isEmpty()) {
+            firstNanos = System.nanoTime();
+        }
+        messageList.addAll(batchMessages);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        batchFutures.add(future);
+        return future;
+    }
+
+    public boolean isEmpty() {
+        return batchFutures.isEmpty();
+    }
+
+    /**
+     * 是否已经攒够了批次, 或者等待的时间已经足够长
+     */
+    public boolean isFull() {
+        return batchFutures.size() >= maxBatches
+                || (!batchFutures.isEmpty() && System.nanoTime() - firstNanos >= maxNanos);
+    }
+
+    /**
+     * 丢弃窗口内还没交给处理器的数据, 对应批次的通知会被取消
+     */
+    public void discard() {
+        for (CompletableFuture<Void> future : batchFutures) {
+            future.cancel(false);
+        }
+        messageList.clear();
+        batchFutures.clear();
+    }
+
+    /**
+     * 合并窗口内的数据交给处理器, 处理完以后通知窗口内的所有批次
+     *
+     * @param deliver 处理合并以后的数据
+     */
+    public void flush(Function<List<CanalMessage>, CompletableFuture<Void>> deliver) {
+        if (batchFutures.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(batchFutures);
+        CompletableFuture<Void> result;
+        try {
+            result = deliver.apply(CanalRowCoalescer.coalesce(messageList));
+        } catch (Exception e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        messageList.clear();
+        batchFutures.clear();
+        result.whenComplete((v, e) -> {
+            for (CompletableFuture<Void> future : futures) {
+                if (e == null) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+}
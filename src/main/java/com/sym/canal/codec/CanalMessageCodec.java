@@ -0,0 +1,85 @@
+package com.sym.canal.codec;
+
+import com.sym.canal.handler.ICanalMessageHandler.CanalMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CanalMessage}的二进制编码, 用于跨队列传输或者写入本地文件. 流式编码, 写一条读一条, 不需要把整个流读进内存.
+ * <p>
+ * 流格式: [fixed32 魔数][varint 版本][记录]..., 记录以 varint 类型开头:
+ * <pre>
+ *   SCHEMA  [库名][表名][varint 列数][列名, varint SQL类型]...[varint 主键列数][varint 主键列位置]...
+ *   MESSAGE [varint 事件类型][库名][表名][事务标识][zigzag 执行时间][binlog 文件名][varint binlog 位置]
+ *           [varint 修改前行数][行]...[varint 修改后行数][行]...
+ *   行      [varint 表结构编号][值]...
+ *   值      [varint 类型标记][内容], 标记见{@link #NULL}等常量
+ * </pre>
+ * 表结构在一个流中只写一次, 之后的行只写它的编号, 不再重复列名. 库名、表名、列名、binlog 文件名按字典编码:
+ * varint 0 表示 null, 1 表示后面跟着一个新字符串, 否则是之前出现过的字符串的编号加2. 事务标识不做字典编码:
+ * varint 0 表示 null, 否则是 UTF-8 字节数加1.
+ * 整数、小数、时间按 SQL 类型编码成变长整数, 只有能原样还原出 canal 原始字符串的值才会这样编码, 否则按字符串编码.
+ *
+ * @author shenyanming
+ * Create on 2021/10/02 10:20
+ */
+public class CanalMessageCodec {
+
+    static final int MAGIC = 0x434D_5347;
+    static final int VERSION = 1;
+
+    /**
+     * 记录类型
+     */
+    static final int SCHEMA = 1;
+    static final int MESSAGE = 2;
+
+    /**
+     * 值的类型标记
+     */
+    static final int NULL = 0;
+    static final int ABSENT = 1;
+    static final int STRING = 2;
+    static final int LONG = 3;
+    static final int DECIMAL = 4;
+    static final int DATETIME = 5;
+
+    private CanalMessageCodec() {
+    }
+
+    /**
+     * 编码成一个独立的字节数组, 自带表结构和字典
+     */
+    public static byte[] encode(List<CanalMessage> messageList) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(256 * messageList.size() + 64);
+        try (CanalMessageEncoder encoder = new CanalMessageEncoder(stream)) {
+            for (CanalMessage message : messageList) {
+                encoder.write(message);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * 解码{@link #encode(List)}的结果
+     */
+    public static List<CanalMessage> decode(byte[] bytes) {
+        List<CanalMessage> messageList = new ArrayList<>();
+        try (CanalMessageDecoder decoder = new CanalMessageDecoder(new ByteArrayInputStream(bytes))) {
+            CanalMessage message;
+            while ((message = decoder.read()) != null) {
+                messageList.add(message);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return messageList;
+    }
+}
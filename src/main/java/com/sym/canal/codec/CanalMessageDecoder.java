@@ -0,0 +1,238 @@
+package com.sym.canal.codec;
+
+import com.google.protobuf.CodedInputStream;
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.CanalTableSchema;
+import com.sym.canal.handler.ICanalMessageHandler.CanalEventType;
+import com.sym.canal.handler.ICanalMessageHandler.CanalMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.sym.canal.codec.CanalMessageCodec.*;
+
+/**
+ * 按{@link CanalMessageCodec}的格式从输入流中逐条读取{@link CanalMessage}, 非线程安全.
+ * 解码出来的行数据共用同一个表结构对象, 与解析 canal entry 得到的行数据一样
+ *
+ * @author shenyanming
+ * Create on 2021/10/02 11:40
+ */
+public class CanalMessageDecoder implements Closeable {
+
+    private static final CanalEventType[] EVENT_TYPES = CanalEventType.values();
+
+    private final InputStream stream;
+    private final CodedInputStream input;
+    private boolean headerRead;
+
+    /**
+     * 按编号排列的表结构和字符串字典
+     */
+    private final List<CanalTableSchema> schemas = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+
+    public CanalMessageDecoder(InputStream stream) {
+        this.stream = stream;
+        this.input = CodedInputStream.newInstance(stream);
+        input.setSizeLimit(Integer.MAX_VALUE);
+    }
+
+    /**
+     * 读取下一条消息, 流头在第一次读取时校验
+     *
+     * @return 流已经结束时返回 null
+     */
+    public CanalMessage read() throws IOException {
+        if (!headerRead) {
+            if (input.isAtEnd()) {
+                return null;
+            }
+            if (input.readFixed32() != MAGIC) {
+                throw new IOException("not a canal message stream");
+            }
+            int version = input.readUInt32();
+            if (version != VERSION) {
+                throw new IOException("unsupported canal message stream version: " + version);
+            }
+            headerRead = true;
+        }
+        while (!input.isAtEnd()) {
+            // 每条记录单独计算大小限制, 长时间的流不会超过 protobuf 的累计上限
+            input.resetSizeCounter();
+            int type = input.readUInt32();
+            if (type == SCHEMA) {
+                schemas.add(readSchema());
+            } else if (type == MESSAGE) {
+                return readMessage();
+            } else {
+                throw new IOException("unknown record type: " + type);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    private CanalTableSchema readSchema() throws IOException {
+        String schemaName = readDictionary();
+        String tableName = readDictionary();
+        int size = input.readUInt32();
+        String[] columnNames = new String[size];
+        int[] sqlTypes = new int[size];
+        for (int i = 0; i < size; i++) {
+            columnNames[i] = readDictionary();
+            sqlTypes[i] = input.readSInt32();
+        }
+        int[] keyIndexes = new int[input.readUInt32()];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            keyIndexes[i] = input.readUInt32();
+        }
+        return new CanalTableSchema(schemaName, tableName, columnNames, sqlTypes, keyIndexes);
+    }
+
+    private CanalMessage readMessage() throws IOException {
+        CanalMessage message = new CanalMessage();
+        int eventType = input.readUInt32();
+        if (eventType >= EVENT_TYPES.length) {
+            throw new IOException("unknown event type: " + eventType);
+        }
+        message.setEventType(EVENT_TYPES[eventType]);
+        message.setSchemaName(readDictionary());
+        message.setTableName(readDictionary());
+        message.setTransactionId(readString());
+        message.setExecuteTime(input.readSInt64());
+        message.setLogfileName(readDictionary());
+        message.setLogfileOffset(input.readUInt64());
+        readRows(message.getBeforeRows());
+        readRows(message.getAfterRows());
+        return message;
+    }
+
+    private void readRows(List<CanalRow> rows) throws IOException {
+        int count = input.readUInt32();
+        for (int r = 0; r < count; r++) {
+            int schemaId = input.readUInt32();
+            if (schemaId >= schemas.size()) {
+                throw new IOException("unknown schema: " + schemaId);
+            }
+            CanalTableSchema schema = schemas.get(schemaId);
+            int size = schema.size();
+            String[] values = new String[size];
+            long[] present = null;
+            for (int i = 0; i < size; i++) {
+                int tag = input.readUInt32();
+                if (tag == ABSENT) {
+                    if (present == null) {
+                        present = new long[(size + 63) >>> 6];
+                        for (int j = 0; j < i; j++) {
+                            present[j >>> 6] |= 1L << j;
+                        }
+                    }
+                    continue;
+                }
+                values[i] = readValue(tag, schema.getSqlType(i));
+                if (present != null) {
+                    present[i >>> 6] |= 1L << i;
+                }
+            }
+            rows.add(new CanalRow(schema, values, present));
+        }
+    }
+
+    private String readValue(int tag, int sqlType) throws IOException {
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return input.readStringRequireUtf8();
+            case LONG:
+                return Long.toString(input.readSInt64());
+            case DECIMAL:
+                return decimal(input.readUInt32(), input.readSInt64());
+            case DATETIME:
+                return dateTime(sqlType, input.readSInt64());
+            default:
+                throw new IOException("unknown value tag: " + tag);
+        }
+    }
+
+    private static String decimal(int scale, long unscaled) {
+        String digits = Long.toString(Math.abs(unscaled));
+        if (scale == 0) {
+            return unscaled < 0 ? "-" + digits : digits;
+        }
+        StringBuilder builder = new StringBuilder(digits.length() + scale + 2);
+        if (unscaled < 0) {
+            builder.append('-');
+        }
+        for (int i = digits.length(); i <= scale; i++) {
+            builder.append('0');
+        }
+        builder.append(digits);
+        builder.insert(builder.length() - scale, '.');
+        return builder.toString();
+    }
+
+    private static String dateTime(int sqlType, long seconds) {
+        StringBuilder builder = new StringBuilder(19);
+        if (sqlType == Types.DATE) {
+            LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(seconds, 86400));
+            pad(builder, date.getYear(), 4).append('-');
+            pad(builder, date.getMonthValue(), 2).append('-');
+            pad(builder, date.getDayOfMonth(), 2);
+            return builder.toString();
+        }
+        LocalDateTime dateTime = LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+        pad(builder, dateTime.getYear(), 4).append('-');
+        pad(builder, dateTime.getMonthValue(), 2).append('-');
+        pad(builder, dateTime.getDayOfMonth(), 2).append(' ');
+        pad(builder, dateTime.getHour(), 2).append(':');
+        pad(builder, dateTime.getMinute(), 2).append(':');
+        pad(builder, dateTime.getSecond(), 2);
+        return builder.toString();
+    }
+
+    private static StringBuilder pad(StringBuilder builder, int value, int width) {
+        String digits = Integer.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            builder.append('0');
+        }
+        return builder.append(digits);
+    }
+
+    private String readDictionary() throws IOException {
+        int id = input.readUInt32();
+        if (id == 0) {
+            return null;
+        }
+        if (id == 1) {
+            String value = input.readStringRequireUtf8().intern();
+            strings.add(value);
+            return value;
+        }
+        if (id - 2 >= strings.size()) {
+            throw new IOException("unknown string: " + id);
+        }
+        return strings.get(id - 2);
+    }
+
+    private String readString() throws IOException {
+        int length = input.readUInt32();
+        if (length == 0) {
+            return null;
+        }
+        return new String(input.readRawBytes(length - 1), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,308 @@
+package com.sym.canal.codec;
+
+import com.google.protobuf.CodedOutputStream;
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.CanalTableSchema;
+import com.sym.canal.handler.ICanalMessageHandler.CanalMessage;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.sym.canal.codec.CanalMessageCodec.*;
+
+/**
+ * 把{@link CanalMessage}按{@link CanalMessageCodec}的格式写入输出流, 非线程安全.
+ * 调用{@link #flush()}以后数据才会写到底层的输出流
+ *
+ * @author shenyanming
+ * Create on 2021/10/02 10:50
+ */
+public class CanalMessageEncoder implements Closeable, Flushable {
+
+    private final OutputStream stream;
+    private final CodedOutputStream output;
+
+    /**
+     * 已经写过的表结构 -> 编号, 注册中心里同一个表结构是同一个对象
+     */
+    private final Map<CanalTableSchema, Integer> schemaIds = new IdentityHashMap<>();
+
+    /**
+     * 已经写过的字符串 -> 编号
+     */
+    private final Map<String, Integer> stringIds = new HashMap<>();
+
+    public CanalMessageEncoder(OutputStream stream) throws IOException {
+        this.stream = stream;
+        this.output = CodedOutputStream.newInstance(stream, 8 * 1024);
+        output.writeFixed32NoTag(MAGIC);
+        output.writeUInt32NoTag(VERSION);
+    }
+
+    /**
+     * 写入一条消息, 第一次出现的表结构会先写入
+     */
+    public void write(CanalMessage message) throws IOException {
+        writeSchemas(message.getBeforeRows());
+        writeSchemas(message.getAfterRows());
+        output.writeUInt32NoTag(MESSAGE);
+        output.writeUInt32NoTag(message.getEventType().ordinal());
+        writeDictionary(message.getSchemaName());
+        writeDictionary(message.getTableName());
+        writeString(message.getTransactionId());
+        output.writeSInt64NoTag(message.getExecuteTime());
+        writeDictionary(message.getLogfileName());
+        output.writeUInt64NoTag(message.getLogfileOffset());
+        writeRows(message.getBeforeRows());
+        writeRows(message.getAfterRows());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+        stream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        stream.close();
+    }
+
+    private void writeSchemas(List<CanalRow> rows) throws IOException {
+        CanalTableSchema last = null;
+        for (CanalRow row : rows) {
+            CanalTableSchema schema = row.getSchema();
+            if (schema == last || schemaIds.containsKey(schema)) {
+                last = schema;
+                continue;
+            }
+            last = schema;
+            schemaIds.put(schema, schemaIds.size());
+            output.writeUInt32NoTag(SCHEMA);
+            writeDictionary(schema.getSchemaName());
+            writeDictionary(schema.getTableName());
+            output.writeUInt32NoTag(schema.size());
+            for (int i = 0; i < schema.size(); i++) {
+                writeDictionary(schema.getColumnName(i));
+                output.writeSInt32NoTag(schema.getSqlType(i));
+            }
+            int[] keyIndexes = schema.getKeyIndexes();
+            output.writeUInt32NoTag(keyIndexes.length);
+            for (int keyIndex : keyIndexes) {
+                output.writeUInt32NoTag(keyIndex);
+            }
+        }
+    }
+
+    private void writeRows(List<CanalRow> rows) throws IOException {
+        output.writeUInt32NoTag(rows.size());
+        for (CanalRow row : rows) {
+            CanalTableSchema schema = row.getSchema();
+            output.writeUInt32NoTag(schemaIds.get(schema));
+            for (int i = 0; i < row.size(); i++) {
+                if (!row.isPresent(i)) {
+                    output.writeUInt32NoTag(ABSENT);
+                } else {
+                    writeValue(schema.getSqlType(i), row.getString(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * 按 SQL 类型写入一个值, 不能原样还原的按字符串写入
+     */
+    private void writeValue(int sqlType, String value) throws IOException {
+        if (value == null) {
+            output.writeUInt32NoTag(NULL);
+            return;
+        }
+        switch (sqlType) {
+            case Types.BIT:
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                long longValue = parseLong(value);
+                if (longValue != Long.MIN_VALUE) {
+                    output.writeUInt32NoTag(LONG);
+                    output.writeSInt64NoTag(longValue);
+                    return;
+                }
+                break;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                if (writeDecimal(value)) {
+                    return;
+                }
+                break;
+            case Types.TIMESTAMP:
+            case Types.DATE:
+                long seconds = parseDateTime(sqlType, value);
+                if (seconds != Long.MIN_VALUE) {
+                    output.writeUInt32NoTag(DATETIME);
+                    output.writeSInt64NoTag(seconds);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        output.writeUInt32NoTag(STRING);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeUInt32NoTag(bytes.length);
+        output.writeRawBytes(bytes);
+    }
+
+    /**
+     * 小数写成 [varint 小数位数][zigzag 去掉小数点以后的整数]
+     *
+     * @return false 表示不是规范的十进制写法(例如科学计数法、多余的前导0), 或者超出 long 的范围
+     */
+    private boolean writeDecimal(String value) throws IOException {
+        int length = value.length();
+        if (length == 0) {
+            return false;
+        }
+        boolean negative = value.charAt(0) == '-';
+        int start = negative ? 1 : 0;
+        int point = value.indexOf('.');
+        int integerEnd = point < 0 ? length : point;
+        if (integerEnd == start || integerEnd - start > 1 && value.charAt(start) == '0'
+                || point == length - 1 || length - start - (point < 0 ? 0 : 1) > 18) {
+            return false;
+        }
+        long unscaled = 0;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (i == point) {
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            unscaled = unscaled * 10 + (c - '0');
+        }
+        if (negative && unscaled == 0) {
+            // -0.00 无法还原
+            return false;
+        }
+        output.writeUInt32NoTag(DECIMAL);
+        output.writeUInt32NoTag(point < 0 ? 0 : length - point - 1);
+        output.writeSInt64NoTag(negative ? -unscaled : unscaled);
+        return true;
+    }
+
+    /**
+     * 规范写法的整数, 不超过18位
+     *
+     * @return 不能原样还原时返回 Long.MIN_VALUE
+     */
+    static long parseLong(String value) {
+        int length = value.length();
+        boolean negative = length > 0 && value.charAt(0) == '-';
+        int start = negative ? 1 : 0;
+        int digits = length - start;
+        if (digits == 0 || digits > 18 || digits > 1 && value.charAt(start) == '0') {
+            return Long.MIN_VALUE;
+        }
+        long result = 0;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            result = result * 10 + (c - '0');
+        }
+        if (negative && result == 0) {
+            return Long.MIN_VALUE;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * "yyyy-MM-dd HH:mm:ss" 或者 DATE 类型的 "yyyy-MM-dd", 转换成 UTC 下的秒数, 只用来还原字符串, 与时区无关
+     *
+     * @return 不能原样还原时(例如 0000-00-00 00:00:00、带毫秒)返回 Long.MIN_VALUE
+     */
+    static long parseDateTime(int sqlType, String value) {
+        int length = sqlType == Types.DATE ? 10 : 19;
+        if (value.length() != length || value.charAt(4) != '-' || value.charAt(7) != '-'
+                || length == 19 && (value.charAt(10) != ' ' || value.charAt(13) != ':' || value.charAt(16) != ':')) {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        if (year <= 0 || month < 0 || day < 0) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            if (length == 10) {
+                return LocalDate.of(year, month, day).toEpochDay() * 86400;
+            }
+            int hour = digits(value, 11, 2);
+            int minute = digits(value, 14, 2);
+            int second = digits(value, 17, 2);
+            if (hour < 0 || minute < 0 || second < 0) {
+                return Long.MIN_VALUE;
+            }
+            return LocalDateTime.of(year, month, day, hour, minute, second).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private void writeDictionary(String value) throws IOException {
+        if (value == null) {
+            output.writeUInt32NoTag(0);
+            return;
+        }
+        Integer id = stringIds.get(value);
+        if (id != null) {
+            output.writeUInt32NoTag(id + 2);
+            return;
+        }
+        stringIds.put(value, stringIds.size());
+        output.writeUInt32NoTag(1);
+        output.writeStringNoTag(value);
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            output.writeUInt32NoTag(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeUInt32NoTag(bytes.length + 1);
+        output.writeRawBytes(bytes);
+    }
+}
@@ -1,7 +1,12 @@
 package com.sym.canal.config;
 
+import com.sym.canal.filter.CanalEntryFilter;
 import lombok.Builder;
 import lombok.Data;
+import lombok.Singular;
+
+import java.util.Map;
+import java.util.Set;
 
 /**
  * canal客户端配置类
@@ -10,7 +15,7 @@ import lombok.Data;
  * Create on 2021/07/12 17:47
  */
 @Data
-@Builder
+@Builder(toBuilder = true)
 public class CanalConfig {
 
     /**
@@ -23,6 +28,11 @@ public class CanalConfig {
      */
     private Integer post;
 
+    /**
+     * zookeeper 地址, 不为空时使用集群模式连接 canal server, 忽略 host 和 post
+     */
+    private String zkServers;
+
     /**
      * canal server username
      */
@@ -43,11 +53,123 @@ public class CanalConfig {
      */
     private String filter;
 
+    /**
+     * 客户端过滤规则, 在解析行数据之前根据 entry 头信息过滤库表和事件类型, 为 null 表示接收所有表的增删改
+     */
+    private CanalEntryFilter entryFilter;
+
+    /**
+     * 列投影, 库名.表名 -> 需要保留的列名. 配置了投影的表只解析这些列和主键列, 没有配置的表保留所有列
+     */
+    @Singular
+    private Map<String, Set<String>> projections;
+
+    /**
+     * 保留列, 库名.表名 -> 总是保留的列名. 和主键列一样不会被投影去掉, 增量模式下 UPDATE 也总是包含这些列,
+     * 比如缓存 key 模板引用的列, 可以直接使用{@link com.sym.canal.handler.RedisCanalMessageHandler#keyColumns()}
+     */
+    @Singular
+    private Map<String, Set<String>> retainedColumns;
+
+    /**
+     * 增量模式, UPDATE 修改前后的数据都只保留被修改的列、主键列和保留列, 没有修改的列在{@link com.sym.canal.handler.CanalRow}中不存在.
+     * 适合列很多但每次只修改少数几列的表, 处理器需要按列更新而不是整行覆盖
+     */
+    private boolean deltaUpdates;
+
     /**
      * 最大拉取条数
      */
     private int maxBatchSize;
 
+    /**
+     * 最小拉取条数, 自适应调整拉取条数时的下限
+     */
+    private int minBatchSize;
+
+    /**
+     * 期望的单批次处理耗时(毫秒), 拉取条数会据此在[minBatchSize, maxBatchSize]之间调整, 小于等于0表示固定拉取maxBatchSize条.
+     * 默认200
+     */
+    @Builder.Default
+    private long targetHandleMillis = 200;
+
+    /**
+     * 空轮询时的最短休眠时间(毫秒), 连续空轮询时指数退避, 默认10
+     */
+    @Builder.Default
+    private long minIdleMillis = 10;
+
+    /**
+     * 空轮询时的最长休眠时间(毫秒), 暂停时也按这个间隔检查状态, 默认500
+     */
+    @Builder.Default
+    private long maxIdleMillis = 500;
+
+    /**
+     * 并行处理的分片数, 小于等于1表示串行处理. 大于1时行数据按照表名+主键分片,
+     * 同一主键的变更保证有序, 此时{@link com.sym.canal.handler.ICanalMessageHandler}需要是线程安全的
+     */
+    private int parallelism;
+
+    /**
+     * 最多允许多少个已拉取但未提交的批次. 大于1时, 处理当前批次的同时会预取后面的批次,
+     * 批次仍然严格按照 batchId 顺序提交, 任何一个批次处理失败都会回滚到最早未提交的批次.
+     * 使用{@link com.sym.canal.handler.IAsyncCanalMessageHandler}时, 它也是未完成的处理结果的上限, 窗口满了就暂停拉取. 默认1
+     */
+    @Builder.Default
+    private int maxInFlightBatches = 1;
+
+    /**
+     * 合并窗口最多包含的批次数, 小于等于0表示不合并. 开启以后同一主键的多次变更只保留最终结果,
+     * 例如 INSERT + UPDATE 合并成 INSERT, INSERT + DELETE 直接抵消. 窗口不能超过{@link #maxInFlightBatches},
+     * 超过时按{@link #maxInFlightBatches}处理并打印警告, 在途窗口满了或者空闲时会提前合并. 开启本地缓冲时只合并单个批次内的变更
+     */
+    private int coalesceWindowBatches;
+
+    /**
+     * 合并窗口最长的等待时间(毫秒), 小于等于0表示只按批次数控制
+     */
+    private long coalesceWindowMillis;
+
+    /**
+     * 是否按事务投递. 开启以后一个完整的 binlog 事务作为一次处理器调用, 跨批次的事务会等到事务尾到达以后再投递,
+     * 包含它的批次也要等到事务处理完才提交, 拉取事务剩余部分时不受{@link #maxInFlightBatches}限制. 为了不拆散事务, 会忽略{@link #parallelism}按单线程处理,
+     * {@link #coalesceWindowBatches}也只合并事务内的变更
+     */
+    private boolean transactional;
+
+    /**
+     * 本地缓冲目录, 为空表示不启用. 启用后拉取到的批次先写入本地缓冲, 刷盘以后立即提交给 canal server,
+     * 再由单独的线程从缓冲读取交给处理器, 处理器变慢不会影响 canal server
+     */
+    private String spoolDir;
+
+    /**
+     * 本地缓冲的分段文件大小
+     */
+    private int spoolSegmentBytes;
+
+    /**
+     * 本地缓冲每攒够多少个批次刷一次盘, 空闲时也会刷盘
+     */
+    private int spoolForceBatches;
+
+    /**
+     * 录制文件, 不为空时把客户端提交的批次写入这个文件, 用于离线回放
+     */
+    private String recordFile;
+
+    /**
+     * 回放文件, 不为空时不连接 canal server, 而是回放{@link #recordFile}录制的数据, 用于压测
+     */
+    private String replayFile;
+
+    /**
+     * 回放时每秒最多投递的 entry 数, 小于等于0表示尽快投递
+     */
+    private double replayEntriesPerSecond;
+
     public static CanalConfig defaultConfig() {
         return CanalConfig.builder()
                 .host("127.0.0.1")
@@ -56,7 +178,16 @@ public class CanalConfig {
                 .password("")
                 .destination("example")
                 .maxBatchSize(1000)
+                .minBatchSize(100)
+                .targetHandleMillis(200)
+                .minIdleMillis(10)
+                .maxIdleMillis(500)
+                .parallelism(1)
+                .maxInFlightBatches(1)
+                .spoolSegmentBytes(64 * 1024 * 1024)
+                .spoolForceBatches(16)
                 .filter(".*\\..*")
+                .entryFilter(CanalEntryFilter.acceptAll())
                 .build();
     }
 }
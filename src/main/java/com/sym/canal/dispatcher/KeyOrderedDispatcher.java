@@ -0,0 +1,216 @@
+package com.sym.canal.dispatcher;
+
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.IAsyncCanalMessageHandler;
+import com.sym.canal.handler.ICanalMessageHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 key 分片的并行分发器. 每个分片对应一个单线程的工作线程, 同一个分片上的任务严格按照提交顺序执行,
+ * 所以只要同一个 key(表名 + 主键) 总是落到同一个分片, 就能保证该 key 的变更顺序.
+ * <p>
+ * 修改了主键的 UPDATE 按修改后的主键分片, 如果新旧主键落在不同的分片上, 这一行单独成段:
+ * 之前的数据在所有分片上都交给处理器以后才分发它, 它交给处理器以后才分发之后的数据,
+ * 这样新旧两个主键的变更都不会和它乱序. 这种情况下{@link #dispatch}会阻塞调用线程直到前面的段都交给了处理器.
+ *
+ * @author shenyanming
+ * Create on 2021/07/18 10:21
+ */
+@Slf4j
+public class KeyOrderedDispatcher {
+
+    /**
+     * 分片工作线程
+     */
+    private final ExecutorService[] workers;
+
+    public KeyOrderedDispatcher(String name, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.workers = new ExecutorService[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            String threadName = name + "-worker-" + i;
+            workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * 分片数量
+     */
+    public int shards() {
+        return workers.length;
+    }
+
+    /**
+     * 按照表名+主键分片, 交给对应的工作线程处理
+     *
+     * @param messageList 解析好的数据
+     * @param handler     消息处理器, 会被多个工作线程并发调用
+     * @return 所有分片都处理完以后才会完成
+     */
+    public CompletableFuture<Void> dispatch(List<ICanalMessageHandler.CanalMessage> messageList,
+                                            IAsyncCanalMessageHandler handler) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(workers.length);
+        List<CompletableFuture<?>> invoked = Collections.emptyList();
+        for (List<ICanalMessageHandler.CanalMessage> segment : segments(messageList)) {
+            if (!invoked.isEmpty()) {
+                // 上一段在所有分片上都交给处理器以后才分发下一段, 失败由返回的结果通知
+                CompletableFuture.allOf(invoked.toArray(new CompletableFuture[0])).handle((v, e) -> null).join();
+            }
+            List<List<ICanalMessageHandler.CanalMessage>> shardMessages = shard(segment);
+            invoked = new ArrayList<>(shardMessages.size());
+            for (int i = 0; i < shardMessages.size(); i++) {
+                List<ICanalMessageHandler.CanalMessage> shardMessageList = shardMessages.get(i);
+                if (shardMessageList.isEmpty()) {
+                    continue;
+                }
+                // 工作线程只负责按顺序调用处理器, 不等待异步处理的结果
+                CompletableFuture<CompletionStage<Void>> call =
+                        CompletableFuture.supplyAsync(() -> handler.resolve(shardMessageList), workers[i]);
+                invoked.add(call);
+                futures.add(call.thenCompose(stage -> stage == null ? CompletableFuture.completedFuture(null) : stage));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * 在新旧主键落在不同分片的 UPDATE 行前后切分, 这样的行单独成段; 没有这样的行时整批数据就是一段
+     */
+    private List<List<ICanalMessageHandler.CanalMessage>> segments(List<ICanalMessageHandler.CanalMessage> messageList) {
+        if (workers.length == 1 || messageList.stream().noneMatch(this::hasShardChange)) {
+            return Collections.singletonList(messageList);
+        }
+        List<List<ICanalMessageHandler.CanalMessage>> segments = new ArrayList<>();
+        List<ICanalMessageHandler.CanalMessage> segment = new ArrayList<>();
+        for (ICanalMessageHandler.CanalMessage message : messageList) {
+            if (!hasShardChange(message)) {
+                segment.add(message);
+                continue;
+            }
+            ICanalMessageHandler.CanalMessage copy = null;
+            for (int i = 0; i < message.getAfterRows().size(); i++) {
+                CanalRow beforeRow = message.getBeforeRows().get(i);
+                CanalRow afterRow = message.getAfterRows().get(i);
+                if (shardOf(message.getTableName(), beforeRow) == shardOf(message.getTableName(), afterRow)) {
+                    if (copy == null) {
+                        copy = message.emptyCopy();
+                        segment.add(copy);
+                    }
+                    copy.getBeforeRows().add(beforeRow);
+                    copy.getAfterRows().add(afterRow);
+                    continue;
+                }
+                if (!segment.isEmpty()) {
+                    segments.add(segment);
+                    segment = new ArrayList<>();
+                }
+                ICanalMessageHandler.CanalMessage change = message.emptyCopy();
+                change.getBeforeRows().add(beforeRow);
+                change.getAfterRows().add(afterRow);
+                segments.add(Collections.singletonList(change));
+                copy = null;
+            }
+        }
+        if (!segment.isEmpty()) {
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    /**
+     * 是否有修改了主键并且新旧主键落在不同分片上的行
+     */
+    private boolean hasShardChange(ICanalMessageHandler.CanalMessage message) {
+        if (message.getEventType() != ICanalMessageHandler.CanalEventType.UPDATE
+                || message.getBeforeRows().size() != message.getAfterRows().size()) {
+            return false;
+        }
+        for (int i = 0; i < message.getAfterRows().size(); i++) {
+            CanalRow beforeRow = message.getBeforeRows().get(i);
+            CanalRow afterRow = message.getAfterRows().get(i);
+            if (!beforeRow.sameKey(afterRow)
+                    && shardOf(message.getTableName(), beforeRow) != shardOf(message.getTableName(), afterRow)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按照表名+主键将行数据划分到不同的分片中. 同一个消息落在同一个分片的行数据仍然合并成一个消息,
+     * 分片内的顺序与原来的顺序一致.
+     *
+     * @return 下标即分片号
+     */
+    public List<List<ICanalMessageHandler.CanalMessage>> shard(List<ICanalMessageHandler.CanalMessage> messageList) {
+        int shards = workers.length;
+        if (shards == 1) {
+            return Collections.singletonList(messageList);
+        }
+        List<List<ICanalMessageHandler.CanalMessage>> shardMessages = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            shardMessages.add(new ArrayList<>());
+        }
+        ICanalMessageHandler.CanalMessage[] copies = new ICanalMessageHandler.CanalMessage[shards];
+        for (ICanalMessageHandler.CanalMessage message : messageList) {
+            Arrays.fill(copies, null);
+            List<CanalRow> beforeRows = message.getBeforeRows();
+            List<CanalRow> afterRows = message.getAfterRows();
+            int rows = Math.max(beforeRows.size(), afterRows.size());
+            for (int i = 0; i < rows; i++) {
+                CanalRow beforeRow = i < beforeRows.size() ? beforeRows.get(i) : null;
+                CanalRow afterRow = i < afterRows.size() ? afterRows.get(i) : null;
+                // delete 以修改前的数据计算分片, 其它都以修改后的数据计算分片, 主键跨分片变化的行已经由 dispatch 单独成段
+                int shard = shardOf(message.getTableName(), afterRow == null ? beforeRow : afterRow);
+                ICanalMessageHandler.CanalMessage copy = copies[shard];
+                if (copy == null) {
+                    copy = copies[shard] = message.emptyCopy();
+                    shardMessages.get(shard).add(copy);
+                }
+                if (beforeRow != null) {
+                    copy.getBeforeRows().add(beforeRow);
+                }
+                if (afterRow != null) {
+                    copy.getAfterRows().add(afterRow);
+                }
+            }
+        }
+        return shardMessages;
+    }
+
+    /**
+     * 按照表名+主键计算分片, 没有主键的表只按表名计算, 即整张表落在同一个分片上
+     */
+    private int shardOf(String tableName, CanalRow row) {
+        int hash = 31 * tableName.hashCode() + row.keyHash();
+        // 扰动一下, 避免主键连续时分布不均匀
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % workers.length;
+    }
+
+    /**
+     * 关闭所有工作线程, 已经提交的任务会继续执行完
+     */
+    public void shutdown() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.sym.canal.filter;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import lombok.Builder;
+import lombok.Singular;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 客户端的 entry 过滤规则, 只根据{@link CanalEntry.Header}中的库名、表名和事件类型判断,
+ * 不需要解析{@link CanalEntry.Entry#getStoreValue()}, 被过滤掉的 entry 不会再做 protobuf 反序列化.
+ * <p>
+ * 库表规则是对"库名.表名"的正则匹配: 配置了 include 时必须命中其中一个, 命中任意一个 exclude 则丢弃.
+ * 库表的判断结果会缓存起来, 同一张表只做一次正则匹配.
+ *
+ * @author shenyanming
+ * Create on 2021/07/21 20:32
+ */
+public class CanalEntryFilter {
+
+    /**
+     * 客户端能够处理的事件类型
+     */
+    private static final Set<CanalEntry.EventType> ROW_EVENT_TYPES =
+            Collections.unmodifiableSet(EnumSet.of(CanalEntry.EventType.INSERT, CanalEntry.EventType.UPDATE, CanalEntry.EventType.DELETE));
+
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+    private final Set<CanalEntry.EventType> eventTypes;
+
+    /**
+     * 库表判断结果的缓存, 库名 -> 表名 -> 是否接收
+     */
+    private final Map<String, Map<String, Boolean>> tableCache = new ConcurrentHashMap<>();
+
+    /**
+     * @param includes   需要接收的"库名.表名"正则, 为空表示全部接收
+     * @param excludes   需要丢弃的"库名.表名"正则
+     * @param eventTypes 需要接收的事件类型, 只能是增删改, 为空表示增删改都接收
+     */
+    @Builder
+    private CanalEntryFilter(@Singular List<String> includes, @Singular List<String> excludes,
+                             @Singular Set<CanalEntry.EventType> eventTypes) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+        Set<CanalEntry.EventType> types = EnumSet.noneOf(CanalEntry.EventType.class);
+        if (eventTypes == null || eventTypes.isEmpty()) {
+            types.addAll(ROW_EVENT_TYPES);
+        } else {
+            for (CanalEntry.EventType eventType : eventTypes) {
+                if (!ROW_EVENT_TYPES.contains(eventType)) {
+                    throw new IllegalArgumentException("unsupported event type: " + eventType);
+                }
+                types.add(eventType);
+            }
+        }
+        this.eventTypes = types;
+    }
+
+    /**
+     * 接收所有表的增删改
+     */
+    public static CanalEntryFilter acceptAll() {
+        return CanalEntryFilter.builder().build();
+    }
+
+    /**
+     * 判断 entry 是否需要解析
+     *
+     * @param header entry 头信息
+     * @return true-需要解析
+     */
+    public boolean accept(CanalEntry.Header header) {
+        if (!eventTypes.contains(header.getEventType())) {
+            return false;
+        }
+        if (includes.isEmpty() && excludes.isEmpty()) {
+            return true;
+        }
+        String schemaName = header.getSchemaName();
+        String tableName = header.getTableName();
+        Map<String, Boolean> tables = tableCache.computeIfAbsent(schemaName, k -> new ConcurrentHashMap<>());
+        Boolean accepted = tables.get(tableName);
+        if (accepted == null) {
+            accepted = match(schemaName + "." + tableName);
+            tables.put(tableName, accepted);
+        }
+        return accepted;
+    }
+
+    private boolean match(String fullName) {
+        for (Pattern exclude : excludes) {
+            if (exclude.matcher(fullName).matches()) {
+                return false;
+            }
+        }
+        if (includes.isEmpty()) {
+            return true;
+        }
+        for (Pattern include : includes) {
+            if (include.matcher(fullName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> compile(List<String> regexList) {
+        if (regexList == null || regexList.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Pattern> patterns = new ArrayList<>(regexList.size());
+        for (String regex : regexList) {
+            patterns.add(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+        }
+        return patterns;
+    }
+}
@@ -0,0 +1,420 @@
+package com.sym.canal.handler;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 一行数据. 列信息保存在共享的{@link CanalTableSchema}中, 这里只保存 canal 传过来的原始字符串值,
+ * 按照列的SQL类型在第一次访问时才转换成 Long、BigDecimal、Timestamp.
+ * 需要 Map 形式的可以调用{@link #asMap()}, 它只是一个视图, 不会复制数据.
+ * <p>
+ * 增量模式下 UPDATE 的行只包含被修改的列和主键列, 其余的列不存在, 用{@link #isPresent(int)}区分列不存在和值为 NULL,
+ * {@link #asMap()}也只包含存在的列.
+ *
+ * @author shenyanming
+ * Create on 2021/07/24 15:40
+ */
+public final class CanalRow implements Serializable {
+    private static final long serialVersionUID = -2751498834263650142L;
+
+    private final CanalTableSchema schema;
+
+    /**
+     * 原始值, null 表示数据库中的 NULL
+     */
+    private final String[] values;
+
+    /**
+     * 存在的列的位图, null 表示所有列都存在
+     */
+    private final long[] present;
+
+    /**
+     * 转换后的值, 第一次按类型访问时才分配
+     */
+    private transient Object[] typedValues;
+
+    public CanalRow(CanalTableSchema schema, String[] values) {
+        this(schema, values, null);
+    }
+
+    /**
+     * @param present 存在的列的位图, null 表示所有列都存在
+     */
+    public CanalRow(CanalTableSchema schema, String[] values, long[] present) {
+        this.schema = schema;
+        this.values = values;
+        this.present = present;
+    }
+
+    /**
+     * 根据 canal 的列数据创建一行, 表结构有投影时只读取投影的列
+     */
+    public static CanalRow of(CanalTableSchema schema, List<CanalEntry.Column> columnList) {
+        return of(schema, columnList, null);
+    }
+
+    /**
+     * 根据 canal 的列数据创建一行, 只读取位图中存在的列
+     *
+     * @param present 存在的列的位图, null 表示读取所有列
+     */
+    public static CanalRow of(CanalTableSchema schema, List<CanalEntry.Column> columnList, long[] present) {
+        String[] values = new String[schema.size()];
+        for (int i = 0; i < values.length; i++) {
+            if (present != null && !isSet(present, i)) {
+                continue;
+            }
+            CanalEntry.Column column = columnList.get(schema.getSourceIndex(i));
+            values[i] = column.getIsNull() ? null : column.getValue();
+        }
+        return new CanalRow(schema, values, present);
+    }
+
+    /**
+     * UPDATE 中被修改的列、主键列和保留列的位图
+     *
+     * @param columnList 修改后的列数据
+     * @return 所有列都被修改时返回 null
+     */
+    public static long[] updatedColumns(CanalTableSchema schema, List<CanalEntry.Column> columnList) {
+        int size = schema.size();
+        long[] updated = new long[(size + 63) >>> 6];
+        boolean all = true;
+        for (int i = 0; i < size; i++) {
+            if (columnList.get(schema.getSourceIndex(i)).getUpdated() || schema.isRetained(i)) {
+                updated[i >>> 6] |= 1L << i;
+            } else {
+                all = false;
+            }
+        }
+        return all ? null : updated;
+    }
+
+    /**
+     * 把新的行数据叠加到旧的行数据上: 新的行数据中存在的列取新值, 其余的列取旧值.
+     * 新的行数据包含所有列时直接返回它
+     *
+     * @param base 旧的行数据, 可以为 null
+     * @param top  新的行数据
+     */
+    public static CanalRow overlay(CanalRow base, CanalRow top) {
+        if (top.present == null || base == null || base.schema != top.schema) {
+            return top;
+        }
+        String[] values = new String[top.values.length];
+        long[] present = base.present == null ? null : new long[top.present.length];
+        for (int i = 0; i < values.length; i++) {
+            if (isSet(top.present, i)) {
+                values[i] = top.values[i];
+            } else if (base.isPresent(i)) {
+                values[i] = base.values[i];
+            } else {
+                continue;
+            }
+            if (present != null) {
+                present[i >>> 6] |= 1L << i;
+            }
+        }
+        return new CanalRow(top.schema, values, present);
+    }
+
+    public CanalTableSchema getSchema() {
+        return schema;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * 列是否存在. 增量模式下 UPDATE 没有修改的列不存在, 它的值为 null 但并不代表数据库中的 NULL
+     */
+    public boolean isPresent(int index) {
+        return present == null || isSet(present, index);
+    }
+
+    /**
+     * 是否只包含部分列
+     */
+    public boolean isPartial() {
+        return present != null;
+    }
+
+    /**
+     * 原始字符串值
+     */
+    public String getString(int index) {
+        return values[index];
+    }
+
+    public String getString(String columnName) {
+        int index = schema.indexOf(columnName);
+        return index < 0 ? null : values[index];
+    }
+
+    /**
+     * 按照列的SQL类型转换后的值: 整数类型为 Long, 小数类型为 BigDecimal, 时间类型为 Timestamp, 其它为 String.
+     * 无法转换的值(例如 0000-00-00 00:00:00)保持原始字符串.
+     */
+    public Object get(int index) {
+        String value = values[index];
+        if (value == null) {
+            return null;
+        }
+        Object[] typed = typedValues;
+        if (typed == null) {
+            typedValues = typed = new Object[values.length];
+        }
+        Object result = typed[index];
+        if (result == null) {
+            typed[index] = result = convert(schema.getSqlType(index), value);
+        }
+        return result;
+    }
+
+    public Object get(String columnName) {
+        int index = schema.indexOf(columnName);
+        return index < 0 ? null : get(index);
+    }
+
+    public Long getLong(int index) {
+        Object value = get(index);
+        if (value == null || value instanceof Long) {
+            return (Long) value;
+        }
+        return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(value.toString());
+    }
+
+    public Long getLong(String columnName) {
+        int index = schema.indexOf(columnName);
+        return index < 0 ? null : getLong(index);
+    }
+
+    public BigDecimal getBigDecimal(int index) {
+        Object value = get(index);
+        if (value == null || value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        return value instanceof Long ? BigDecimal.valueOf((Long) value) : new BigDecimal(values[index]);
+    }
+
+    public BigDecimal getBigDecimal(String columnName) {
+        int index = schema.indexOf(columnName);
+        return index < 0 ? null : getBigDecimal(index);
+    }
+
+    public Timestamp getTimestamp(int index) {
+        Object value = get(index);
+        if (value == null || value instanceof Timestamp) {
+            return (Timestamp) value;
+        }
+        return Timestamp.valueOf(value.toString());
+    }
+
+    public Timestamp getTimestamp(String columnName) {
+        int index = schema.indexOf(columnName);
+        return index < 0 ? null : getTimestamp(index);
+    }
+
+    /**
+     * 主键的哈希值, 没有主键时为0
+     */
+    public int keyHash() {
+        int hash = 0;
+        for (int index : schema.getKeyIndexes()) {
+            String value = values[index];
+            hash = 31 * hash + (value == null ? 0 : value.hashCode());
+        }
+        return hash;
+    }
+
+    /**
+     * 主键的字符串形式, 联合主键用 "_" 连接, 没有主键时返回 null
+     */
+    public String keyString() {
+        int[] keyIndexes = schema.getKeyIndexes();
+        if (keyIndexes.length == 0) {
+            return null;
+        }
+        if (keyIndexes.length == 1) {
+            return String.valueOf(values[keyIndexes[0]]);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < keyIndexes.length; i++) {
+            if (i > 0) {
+                builder.append('_');
+            }
+            builder.append(values[keyIndexes[i]]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 主键是否相同, 两行数据需要来自同一张表
+     */
+    public boolean sameKey(CanalRow other) {
+        int[] keyIndexes = schema.getKeyIndexes();
+        int[] otherKeyIndexes = other.schema.getKeyIndexes();
+        if (keyIndexes.length != otherKeyIndexes.length) {
+            return false;
+        }
+        for (int i = 0; i < keyIndexes.length; i++) {
+            if (!Objects.equals(values[keyIndexes[i]], other.values[otherKeyIndexes[i]])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 列名 -> 原始字符串值的只读视图
+     */
+    public Map<String, Object> asMap() {
+        return new RowMap();
+    }
+
+    /**
+     * 将行数据列表转换成 Map 列表的只读视图
+     */
+    public static List<Map<String, Object>> asMaps(List<CanalRow> rows) {
+        return new AbstractList<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> get(int index) {
+                return rows.get(index).asMap();
+            }
+
+            @Override
+            public int size() {
+                return rows.size();
+            }
+        };
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static Object convert(int sqlType, String value) {
+        try {
+            switch (sqlType) {
+                case Types.BIT:
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    if (value.length() < 19) {
+                        return Long.valueOf(value);
+                    }
+                    // bigint unsigned 可能超出 long 的范围
+                    BigInteger bigInteger = new BigInteger(value);
+                    return bigInteger.bitLength() < 64 ? (Object) bigInteger.longValue() : new BigDecimal(bigInteger);
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    return new BigDecimal(value);
+                case Types.TIMESTAMP:
+                    return Timestamp.valueOf(value);
+                case Types.DATE:
+                    return new Timestamp(Date.valueOf(value).getTime());
+                case Types.TIME:
+                    return new Timestamp(Time.valueOf(value).getTime());
+                default:
+                    return value;
+            }
+        } catch (IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+    private class RowMap extends AbstractMap<String, Object> {
+
+        @Override
+        public int size() {
+            if (present == null) {
+                return values.length;
+            }
+            int size = 0;
+            for (long bits : present) {
+                size += Long.bitCount(bits);
+            }
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+            int index = schema.indexOf((String) key);
+            return index >= 0 && isPresent(index);
+        }
+
+        @Override
+        public Object get(Object key) {
+            return key instanceof String ? getString((String) key) : null;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int index = skip(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < values.length;
+                        }
+
+                        private int skip(int from) {
+                            while (from < values.length && !isPresent(from)) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (index >= values.length) {
+                                throw new NoSuchElementException();
+                            }
+                            int i = index;
+                            index = skip(index + 1);
+                            return new SimpleImmutableEntry<>(schema.getColumnName(i), values[i]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return RowMap.this.size();
+                }
+            };
+        }
+    }
+}
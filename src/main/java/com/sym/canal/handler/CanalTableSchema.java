@@ -0,0 +1,164 @@
+package com.sym.canal.handler;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 表结构: 列名、列的位置、SQL类型和主键列. 同一张表的行数据共用一个表结构,
+ * 行数据本身只保存值数组, 不再为每一行重复保存列名. 由{@link com.sym.canal.parser.CanalSchemaRegistry}统一创建和缓存.
+ * <p>
+ * 配置了列投影时, 表结构只包含投影的列和主键列, 并记录每一列在 binlog 原始列中的位置.
+ * 保留列(比如缓存 key 引用的列)和主键列一样, 不会被投影去掉, 增量模式下也总是存在.
+ *
+ * @author shenyanming
+ * Create on 2021/07/24 15:12
+ */
+public final class CanalTableSchema implements Serializable {
+    private static final long serialVersionUID = 4312861279640751287L;
+
+    private final String schemaName;
+    private final String tableName;
+
+    /**
+     * 列名, 下标即列的位置
+     */
+    private final String[] columnNames;
+
+    /**
+     * 列的SQL类型, 取值见{@link java.sql.Types}
+     */
+    private final int[] sqlTypes;
+
+    /**
+     * 主键列的位置
+     */
+    private final int[] keyIndexes;
+
+    /**
+     * 列名 -> 列的位置
+     */
+    private final Map<String, Integer> indexes;
+
+    /**
+     * 每一列在 binlog 原始列中的位置, null 表示没有投影, 与原始列一一对应
+     */
+    private final int[] sourceIndexes;
+
+    /**
+     * binlog 原始列的列数
+     */
+    private final int sourceSize;
+
+    /**
+     * 保留列的位置, 不包括主键列
+     */
+    private final int[] retainedIndexes;
+
+    public CanalTableSchema(String schemaName, String tableName, String[] columnNames, int[] sqlTypes, int[] keyIndexes) {
+        this(schemaName, tableName, columnNames, sqlTypes, keyIndexes, null, columnNames.length);
+    }
+
+    public CanalTableSchema(String schemaName, String tableName, String[] columnNames, int[] sqlTypes, int[] keyIndexes,
+                            int[] sourceIndexes, int sourceSize) {
+        this(schemaName, tableName, columnNames, sqlTypes, keyIndexes, sourceIndexes, sourceSize, new int[0]);
+    }
+
+    public CanalTableSchema(String schemaName, String tableName, String[] columnNames, int[] sqlTypes, int[] keyIndexes,
+                            int[] sourceIndexes, int sourceSize, int[] retainedIndexes) {
+        this.schemaName = schemaName;
+        this.tableName = tableName;
+        this.columnNames = columnNames;
+        this.sqlTypes = sqlTypes;
+        this.keyIndexes = keyIndexes;
+        this.sourceIndexes = sourceIndexes;
+        this.sourceSize = sourceSize;
+        this.retainedIndexes = retainedIndexes;
+        this.indexes = new HashMap<>(columnNames.length * 4 / 3 + 1);
+        for (int i = 0; i < columnNames.length; i++) {
+            indexes.put(columnNames[i], i);
+        }
+    }
+
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public int size() {
+        return columnNames.length;
+    }
+
+    public String getColumnName(int index) {
+        return columnNames[index];
+    }
+
+    public int getSqlType(int index) {
+        return sqlTypes[index];
+    }
+
+    public int[] getKeyIndexes() {
+        return keyIndexes;
+    }
+
+    /**
+     * 列在 binlog 原始列中的位置
+     */
+    public int getSourceIndex(int index) {
+        return sourceIndexes == null ? index : sourceIndexes[index];
+    }
+
+    /**
+     * binlog 原始列的列数, 没有投影时与{@link #size()}相同
+     */
+    public int getSourceSize() {
+        return sourceSize;
+    }
+
+    public boolean isProjected() {
+        return sourceIndexes != null;
+    }
+
+    public boolean isKey(int index) {
+        for (int keyIndex : keyIndexes) {
+            if (keyIndex == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 主键列或者保留列, 增量模式下 UPDATE 总是包含这些列
+     */
+    public boolean isRetained(int index) {
+        if (isKey(index)) {
+            return true;
+        }
+        for (int retainedIndex : retainedIndexes) {
+            if (retainedIndex == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 列的位置
+     *
+     * @return -1表示没有这一列
+     */
+    public int indexOf(String columnName) {
+        Integer index = indexes.get(columnName);
+        return index == null ? -1 : index;
+    }
+
+    @Override
+    public String toString() {
+        return schemaName + "." + tableName + Arrays.toString(columnNames);
+    }
+}
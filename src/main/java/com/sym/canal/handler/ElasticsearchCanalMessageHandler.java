@@ -0,0 +1,318 @@
+package com.sym.canal.handler;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Delete;
+import io.searchbox.core.DocumentResult;
+import io.searchbox.core.Index;
+import io.searchbox.core.Update;
+import io.searchbox.params.Parameters;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 将 canal 数据增量同步到 elasticsearch 的处理器. INSERT、UPDATE 转成 index, DELETE 转成 delete,
+ * 以主键作为 _id, binlog 位置作为外部版本号(version_type=external), 重复投递或者乱序到达的旧数据会因为版本冲突被忽略.
+ * 修改了主键的 UPDATE 会先删除旧主键的文档.
+ * <p>
+ * 数据先放进缓冲, 攒够{@link #bulkActions}条或者等待{@link #flushMillis}毫秒以后一起通过 bulk 请求写入,
+ * 所有数据都写入成功以后才通知 canal client 提交批次, 配合 maxInFlightBatches 可以把多个批次合并成一个 bulk.
+ * bulk 中失败的条目(429、5xx)单独重试, 超过重试次数或者遇到不可重试的错误时本次 bulk 涉及的批次都会失败并回滚.
+ * 没有主键的表使用自动生成的 _id, 也不会同步删除.
+ * <p>
+ * 增量模式下 UPDATE 的行只包含被修改的列和主键列, 转成局部 update, 不会覆盖其它字段. update 不支持外部版本号,
+ * 所以 binlog 位置已知时, index 会把版本号同时写入文档的{@link #VERSION_FIELD}字段, 局部 update 使用脚本比较这个字段,
+ * 只有更新的数据才会写入, 重复投递或者回滚以后迟到的旧数据变成 noop. binlog 位置未知时退化成不带保护的{"doc": ...}更新.
+ * 文档不存在时 update 会失败, 说明索引和数据库已经不一致, 需要重新全量同步
+ *
+ * @author shenyanming
+ * Create on 2021/09/11 10:40
+ */
+@Slf4j
+public class ElasticsearchCanalMessageHandler implements IAsyncCanalMessageHandler, Closeable {
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+    private static final String EXTERNAL = "external";
+
+    /**
+     * 文档中保存 binlog 版本号的字段, 供局部 update 判断新旧
+     */
+    public static final String VERSION_FIELD = "canal_version";
+
+    /**
+     * 局部 update 的脚本: 文档中的版本号比本次更新的旧时才写入
+     */
+    private static final String PARTIAL_UPDATE_SCRIPT = "if (ctx._source." + VERSION_FIELD + " == null || ctx._source."
+            + VERSION_FIELD + " < params.version) { ctx._source.putAll(params.doc); ctx._source." + VERSION_FIELD
+            + " = params.version; } else { ctx.op = 'none'; }";
+
+    private final JestClient client;
+
+    /**
+     * 数据写入哪个索引, 默认为小写的 库名_表名
+     */
+    private final Function<ICanalMessageHandler.CanalMessage, String> indexResolver;
+
+    private final String type;
+
+    /**
+     * 缓冲达到多少条数据时立即写入
+     */
+    private final int bulkActions;
+
+    /**
+     * 缓冲最长的等待时间(毫秒)
+     */
+    private final long flushMillis;
+
+    /**
+     * 失败条目的最大重试次数
+     */
+    private final int maxRetries;
+
+    private final ScheduledExecutorService scheduler;
+
+    private List<BulkableAction<DocumentResult>> pendingActions = new ArrayList<>();
+    private List<CompletableFuture<Void>> pendingFutures = new ArrayList<>();
+    private ScheduledFuture<?> flushTimer;
+
+    @Builder
+    private ElasticsearchCanalMessageHandler(JestClient client, Function<ICanalMessageHandler.CanalMessage, String> indexResolver,
+                                             String type, int bulkActions, long flushMillis, int maxRetries) {
+        this.client = Objects.requireNonNull(client);
+        this.indexResolver = Objects.isNull(indexResolver)
+                ? message -> (message.getSchemaName() + "_" + message.getTableName()).toLowerCase() : indexResolver;
+        this.type = Objects.isNull(type) ? "_doc" : type;
+        this.bulkActions = bulkActions > 0 ? bulkActions : 1000;
+        this.flushMillis = flushMillis > 0 ? flushMillis : 200;
+        this.maxRetries = Math.max(maxRetries, 0);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "canal-es-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> resolve(List<ICanalMessageHandler.CanalMessage> messageList) {
+        List<BulkableAction<DocumentResult>> actions = new ArrayList<>();
+        for (ICanalMessageHandler.CanalMessage message : messageList) {
+            addActions(message, actions);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (actions.isEmpty()) {
+            future.complete(null);
+            return future;
+        }
+        synchronized (this) {
+            pendingActions.addAll(actions);
+            pendingFutures.add(future);
+            if (pendingActions.size() >= bulkActions) {
+                flush();
+            } else if (Objects.isNull(flushTimer)) {
+                flushTimer = scheduler.schedule(this::flush, flushMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * 立即写入缓冲中的数据
+     */
+    public synchronized void flush() {
+        if (Objects.nonNull(flushTimer)) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+        if (pendingActions.isEmpty()) {
+            return;
+        }
+        List<BulkableAction<DocumentResult>> actions = pendingActions;
+        List<CompletableFuture<Void>> futures = pendingFutures;
+        pendingActions = new ArrayList<>();
+        pendingFutures = new ArrayList<>();
+        execute(actions, futures, 0);
+    }
+
+    @Override
+    public void close() {
+        flush();
+        scheduler.shutdown();
+    }
+
+    private void execute(List<BulkableAction<DocumentResult>> actions, List<CompletableFuture<Void>> futures, int attempt) {
+        Bulk bulk = new Bulk.Builder().addAction(actions).build();
+        try {
+            client.executeAsync(bulk, new JestResultHandler<BulkResult>() {
+                @Override
+                public void completed(BulkResult result) {
+                    onCompleted(actions, futures, attempt, result);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    retryOrFail(actions, futures, attempt, e);
+                }
+            });
+        } catch (Exception e) {
+            retryOrFail(actions, futures, attempt, e);
+        }
+    }
+
+    /**
+     * 版本冲突说明索引里已经有更新的数据, 视为成功; 429、5xx 单独重试; 其它错误重试也没用, 直接失败
+     */
+    private void onCompleted(List<BulkableAction<DocumentResult>> actions, List<CompletableFuture<Void>> futures,
+                             int attempt, BulkResult result) {
+        List<BulkResult.BulkResultItem> items = result.getItems();
+        if (items.size() != actions.size()) {
+            retryOrFail(actions, futures, attempt, new IOException("bulk request failure: " + result.getErrorMessage()));
+            return;
+        }
+        List<BulkableAction<DocumentResult>> retryActions = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            BulkResult.BulkResultItem item = items.get(i);
+            if (Objects.isNull(item.error) || item.status == 409) {
+                continue;
+            }
+            if (item.status == 429 || item.status >= 500) {
+                retryActions.add(actions.get(i));
+            } else {
+                fail(futures, new IOException("bulk item failure, index: " + item.index + ", id: " + item.id
+                        + ", status: " + item.status + ", error: " + item.error));
+                return;
+            }
+        }
+        if (retryActions.isEmpty()) {
+            futures.forEach(future -> future.complete(null));
+        } else {
+            retryOrFail(retryActions, futures, attempt, new IOException(retryActions.size() + " bulk items failure"));
+        }
+    }
+
+    private void retryOrFail(List<BulkableAction<DocumentResult>> actions, List<CompletableFuture<Void>> futures,
+                             int attempt, Exception e) {
+        if (attempt >= maxRetries) {
+            fail(futures, e);
+            return;
+        }
+        log.warn("elasticsearch bulk retry, actions: {}, attempt: {}, cause: {}", actions.size(), attempt + 1, e.getMessage());
+        try {
+            scheduler.schedule(() -> execute(actions, futures, attempt + 1), 100L << attempt, TimeUnit.MILLISECONDS);
+        } catch (Exception rejected) {
+            fail(futures, e);
+        }
+    }
+
+    private static void fail(List<CompletableFuture<Void>> futures, Exception e) {
+        log.error("elasticsearch bulk failure, ", e);
+        futures.forEach(future -> future.completeExceptionally(e));
+    }
+
+    private void addActions(ICanalMessageHandler.CanalMessage message, List<BulkableAction<DocumentResult>> actions) {
+        String index = indexResolver.apply(message);
+        long version = version(message.getLogfileName(), message.getLogfileOffset());
+        if (message.getEventType() == ICanalMessageHandler.CanalEventType.DELETE) {
+            for (CanalRow row : message.getBeforeRows()) {
+                addDelete(index, row.keyString(), version, actions);
+            }
+            return;
+        }
+        boolean update = message.getEventType() == ICanalMessageHandler.CanalEventType.UPDATE;
+        for (int i = 0; i < message.getAfterRows().size(); i++) {
+            CanalRow row = message.getAfterRows().get(i);
+            String id = row.keyString();
+            if (update && i < message.getBeforeRows().size() && !message.getBeforeRows().get(i).sameKey(row)) {
+                // 主键被修改, 旧主键的文档要先删掉, 否则会一直留在索引里
+                addDelete(index, message.getBeforeRows().get(i).keyString(), version, actions);
+            }
+            if (row.isPartial()) {
+                // 局部数据不能用 index 整个替换文档, 否则没有修改的字段都会丢失
+                if (Objects.isNull(id)) {
+                    log.warn("partial row without primary key can not be updated, index: {}, row: {}", index, row.asMap());
+                    continue;
+                }
+                actions.add(new Update.Builder(GSON.toJson(partialUpdate(row, version)))
+                        .index(index).type(type).id(id).build());
+                continue;
+            }
+            Map<String, Object> source = row.asMap();
+            if (Objects.nonNull(id) && version > 0) {
+                source = new LinkedHashMap<>(source);
+                source.put(VERSION_FIELD, version);
+            }
+            Index.Builder builder = new Index.Builder(GSON.toJson(source)).index(index).type(type);
+            if (Objects.nonNull(id)) {
+                builder.id(id);
+                if (version > 0) {
+                    builder.setParameter(Parameters.VERSION, version).setParameter(Parameters.VERSION_TYPE, EXTERNAL);
+                }
+            }
+            actions.add(builder.build());
+        }
+    }
+
+    /**
+     * 局部 update 的请求体, 版本号已知时用脚本保证只有更新的数据才会写入
+     */
+    private static Map<String, Object> partialUpdate(CanalRow row, long version) {
+        if (version <= 0) {
+            return Collections.singletonMap("doc", row.asMap());
+        }
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("doc", row.asMap());
+        params.put("version", version);
+        Map<String, Object> script = new LinkedHashMap<>();
+        script.put("source", PARTIAL_UPDATE_SCRIPT);
+        script.put("lang", "painless");
+        script.put("params", params);
+        return Collections.singletonMap("script", script);
+    }
+
+    private void addDelete(String index, String id, long version, List<BulkableAction<DocumentResult>> actions) {
+        if (Objects.isNull(id)) {
+            return;
+        }
+        Delete.Builder builder = new Delete.Builder(id).index(index).type(type);
+        if (version > 0) {
+            builder.setParameter(Parameters.VERSION, version).setParameter(Parameters.VERSION_TYPE, EXTERNAL);
+        }
+        actions.add(builder.build());
+    }
+
+    /**
+     * binlog 位置转成单调递增的版本号: 文件序号在高32位, 文件内偏移在低32位. 位置未知时返回0, 不使用外部版本
+     */
+    static long version(String logfileName, long logfileOffset) {
+        if (Objects.isNull(logfileName) || logfileName.isEmpty()) {
+            return 0;
+        }
+        int dot = logfileName.lastIndexOf('.');
+        try {
+            return (Long.parseLong(logfileName.substring(dot + 1)) << 32) | (logfileOffset & 0xFFFFFFFFL);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.sym.canal.handler;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 异步的消息处理器, 适用于写入异步客户端(例如 kafka producer、es bulk)的场景.
+ * <p>
+ * 同一个 key 的数据会按照 binlog 顺序调用{@link #resolve(List)}, 但是不会等上一次返回的结果完成,
+ * 多个批次的 I/O 可以重叠, 处理器需要自己保证提交到下游的顺序(例如同一个 key 写入同一个 kafka 分区).
+ * canal client 会在结果成功完成以后按顺序提交批次, 任何一个结果失败都会回滚, 重新拉取未提交的批次.
+ *
+ * @author shenyanming
+ * Create on 2021/07/31 14:20
+ */
+@FunctionalInterface
+public interface IAsyncCanalMessageHandler {
+
+    /**
+     * 处理 canal client 解析出来的数据库变动数据
+     *
+     * @param messageList 消息体
+     * @return 处理完成的通知, 异常完成表示处理失败
+     */
+    CompletionStage<Void> resolve(List<ICanalMessageHandler.CanalMessage> messageList);
+
+    /**
+     * 将同步的处理器包装成异步的, 在调用线程上直接处理
+     */
+    static IAsyncCanalMessageHandler of(ICanalMessageHandler handler) {
+        return messageList -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            try {
+                handler.resolve(messageList);
+                future.complete(null);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        };
+    }
+}
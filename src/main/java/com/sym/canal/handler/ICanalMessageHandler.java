@@ -36,21 +36,74 @@ public interface ICanalMessageHandler {
          */
         private CanalEventType eventType;
 
+        /**
+         * 库名称
+         */
+        private String schemaName;
+
         /**
          * 表名称
          */
         private String tableName;
 
         /**
-         * 修改前的表字段数据
+         * 事务标识, 只有按事务投递时才有值, 同一个事务内的数据相同
+         */
+        private String transactionId;
+
+        /**
+         * 变更在数据库上的执行时间(毫秒)
+         */
+        private long executeTime;
+
+        /**
+         * 变更所在的 binlog 文件
+         */
+        private String logfileName;
+
+        /**
+         * 变更在 binlog 文件中的位置
+         */
+        private long logfileOffset;
+
+        /**
+         * 修改前的行数据, insert 没有
          */
-        private List<Map<String, Object>> rowDataBeforeList = new ArrayList<>();
+        private List<CanalRow> beforeRows = new ArrayList<>();
 
         /**
-         * 修改后的表字段数据
+         * 修改后的行数据, delete 没有
          */
-        private List<Map<String, Object>> rowDataAfterList = new ArrayList<>();
+        private List<CanalRow> afterRows = new ArrayList<>();
 
+        /**
+         * 修改前的表字段数据, 以 Map 形式查看{@link #beforeRows}
+         */
+        public List<Map<String, Object>> getRowDataBeforeList() {
+            return CanalRow.asMaps(beforeRows);
+        }
+
+        /**
+         * 修改后的表字段数据, 以 Map 形式查看{@link #afterRows}
+         */
+        public List<Map<String, Object>> getRowDataAfterList() {
+            return CanalRow.asMaps(afterRows);
+        }
+
+        /**
+         * 复制除行数据以外的信息
+         */
+        public CanalMessage emptyCopy() {
+            CanalMessage copy = new CanalMessage();
+            copy.eventType = eventType;
+            copy.schemaName = schemaName;
+            copy.tableName = tableName;
+            copy.transactionId = transactionId;
+            copy.executeTime = executeTime;
+            copy.logfileName = logfileName;
+            copy.logfileOffset = logfileOffset;
+            return copy;
+        }
 
         public void parseCanalEventType(CanalEntry.EventType entryType) {
             if (Objects.nonNull(entryType)) {
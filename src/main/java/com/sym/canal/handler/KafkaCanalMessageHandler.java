@@ -0,0 +1,169 @@
+package com.sym.canal.handler;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sym.kafka.producer.KafkaProducers;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 将 canal 数据写入 kafka 的处理器, 每一行变更发送一条消息, 值为 json:
+ * {"schema", "table", "type", "executeTime", "transactionId", "before", "after"}.
+ * <p>
+ * 消息以主键作为 key, 同一行的变更会进入同一个分区并保持 binlog 顺序. 发送是异步的,
+ * 由 producer 自己攒批, 所有回调都成功以后才算处理完成, canal client 这时才提交批次;
+ * 任何一条失败都会回滚重新拉取, 所以下游可能收到重复消息. 没有主键的表 key 为 null, 不保证顺序.
+ * <p>
+ * 修改了主键的 UPDATE 会先以旧主键为 key 发送一条 DELETE 消息, 再以新主键发送 UPDATE,
+ * 旧主键所在分区的消费者才能知道这一行已经不存在了
+ *
+ * @author shenyanming
+ * Create on 2021/09/04 10:20
+ */
+public class KafkaCanalMessageHandler implements IAsyncCanalMessageHandler {
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+    private final Producer<String, String> producer;
+
+    /**
+     * 固定 topic, 为 null 时按表发送到 topicPrefix + schema.table
+     */
+    private final String topic;
+
+    private final String topicPrefix;
+
+    private KafkaCanalMessageHandler(Producer<String, String> producer, String topic, String topicPrefix) {
+        this.producer = Objects.requireNonNull(producer);
+        this.topic = topic;
+        this.topicPrefix = topicPrefix;
+    }
+
+    /**
+     * 每张表一个 topic: topicPrefix + schema.table, key 为主键
+     */
+    public static KafkaCanalMessageHandler perTable(Producer<String, String> producer, String topicPrefix) {
+        return new KafkaCanalMessageHandler(producer, null, Objects.isNull(topicPrefix) ? "" : topicPrefix);
+    }
+
+    /**
+     * 所有表写入同一个 topic, 库表和事件类型放在消息头(schema、table、type)里, key 为 schema.table:主键
+     */
+    public static KafkaCanalMessageHandler singleTopic(Producer<String, String> producer, String topic) {
+        return new KafkaCanalMessageHandler(producer, Objects.requireNonNull(topic), null);
+    }
+
+    /**
+     * 推荐的 producer 配置: 在{@link KafkaProducers#initProperties()}的基础上开启幂等发送保证重试时分区内不乱序,
+     * 适当的 linger 让 producer 攒批
+     */
+    public static Properties properties() {
+        Properties prop = KafkaProducers.initProperties();
+        prop.put(ProducerConfig.ACKS_CONFIG, "all");
+        prop.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        prop.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "5");
+        prop.put(ProducerConfig.LINGER_MS_CONFIG, "5");
+        prop.put(ProducerConfig.BATCH_SIZE_CONFIG, String.valueOf(64 * 1024));
+        prop.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        return prop;
+    }
+
+    /**
+     * 使用{@link #properties()}创建 producer
+     *
+     * @param overrides 覆盖默认值的配置, 比如 bootstrap.servers, 可以为 null
+     */
+    public static Producer<String, String> createProducer(Properties overrides) {
+        Properties prop = properties();
+        if (Objects.nonNull(overrides)) {
+            prop.putAll(overrides);
+        }
+        return KafkaProducers.createProducer(prop);
+    }
+
+    @Override
+    public CompletionStage<Void> resolve(List<ICanalMessageHandler.CanalMessage> messageList) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        List<ProducerRecord<String, String>> records = new ArrayList<>();
+        try {
+            for (ICanalMessageHandler.CanalMessage message : messageList) {
+                addRecords(message, records);
+            }
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        if (records.isEmpty()) {
+            future.complete(null);
+            return future;
+        }
+        AtomicInteger remaining = new AtomicInteger(records.size());
+        Callback callback = (metadata, e) -> {
+            if (Objects.nonNull(e)) {
+                future.completeExceptionally(e);
+            } else if (remaining.decrementAndGet() == 0) {
+                future.complete(null);
+            }
+        };
+        try {
+            for (ProducerRecord<String, String> record : records) {
+                producer.send(record, callback);
+            }
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void addRecords(ICanalMessageHandler.CanalMessage message, List<ProducerRecord<String, String>> records) {
+        int count = Math.max(message.getBeforeRows().size(), message.getAfterRows().size());
+        for (int i = 0; i < count; i++) {
+            CanalRow before = message.getBeforeRows().isEmpty() ? null : message.getBeforeRows().get(i);
+            CanalRow after = message.getAfterRows().isEmpty() ? null : message.getAfterRows().get(i);
+            if (Objects.nonNull(before) && Objects.nonNull(after) && !before.sameKey(after)) {
+                // 主键变了, 旧主键的消息在另一个分区, 需要单独通知删除
+                records.add(record(message, ICanalMessageHandler.CanalEventType.DELETE, before, null));
+            }
+            records.add(record(message, message.getEventType(), before, after));
+        }
+    }
+
+    private ProducerRecord<String, String> record(ICanalMessageHandler.CanalMessage message,
+                                                  ICanalMessageHandler.CanalEventType eventType, CanalRow before, CanalRow after) {
+        String key = (Objects.isNull(after) ? before : after).keyString();
+
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("schema", message.getSchemaName());
+        value.put("table", message.getTableName());
+        value.put("type", eventType.name());
+        value.put("executeTime", message.getExecuteTime());
+        value.put("transactionId", message.getTransactionId());
+        value.put("before", Objects.isNull(before) ? null : before.asMap());
+        value.put("after", Objects.isNull(after) ? null : after.asMap());
+        String json = GSON.toJson(value);
+
+        String table = message.getSchemaName() + "." + message.getTableName();
+        if (Objects.isNull(topic)) {
+            return new ProducerRecord<>(topicPrefix + table, key, json);
+        }
+        RecordHeaders headers = new RecordHeaders();
+        headers.add("schema", message.getSchemaName().getBytes(StandardCharsets.UTF_8));
+        headers.add("table", message.getTableName().getBytes(StandardCharsets.UTF_8));
+        headers.add("type", eventType.name().getBytes(StandardCharsets.UTF_8));
+        return new ProducerRecord<>(topic, null, Objects.isNull(key) ? null : table + ":" + key, json, headers);
+    }
+}
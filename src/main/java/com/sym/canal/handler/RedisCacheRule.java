@@ -0,0 +1,130 @@
+package com.sym.canal.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 表到 redis 缓存 key 的映射规则. key 模板中用{列名}引用行数据, 例如 "order:{id}"、"user:{user_id}:orders".
+ * <p>
+ * 失效模式下变更的行对应的 key 都会被删除; 刷新模式下 INSERT、UPDATE 把最新的行数据(json)写入 key, DELETE 删除 key.
+ * UPDATE 修改了模板引用的列时, 旧 key 总是会被删除.
+ * <p>
+ * 增量模式下模板引用的列需要配置成保留列({@link com.sym.canal.config.CanalConfig#getRetainedColumns()}),
+ * 否则没有修改这些列的 UPDATE 算不出 key
+ *
+ * @author shenyanming
+ * Create on 2021/09/18 10:15
+ */
+public class RedisCacheRule {
+
+    /**
+     * 库名.表名
+     */
+    private final String table;
+
+    /**
+     * 模板拆分以后的片段, 偶数位置是字面量, 奇数位置是列名
+     */
+    private final String[] parts;
+
+    /**
+     * 是否刷新缓存, false 表示只删除
+     */
+    private final boolean refresh;
+
+    /**
+     * 刷新时的过期时间(秒), 小于等于0表示不过期
+     */
+    private final int ttlSeconds;
+
+    private RedisCacheRule(String table, String template, boolean refresh, int ttlSeconds) {
+        this.table = Objects.requireNonNull(table);
+        this.parts = parse(Objects.requireNonNull(template));
+        this.refresh = refresh;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * 数据变更时删除缓存
+     */
+    public static RedisCacheRule invalidate(String table, String template) {
+        return new RedisCacheRule(table, template, false, 0);
+    }
+
+    /**
+     * 数据变更时用最新的行数据刷新缓存
+     */
+    public static RedisCacheRule refresh(String table, String template, int ttlSeconds) {
+        return new RedisCacheRule(table, template, true, ttlSeconds);
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public boolean isRefresh() {
+        return refresh;
+    }
+
+    public int getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * 模板引用的列名
+     */
+    public Set<String> getColumns() {
+        Set<String> columns = new LinkedHashSet<>();
+        for (int i = 1; i < parts.length; i += 2) {
+            columns.add(parts[i]);
+        }
+        return Collections.unmodifiableSet(columns);
+    }
+
+    /**
+     * 根据行数据生成 key, 表中没有引用的列或者列值为 null 时返回 null
+     *
+     * @throws IllegalStateException 增量模式下引用的列没有修改, 不在行数据中, 这时无法知道 key
+     */
+    public String key(CanalRow row) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if ((i & 1) == 0) {
+                builder.append(parts[i]);
+                continue;
+            }
+            int index = row.getSchema().indexOf(parts[i]);
+            if (index >= 0 && !row.isPresent(index)) {
+                throw new IllegalStateException("column " + parts[i] + " is absent in partial row of " + table
+                        + ", configure it as a retained column");
+            }
+            String value = index < 0 ? null : row.getString(index);
+            if (Objects.isNull(value)) {
+                return null;
+            }
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private static String[] parse(String template) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int open;
+        while ((open = template.indexOf('{', start)) >= 0) {
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("unclosed '{' in key template: " + template);
+            }
+            parts.add(template.substring(start, open));
+            parts.add(template.substring(open + 1, close));
+            start = close + 1;
+        }
+        parts.add(template.substring(start));
+        return parts.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,125 @@
+package com.sym.canal.handler;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sym.redis.jedis.singleNode.JedisPoolUtil;
+import lombok.Builder;
+import lombok.Singular;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * 根据 canal 数据维护 redis 缓存的处理器, 按照{@link RedisCacheRule}把变更的行映射成缓存 key,
+ * 一次{@link #resolve(List)}的所有 DEL、SET 命令放在同一个 pipeline 中执行, 只需要一次网络往返.
+ * 命令按照 binlog 顺序发送, 同一个 key 的多次变更以最后一次为准; 任何一条命令失败都会抛出异常, 让 canal client 回滚重试.
+ * <p>
+ * 增量模式下 UPDATE 的行只包含部分列, 刷新模式也只删除 key, 不会用局部数据覆盖缓存.
+ * key 模板引用的列需要通过{@link #keyColumns()}配置成保留列, 否则算不出 key 时抛出异常
+ *
+ * @author shenyanming
+ * Create on 2021/09/18 11:00
+ */
+@Slf4j
+public class RedisCanalMessageHandler implements ICanalMessageHandler {
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+    private final Supplier<Jedis> jedisSupplier;
+
+    /**
+     * 库名.表名(小写) -> 规则
+     */
+    private final Map<String, List<RedisCacheRule>> ruleMap = new HashMap<>();
+
+    /**
+     * @param jedisSupplier 获取 redis 连接, 用完会关闭(归还连接池), 默认使用{@link JedisPoolUtil#getJedis()}
+     * @param rules         缓存规则
+     */
+    @Builder
+    private RedisCanalMessageHandler(Supplier<Jedis> jedisSupplier, @Singular List<RedisCacheRule> rules) {
+        this.jedisSupplier = Objects.isNull(jedisSupplier) ? JedisPoolUtil::getJedis : jedisSupplier;
+        for (RedisCacheRule rule : rules) {
+            ruleMap.computeIfAbsent(rule.getTable().toLowerCase(), key -> new ArrayList<>()).add(rule);
+        }
+    }
+
+    /**
+     * 库名.表名 -> key 模板引用的列, 用于配置{@link com.sym.canal.config.CanalConfig#getRetainedColumns()}
+     */
+    public Map<String, Set<String>> keyColumns() {
+        Map<String, Set<String>> columns = new HashMap<>();
+        ruleMap.values().forEach(rules -> rules.forEach(rule ->
+                columns.computeIfAbsent(rule.getTable(), key -> new HashSet<>()).addAll(rule.getColumns())));
+        return columns;
+    }
+
+    @Override
+    public void resolve(List<CanalMessage> messageList) {
+        Jedis jedis = null;
+        Pipeline pipeline = null;
+        int commands = 0;
+        try {
+            for (CanalMessage message : messageList) {
+                List<RedisCacheRule> rules = ruleMap.get((message.getSchemaName() + "." + message.getTableName()).toLowerCase());
+                if (Objects.isNull(rules)) {
+                    continue;
+                }
+                int rowCount = Math.max(message.getBeforeRows().size(), message.getAfterRows().size());
+                for (int i = 0; i < rowCount; i++) {
+                    CanalRow before = message.getBeforeRows().isEmpty() ? null : message.getBeforeRows().get(i);
+                    CanalRow after = message.getAfterRows().isEmpty() ? null : message.getAfterRows().get(i);
+                    for (RedisCacheRule rule : rules) {
+                        String beforeKey = Objects.isNull(before) ? null : rule.key(before);
+                        String afterKey = Objects.isNull(after) ? null : rule.key(after);
+                        if (Objects.isNull(pipeline) && (Objects.nonNull(beforeKey) || Objects.nonNull(afterKey))) {
+                            // 有需要执行的命令时才获取连接
+                            jedis = jedisSupplier.get();
+                            pipeline = jedis.pipelined();
+                        }
+                        if (Objects.nonNull(beforeKey) && !beforeKey.equals(afterKey)) {
+                            // 删除、或者 key 发生了变化
+                            pipeline.del(beforeKey);
+                            commands++;
+                        }
+                        if (Objects.isNull(afterKey)) {
+                            continue;
+                        }
+                        if (!rule.isRefresh() || after.isPartial()) {
+                            // 局部数据不能覆盖缓存中的整行数据, 只删除
+                            pipeline.del(afterKey);
+                        } else if (rule.getTtlSeconds() > 0) {
+                            pipeline.setex(afterKey, rule.getTtlSeconds(), GSON.toJson(after.asMap()));
+                        } else {
+                            pipeline.set(afterKey, GSON.toJson(after.asMap()));
+                        }
+                        commands++;
+                    }
+                }
+            }
+            if (Objects.isNull(pipeline)) {
+                return;
+            }
+            for (Object response : pipeline.syncAndReturnAll()) {
+                if (response instanceof JedisDataException) {
+                    throw (JedisDataException) response;
+                }
+            }
+            log.debug("redis cache updated, commands: {}", commands);
+        } finally {
+            if (Objects.nonNull(jedis)) {
+                jedis.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.sym.canal.metrics;
+
+import com.sym.canal.AdaptivePoller;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.util.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * canal 客户端的监控指标, 既可以通过 JMX 查看, 也可以直接调用 getter 拉取. 记录时不加锁
+ *
+ * @author shenyanming
+ * Create on 2021/08/21 11:45
+ */
+@Slf4j
+public class CanalMetrics implements CanalMetricsMXBean {
+
+    private final String destination;
+    private final AdaptivePoller poller;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private volatile long lagMillis;
+
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private final LatencyHistogram entriesPerBatch = new LatencyHistogram();
+    private final LatencyHistogram rowsPerParse = new LatencyHistogram();
+    private final LatencyHistogram parseMicros = new LatencyHistogram();
+    private final LatencyHistogram handleMicros = new LatencyHistogram();
+    private final LatencyHistogram ackMicros = new LatencyHistogram();
+
+    private ObjectName objectName;
+
+    public CanalMetrics(String destination, AdaptivePoller poller) {
+        this.destination = destination;
+        this.poller = poller;
+    }
+
+    /**
+     * 拉取到一个批次
+     */
+    public void onFetched(int entryCount) {
+        batches.increment();
+        entries.add(entryCount);
+        entriesPerBatch.record(entryCount);
+    }
+
+    /**
+     * 解析完一个批次或一个事务
+     */
+    public void onParsed(List<ICanalMessageHandler.CanalMessage> messageList, long parseNanos) {
+        long rowCount = 0;
+        for (ICanalMessageHandler.CanalMessage message : messageList) {
+            rowCount += Math.max(message.getBeforeRows().size(), message.getAfterRows().size());
+        }
+        rows.add(rowCount);
+        rowsPerParse.record(rowCount);
+        parseMicros.record(TimeUnit.NANOSECONDS.toMicros(parseNanos));
+    }
+
+    /**
+     * 处理完一个批次
+     *
+     * @param executeTime 批次中最后一条数据在数据库上的执行时间, 小于等于0表示未知
+     */
+    public void onHandled(long executeTime, long handleNanos) {
+        handleMicros.record(TimeUnit.NANOSECONDS.toMicros(handleNanos));
+        if (executeTime > 0) {
+            long millis = System.currentTimeMillis() - executeTime;
+            lagMillis = millis;
+            lag.record(millis);
+        }
+    }
+
+    /**
+     * 提交了一个批次
+     */
+    public void onAcked(long ackNanos) {
+        ackMicros.record(TimeUnit.NANOSECONDS.toMicros(ackNanos));
+    }
+
+    /**
+     * 注册到平台 MBeanServer, 失败只打印日志
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.sym.canal:type=CanalMetrics,destination=" + ObjectName.quote(destination));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (Exception e) {
+            log.warn("canal metrics register failure, destination: {}, ", destination, e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            log.warn("canal metrics unregister failure, destination: {}, ", destination, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    @Override
+    public String getDestination() {
+        return destination;
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getEntries() {
+        return entries.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public double getEmptyPollRatio() {
+        long polls = poller.getPolls();
+        return polls == 0 ? 0 : (double) poller.getEmptyPolls() / polls;
+    }
+
+    @Override
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getLag() {
+        return lag.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getEntriesPerBatch() {
+        return entriesPerBatch.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getRowsPerParse() {
+        return rowsPerParse.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getParseMicros() {
+        return parseMicros.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getHandleMicros() {
+        return handleMicros.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getAckMicros() {
+        return ackMicros.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        lag.reset();
+        entriesPerBatch.reset();
+        rowsPerParse.reset();
+        parseMicros.reset();
+        handleMicros.reset();
+        ackMicros.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "destination=" + destination + ", batches=" + getBatches() + ", entries=" + getEntries()
+                + ", rows=" + getRows() + ", lagMillis=" + lagMillis + ", lag=[" + getLag() + "], handleMicros=["
+                + getHandleMicros() + "]";
+    }
+}
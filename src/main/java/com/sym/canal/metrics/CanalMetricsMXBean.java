@@ -0,0 +1,75 @@
+package com.sym.canal.metrics;
+
+import com.sym.util.LatencyHistogram;
+
+/**
+ * canal 客户端的 JMX 监控指标, 每个 destination 一个,
+ * ObjectName 为 com.sym.canal:type=CanalMetrics,destination=xxx
+ *
+ * @author shenyanming
+ * Create on 2021/08/21 11:30
+ */
+public interface CanalMetricsMXBean {
+
+    String getDestination();
+
+    /**
+     * 拉取到数据的批次数
+     */
+    long getBatches();
+
+    /**
+     * 拉取到的 entry 数
+     */
+    long getEntries();
+
+    /**
+     * 解析出来的行数
+     */
+    long getRows();
+
+    /**
+     * 空轮询占比
+     */
+    double getEmptyPollRatio();
+
+    /**
+     * 最近一个处理完的批次的端到端延迟(毫秒), 即处理完成时间减去数据库执行时间
+     */
+    long getLagMillis();
+
+    /**
+     * 端到端延迟分布(毫秒)
+     */
+    LatencyHistogram.Snapshot getLag();
+
+    /**
+     * 每个批次的 entry 数分布
+     */
+    LatencyHistogram.Snapshot getEntriesPerBatch();
+
+    /**
+     * 每次解析(一个批次或一个事务)的行数分布
+     */
+    LatencyHistogram.Snapshot getRowsPerParse();
+
+    /**
+     * 解析耗时分布(微秒), 主要是 RowChange 的反序列化
+     */
+    LatencyHistogram.Snapshot getParseMicros();
+
+    /**
+     * 处理器耗时分布(微秒)
+     */
+    LatencyHistogram.Snapshot getHandleMicros();
+
+    /**
+     * 从拉取到提交的耗时分布(微秒)
+     */
+    LatencyHistogram.Snapshot getAckMicros();
+
+    /**
+     * 清空所有分布, 开始新的统计周期
+     */
+    void reset();
+}
@@ -0,0 +1,131 @@
+package com.sym.canal.parser;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.CanalTableSchema;
+import com.sym.canal.handler.ICanalMessageHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 将 canal entry 解析成{@link ICanalMessageHandler.CanalMessage}
+ *
+ * @author shenyanming
+ * Create on 2021/07/24 16:25
+ */
+public class CanalEntryParser {
+
+    /**
+     * 客户端的库表、事件过滤规则
+     */
+    private final CanalEntryFilter entryFilter;
+
+    /**
+     * 表结构注册中心
+     */
+    private final CanalSchemaRegistry schemaRegistry;
+
+    /**
+     * 增量模式, UPDATE 只保留被修改的列和主键列
+     */
+    private final boolean deltaUpdates;
+
+    public CanalEntryParser(CanalEntryFilter entryFilter) {
+        this(entryFilter, new CanalSchemaRegistry());
+    }
+
+    public CanalEntryParser(CanalEntryFilter entryFilter, CanalSchemaRegistry schemaRegistry) {
+        this(entryFilter, schemaRegistry, false);
+    }
+
+    public CanalEntryParser(CanalEntryFilter entryFilter, CanalSchemaRegistry schemaRegistry, boolean deltaUpdates) {
+        this.entryFilter = Objects.requireNonNull(entryFilter);
+        this.schemaRegistry = Objects.requireNonNull(schemaRegistry);
+        this.deltaUpdates = deltaUpdates;
+    }
+
+    public CanalSchemaRegistry getSchemaRegistry() {
+        return schemaRegistry;
+    }
+
+    /**
+     * 解析 canal entry, 每个 entry 解析成一个{@link ICanalMessageHandler.CanalMessage}, 顺序与 binlog 顺序一致
+     *
+     * @param entryList 原始数据
+     */
+    public List<ICanalMessageHandler.CanalMessage> parse(List<CanalEntry.Entry> entryList)
+            throws InvalidProtocolBufferException {
+        List<ICanalMessageHandler.CanalMessage> messageList = new ArrayList<>(entryList.size());
+        for (CanalEntry.Entry entry : entryList) {
+            // 只对行数据变化有兴趣
+            if (entry.getEntryType() != CanalEntry.EntryType.ROWDATA) {
+                continue;
+            }
+            CanalEntry.Header header = entry.getHeader();
+            if (CanalSchemaRegistry.isDdl(header.getEventType())) {
+                // 表结构发生变化
+                invalidateSchema(entry);
+                continue;
+            }
+            // 先根据头信息过滤, 不需要的表和事件就不用再反序列化了
+            if (!entryFilter.accept(header)) {
+                continue;
+            }
+            // 解析具体数据内容
+            CanalEntry.RowChange rowChange = CanalEntry.RowChange.parseFrom(entry.getStoreValue());
+            CanalEntry.EventType eventType = rowChange.getEventType();
+            // 针对增删改
+            if (eventType != CanalEntry.EventType.INSERT && eventType != CanalEntry.EventType.UPDATE
+                    && eventType != CanalEntry.EventType.DELETE) {
+                continue;
+            }
+            // 组装数据
+            ICanalMessageHandler.CanalMessage canalMessage = new ICanalMessageHandler.CanalMessage();
+            canalMessage.setSchemaName(header.getSchemaName());
+            canalMessage.setTableName(header.getTableName());
+            canalMessage.parseCanalEventType(eventType);
+            canalMessage.setExecuteTime(header.getExecuteTime());
+            canalMessage.setLogfileName(header.getLogfileName());
+            canalMessage.setLogfileOffset(header.getLogfileOffset());
+            // 同一张表的行数据共用一个表结构
+            CanalTableSchema tableSchema = null;
+            for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+                if (Objects.isNull(tableSchema)) {
+                    tableSchema = schemaRegistry.get(header.getSchemaName(), header.getTableName(),
+                            eventType == CanalEntry.EventType.DELETE ? rowData.getBeforeColumnsList() : rowData.getAfterColumnsList());
+                }
+                // 增量模式下修改前后的数据都只读取被修改的列、主键列和保留列
+                long[] present = deltaUpdates && eventType == CanalEntry.EventType.UPDATE
+                        ? CanalRow.updatedColumns(tableSchema, rowData.getAfterColumnsList()) : null;
+                if (eventType != CanalEntry.EventType.INSERT) {
+                    // insert sql 只有修改后的数据
+                    canalMessage.getBeforeRows().add(CanalRow.of(tableSchema, rowData.getBeforeColumnsList(), present));
+                }
+                if (eventType != CanalEntry.EventType.DELETE) {
+                    // delete sql 只有修改前的数据
+                    canalMessage.getAfterRows().add(CanalRow.of(tableSchema, rowData.getAfterColumnsList(), present));
+                }
+            }
+            if (Objects.nonNull(tableSchema)) {
+                messageList.add(canalMessage);
+            }
+        }
+        return messageList;
+    }
+
+    /**
+     * DDL 让对应表的表结构失效. QUERY 事件不一定是 DDL, 需要解析以后再判断
+     */
+    private void invalidateSchema(CanalEntry.Entry entry) throws InvalidProtocolBufferException {
+        CanalEntry.Header header = entry.getHeader();
+        if (header.getEventType() == CanalEntry.EventType.QUERY
+                && !CanalEntry.RowChange.parseFrom(entry.getStoreValue()).getIsDdl()) {
+            return;
+        }
+        schemaRegistry.invalidate(header.getSchemaName(), header.getTableName());
+    }
+}
@@ -0,0 +1,176 @@
+package com.sym.canal.parser;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.handler.CanalTableSchema;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 表结构注册中心, 以"库名.表名"为 key 缓存{@link CanalTableSchema}. 表结构在第一次看到这张表的行数据时创建,
+ * 列名、库名、表名都做 intern 处理, 后续行数据直接复用, 不再重复读取列信息.
+ * <p>
+ * 收到这张表的 DDL 时失效, 下一次看到行数据时重新创建. 为了防止错过 DDL(比如 DDL 被服务端过滤掉了),
+ * 列数发生变化时也会重新创建.
+ * <p>
+ * 配置了列投影的表只保留投影的列和主键列, 其余的列在解析时直接跳过, 不会转换成字符串.
+ * 保留列在投影和增量模式下都和主键列一样总是存在, 用于缓存 key 这类必须能从任意一行数据中算出来的值.
+ *
+ * @author shenyanming
+ * Create on 2021/07/25 10:14
+ */
+public class CanalSchemaRegistry {
+
+    /**
+     * 库名 -> 表名 -> 表结构
+     */
+    private final Map<String, Map<String, CanalTableSchema>> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * 库名.表名 -> 需要保留的列名
+     */
+    private final Map<String, Set<String>> projections;
+
+    /**
+     * 库名.表名 -> 总是保留的列名
+     */
+    private final Map<String, Set<String>> retainedColumns;
+
+    public CanalSchemaRegistry() {
+        this(Collections.emptyMap());
+    }
+
+    /**
+     * @param projections 库名.表名 -> 需要保留的列名, 主键列总是保留, 没有配置的表保留所有列
+     */
+    public CanalSchemaRegistry(Map<String, Set<String>> projections) {
+        this(projections, Collections.emptyMap());
+    }
+
+    /**
+     * @param projections     库名.表名 -> 需要保留的列名, 主键列总是保留, 没有配置的表保留所有列
+     * @param retainedColumns 库名.表名 -> 总是保留的列名, 不会被投影去掉, 增量模式下也总是存在
+     */
+    public CanalSchemaRegistry(Map<String, Set<String>> projections, Map<String, Set<String>> retainedColumns) {
+        this.projections = Objects.isNull(projections) ? Collections.emptyMap() : projections;
+        this.retainedColumns = Objects.isNull(retainedColumns) ? Collections.emptyMap() : retainedColumns;
+    }
+
+    /**
+     * 获取表结构, 不存在或者已经失效时根据行数据的列信息创建
+     *
+     * @param schemaName 库名
+     * @param tableName  表名
+     * @param columnList 任意一行数据的列信息
+     */
+    public CanalTableSchema get(String schemaName, String tableName, List<CanalEntry.Column> columnList) {
+        Map<String, CanalTableSchema> tables = schemas.get(schemaName);
+        if (tables == null) {
+            tables = schemas.computeIfAbsent(schemaName.intern(), k -> new ConcurrentHashMap<>());
+        }
+        CanalTableSchema tableSchema = tables.get(tableName);
+        if (tableSchema == null || tableSchema.getSourceSize() != columnList.size()) {
+            tableSchema = create(schemaName, tableName, columnList);
+            tables.put(tableSchema.getTableName(), tableSchema);
+        }
+        return tableSchema;
+    }
+
+    /**
+     * 查询已经缓存的表结构
+     *
+     * @return 没有缓存时返回 null
+     */
+    public CanalTableSchema find(String schemaName, String tableName) {
+        return schemas.getOrDefault(schemaName, Collections.emptyMap()).get(tableName);
+    }
+
+    /**
+     * 让表结构失效
+     *
+     * @param schemaName 库名
+     * @param tableName  表名, 为空时整个库的表结构都失效
+     */
+    public void invalidate(String schemaName, String tableName) {
+        if (schemaName == null || schemaName.isEmpty()) {
+            schemas.clear();
+            return;
+        }
+        Map<String, CanalTableSchema> tables = schemas.get(schemaName);
+        if (tables == null) {
+            return;
+        }
+        if (tableName == null || tableName.isEmpty()) {
+            tables.clear();
+        } else {
+            tables.remove(tableName);
+        }
+    }
+
+    /**
+     * 判断是否为会改变表结构的事件
+     */
+    public static boolean isDdl(CanalEntry.EventType eventType) {
+        switch (eventType) {
+            case CREATE:
+            case ALTER:
+            case ERASE:
+            case RENAME:
+            case TRUNCATE:
+            case CINDEX:
+            case DINDEX:
+            case QUERY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private CanalTableSchema create(String schemaName, String tableName, List<CanalEntry.Column> columnList) {
+        Set<String> projection = projections.get(schemaName + "." + tableName);
+        Set<String> retained = retainedColumns.getOrDefault(schemaName + "." + tableName, Collections.emptySet());
+        int sourceSize = columnList.size();
+        int[] sourceIndexes = new int[sourceSize];
+        int size = 0;
+        for (int i = 0; i < sourceSize; i++) {
+            CanalEntry.Column column = columnList.get(i);
+            if (Objects.isNull(projection) || column.getIsKey() || projection.contains(column.getName())
+                    || retained.contains(column.getName())) {
+                sourceIndexes[size++] = i;
+            }
+        }
+        String[] columnNames = new String[size];
+        int[] sqlTypes = new int[size];
+        int keyCount = 0;
+        for (int i = 0; i < size; i++) {
+            CanalEntry.Column column = columnList.get(sourceIndexes[i]);
+            columnNames[i] = column.getName().intern();
+            sqlTypes[i] = column.getSqlType();
+            if (column.getIsKey()) {
+                keyCount++;
+            }
+        }
+        int[] keyIndexes = new int[keyCount];
+        for (int i = 0, k = 0; k < keyCount; i++) {
+            if (columnList.get(sourceIndexes[i]).getIsKey()) {
+                keyIndexes[k++] = i;
+            }
+        }
+        int[] retainedIndexes = new int[size];
+        int retainedCount = 0;
+        for (int i = 0; i < size; i++) {
+            CanalEntry.Column column = columnList.get(sourceIndexes[i]);
+            if (!column.getIsKey() && retained.contains(column.getName())) {
+                retainedIndexes[retainedCount++] = i;
+            }
+        }
+        return new CanalTableSchema(schemaName.intern(), tableName.intern(), columnNames, sqlTypes, keyIndexes,
+                size == sourceSize ? null : Arrays.copyOf(sourceIndexes, size), sourceSize,
+                Arrays.copyOf(retainedIndexes, retainedCount));
+    }
+}
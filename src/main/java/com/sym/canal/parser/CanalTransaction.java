@@ -0,0 +1,33 @@
+package com.sym.canal.parser;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 一个完整的 binlog 事务, 包含事务内的行数据 entry(不含事务头尾)
+ *
+ * @author shenyanming
+ * Create on 2021/08/07 10:15
+ */
+@Data
+@AllArgsConstructor
+public class CanalTransaction {
+
+    /**
+     * 事务标识, 优先使用事务尾的 xid, 没有的话使用 gtid 或者事务开始位置
+     */
+    private String transactionId;
+
+    /**
+     * 事务提交时间(毫秒)
+     */
+    private long executeTime;
+
+    /**
+     * 事务内的行数据
+     */
+    private List<CanalEntry.Entry> entries;
+}
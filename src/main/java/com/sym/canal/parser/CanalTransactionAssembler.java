@@ -0,0 +1,139 @@
+package com.sym.canal.parser;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 根据事务头尾把 canal entry 组装成完整的事务. 一个事务可能横跨多个批次, 还没结束的事务会留在组装器里,
+ * 等到后续批次拿到事务尾以后再一起返回. 事务外的 DDL 单独作为一个事务, 其它没有事务头的行数据视为事务已经开始
+ *
+ * @author shenyanming
+ * Create on 2021/08/07 10:32
+ */
+public class CanalTransactionAssembler {
+
+    /**
+     * 还没结束的事务内的行数据, 为 null 表示不在事务中
+     */
+    private List<CanalEntry.Entry> openEntries;
+
+    /**
+     * 还没结束的事务的开始位置
+     */
+    private String openPosition;
+
+    /**
+     * 追加一个批次的数据
+     *
+     * @return 本次拿到事务尾的完整事务, 按提交顺序排列
+     */
+    public List<CanalTransaction> append(List<CanalEntry.Entry> entryList) throws InvalidProtocolBufferException {
+        List<CanalTransaction> transactionList = new ArrayList<>();
+        for (CanalEntry.Entry entry : entryList) {
+            CanalEntry.Header header = entry.getHeader();
+            switch (entry.getEntryType()) {
+                case TRANSACTIONBEGIN:
+                    if (Objects.nonNull(openEntries) && !openEntries.isEmpty()) {
+                        // 上一个事务没有事务尾, 直接结束它
+                        transactionList.add(new CanalTransaction(openPosition, header.getExecuteTime(), openEntries));
+                    }
+                    open(header);
+                    break;
+                case TRANSACTIONEND:
+                    if (Objects.isNull(openEntries)) {
+                        open(header);
+                    }
+                    transactionList.add(new CanalTransaction(transactionId(entry), header.getExecuteTime(), openEntries));
+                    openEntries = null;
+                    break;
+                case ROWDATA:
+                    if (Objects.isNull(openEntries) && CanalSchemaRegistry.isDdl(header.getEventType())) {
+                        // 事务外的 DDL
+                        List<CanalEntry.Entry> ddl = new ArrayList<>(1);
+                        ddl.add(entry);
+                        transactionList.add(new CanalTransaction(position(header), header.getExecuteTime(), ddl));
+                        break;
+                    }
+                    if (Objects.isNull(openEntries)) {
+                        open(header);
+                    }
+                    openEntries.add(entry);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return transactionList;
+    }
+
+    /**
+     * 是否有还没结束的事务
+     */
+    public boolean isOpen() {
+        return Objects.nonNull(openEntries);
+    }
+
+    /**
+     * 丢弃还没结束的事务, 回滚以后会重新拿到它
+     */
+    public void reset() {
+        openEntries = null;
+        openPosition = null;
+    }
+
+    /**
+     * 事务边界: 返回最后一个完整事务之后的位置, 从列表开头到该位置的 entry 恰好由若干个完整事务组成.
+     * 要求列表开头不在事务中
+     */
+    public static int boundary(List<CanalEntry.Entry> entryList) {
+        boolean open = false;
+        int boundary = 0;
+        for (int i = 0; i < entryList.size(); i++) {
+            CanalEntry.Entry entry = entryList.get(i);
+            switch (entry.getEntryType()) {
+                case TRANSACTIONBEGIN:
+                    if (open) {
+                        boundary = i;
+                    }
+                    open = true;
+                    break;
+                case TRANSACTIONEND:
+                    open = false;
+                    boundary = i + 1;
+                    break;
+                case ROWDATA:
+                    if (!open && CanalSchemaRegistry.isDdl(entry.getHeader().getEventType())) {
+                        boundary = i + 1;
+                    } else {
+                        open = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return boundary;
+    }
+
+    private void open(CanalEntry.Header header) {
+        openEntries = new ArrayList<>();
+        openPosition = position(header);
+    }
+
+    private String transactionId(CanalEntry.Entry end) throws InvalidProtocolBufferException {
+        String transactionId = CanalEntry.TransactionEnd.parseFrom(end.getStoreValue()).getTransactionId();
+        if (!transactionId.isEmpty()) {
+            return transactionId;
+        }
+        String gtid = end.getHeader().getGtid();
+        return gtid.isEmpty() ? openPosition : gtid;
+    }
+
+    private static String position(CanalEntry.Header header) {
+        return header.getLogfileName() + ":" + header.getLogfileOffset();
+    }
+}
@@ -0,0 +1,76 @@
+package com.sym.canal.replay;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.CodedInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按顺序读取{@link CanalRecorder}写入的录制文件
+ *
+ * @author shenyanming
+ * Create on 2021/09/26 14:45
+ */
+public class CanalRecordReader implements Closeable {
+
+    private final InputStream stream;
+    private final CodedInputStream input;
+    private boolean closed;
+
+    public CanalRecordReader(File file) throws IOException {
+        this.stream = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        this.input = CodedInputStream.newInstance(stream);
+        // 录制文件可能很大, 取消 protobuf 默认的 64M 读取上限
+        input.setSizeLimit(Integer.MAX_VALUE);
+        if (input.isAtEnd() || input.readFixed32() != CanalRecorder.MAGIC) {
+            stream.close();
+            throw new IOException("not a canal record file: " + file);
+        }
+    }
+
+    /**
+     * 读取下一个批次
+     *
+     * @return 已经读完时返回 null, 写了一半的批次也当作读完
+     */
+    public List<CanalEntry.Entry> next() throws IOException {
+        if (input.isAtEnd()) {
+            return null;
+        }
+        try {
+            int size = input.readUInt32();
+            List<CanalEntry.Entry> entryList = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int length = input.readUInt32();
+                int limit = input.pushLimit(length);
+                entryList.add(CanalEntry.Entry.parseFrom(input));
+                input.popLimit(limit);
+                // 每个 entry 单独计算大小限制, 避免累计读取量超过上限
+                input.resetSizeCounter();
+            }
+            return entryList;
+        } catch (IOException e) {
+            if (input.isAtEnd()) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        stream.close();
+    }
+}
@@ -0,0 +1,87 @@
+package com.sym.canal.replay;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * 把 canal 批次写入录制文件, 供{@link ReplayCanalConnector}回放.
+ * <p>
+ * 文件格式: [fixed32 魔数][批次]..., 批次为 [varint entry数][varint 长度, entry]...,
+ * 直接保存 entry 的 protobuf 字节, 不做额外的编码. 文件以追加方式打开, 多次录制的内容会首尾相接;
+ * 进程崩溃时最后一个写了一半的批次在回放时会被忽略.
+ *
+ * @author shenyanming
+ * Create on 2021/09/26 14:20
+ */
+public class CanalRecorder implements Closeable {
+
+    static final int MAGIC = 0x4C52_4353;
+
+    private final OutputStream stream;
+    private final CodedOutputStream output;
+
+    /**
+     * 录制的批次数和 entry 数
+     */
+    private long batches;
+    private long entries;
+
+    public CanalRecorder(File file) throws IOException {
+        boolean exists = file.length() > 0;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("can not create directory: " + parent);
+        }
+        this.stream = new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024);
+        this.output = CodedOutputStream.newInstance(stream);
+        if (!exists) {
+            output.writeFixed32NoTag(MAGIC);
+        }
+    }
+
+    /**
+     * 录制一个批次, 空批次忽略
+     */
+    public synchronized void record(List<CanalEntry.Entry> entryList) throws IOException {
+        if (entryList.isEmpty()) {
+            return;
+        }
+        output.writeUInt32NoTag(entryList.size());
+        for (CanalEntry.Entry entry : entryList) {
+            output.writeUInt32NoTag(entry.getSerializedSize());
+            entry.writeTo(output);
+        }
+        batches++;
+        entries += entryList.size();
+    }
+
+    /**
+     * 把缓冲的数据写入文件
+     */
+    public synchronized void flush() throws IOException {
+        output.flush();
+        stream.flush();
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getEntries() {
+        return entries;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        stream.close();
+    }
+}
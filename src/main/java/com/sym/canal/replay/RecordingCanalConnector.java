@@ -0,0 +1,148 @@
+package com.sym.canal.replay;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.Message;
+import com.alibaba.otter.canal.protocol.exception.CanalClientException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 录制经过的 canal 批次, 其它操作原样交给被包装的连接器. 批次在提交时才写入录制文件,
+ * 回滚的批次会被 canal server 重新投递, 不会重复录制, 录制下来的就是客户端实际消费的数据流.
+ *
+ * @author shenyanming
+ * Create on 2021/09/26 15:10
+ */
+@Slf4j
+public class RecordingCanalConnector implements CanalConnector, Closeable {
+
+    private final CanalConnector delegate;
+    private final CanalRecorder recorder;
+
+    /**
+     * 已拉取但未提交的批次, batchId -> entry
+     */
+    private final Map<Long, List<CanalEntry.Entry>> unacked = new LinkedHashMap<>();
+
+    public RecordingCanalConnector(CanalConnector delegate, CanalRecorder recorder) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.recorder = Objects.requireNonNull(recorder);
+    }
+
+    @Override
+    public void connect() throws CanalClientException {
+        delegate.connect();
+    }
+
+    @Override
+    public synchronized void disconnect() throws CanalClientException {
+        unacked.clear();
+        try {
+            recorder.flush();
+        } catch (IOException e) {
+            log.warn("canal recorder flush failure, ", e);
+        }
+        delegate.disconnect();
+    }
+
+    @Override
+    public boolean checkValid() throws CanalClientException {
+        return delegate.checkValid();
+    }
+
+    @Override
+    public void subscribe(String filter) throws CanalClientException {
+        delegate.subscribe(filter);
+    }
+
+    @Override
+    public void subscribe() throws CanalClientException {
+        delegate.subscribe();
+    }
+
+    @Override
+    public void unsubscribe() throws CanalClientException {
+        delegate.unsubscribe();
+    }
+
+    @Override
+    public Message get(int batchSize) throws CanalClientException {
+        return record(delegate.get(batchSize));
+    }
+
+    @Override
+    public Message get(int batchSize, Long timeout, TimeUnit unit) throws CanalClientException {
+        return record(delegate.get(batchSize, timeout, unit));
+    }
+
+    @Override
+    public synchronized Message getWithoutAck(int batchSize) throws CanalClientException {
+        return track(delegate.getWithoutAck(batchSize));
+    }
+
+    @Override
+    public synchronized Message getWithoutAck(int batchSize, Long timeout, TimeUnit unit) throws CanalClientException {
+        return track(delegate.getWithoutAck(batchSize, timeout, unit));
+    }
+
+    @Override
+    public synchronized void ack(long batchId) throws CanalClientException {
+        delegate.ack(batchId);
+        // canal 按顺序提交, 提交一个批次意味着它之前的批次也都提交了
+        Iterator<Map.Entry<Long, List<CanalEntry.Entry>>> iterator = unacked.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, List<CanalEntry.Entry>> entry = iterator.next();
+            if (entry.getKey() > batchId) {
+                break;
+            }
+            write(entry.getValue());
+            iterator.remove();
+        }
+    }
+
+    @Override
+    public synchronized void rollback(long batchId) throws CanalClientException {
+        unacked.clear();
+        delegate.rollback(batchId);
+    }
+
+    @Override
+    public synchronized void rollback() throws CanalClientException {
+        unacked.clear();
+        delegate.rollback();
+    }
+
+    @Override
+    public void close() throws IOException {
+        recorder.close();
+    }
+
+    private Message track(Message message) {
+        if (message.getId() != -1 && !message.getEntries().isEmpty()) {
+            unacked.put(message.getId(), message.getEntries());
+        }
+        return message;
+    }
+
+    private Message record(Message message) {
+        write(message.getEntries());
+        return message;
+    }
+
+    private synchronized void write(List<CanalEntry.Entry> entryList) {
+        try {
+            recorder.record(entryList);
+        } catch (IOException e) {
+            throw new CanalClientException("canal recorder write failure", e);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.sym.canal.replay;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.Message;
+import com.alibaba.otter.canal.protocol.exception.CanalClientException;
+import lombok.Builder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 回放{@link CanalRecorder}录制的数据, 代替 canal server 给{@link com.sym.canal.CanalClient}使用,
+ * 不需要 MySQL 和 canal server 就可以对客户端和处理器做端到端的压测.
+ * <p>
+ * 录制的批次会被拆开按照拉取条数重新组批, 可以限制每秒最多投递的 entry 数, 不限制时尽快投递.
+ * 提交、回滚的语义与 canal server 一致: 回滚或断开连接以后, 未提交的批次从头重新投递.
+ * 订阅规则会被忽略, 录制的是什么就回放什么. 回放完以后一直返回空批次, 可以通过{@link #isExhausted()}判断是否已经全部提交.
+ *
+ * @author shenyanming
+ * Create on 2021/09/26 16:05
+ */
+public class ReplayCanalConnector implements CanalConnector, Closeable {
+
+    private static final Message EMPTY = new Message(-1, new ArrayList<>());
+
+    private final File file;
+
+    /**
+     * 每秒最多投递的 entry 数, 小于等于0表示不限制
+     */
+    private final double entriesPerSecond;
+
+    private CanalRecordReader reader;
+    private boolean connected;
+
+    /**
+     * 待投递的 entry, 包括回滚的和录制批次拆分剩下的
+     */
+    private final Deque<CanalEntry.Entry> pending = new ArrayDeque<>();
+
+    /**
+     * 已投递但未提交的批次, batchId -> entry
+     */
+    private final Map<Long, List<CanalEntry.Entry>> unacked = new LinkedHashMap<>();
+    private long nextBatchId = 1;
+
+    /**
+     * 限速的起始时间和已投递的 entry 数
+     */
+    private long startNanos;
+    private long delivered;
+
+    /**
+     * 已经提交的 entry 数
+     */
+    private long acked;
+
+    @Builder
+    private ReplayCanalConnector(File file, double entriesPerSecond) {
+        this.file = Objects.requireNonNull(file);
+        this.entriesPerSecond = entriesPerSecond;
+    }
+
+    @Override
+    public synchronized void connect() throws CanalClientException {
+        if (Objects.isNull(reader)) {
+            try {
+                reader = new CanalRecordReader(file);
+            } catch (IOException e) {
+                throw new CanalClientException("can not open canal record file: " + file, e);
+            }
+            startNanos = System.nanoTime();
+        }
+        connected = true;
+    }
+
+    @Override
+    public synchronized void disconnect() throws CanalClientException {
+        rollback();
+        connected = false;
+    }
+
+    @Override
+    public synchronized boolean checkValid() throws CanalClientException {
+        return connected;
+    }
+
+    @Override
+    public void subscribe(String filter) throws CanalClientException {
+        checkConnected();
+    }
+
+    @Override
+    public void subscribe() throws CanalClientException {
+        checkConnected();
+    }
+
+    @Override
+    public void unsubscribe() throws CanalClientException {
+        checkConnected();
+    }
+
+    @Override
+    public synchronized Message get(int batchSize) throws CanalClientException {
+        Message message = getWithoutAck(batchSize);
+        if (message.getId() != -1) {
+            ack(message.getId());
+        }
+        return message;
+    }
+
+    @Override
+    public synchronized Message get(int batchSize, Long timeout, TimeUnit unit) throws CanalClientException {
+        Message message = getWithoutAck(batchSize, timeout, unit);
+        if (message.getId() != -1) {
+            ack(message.getId());
+        }
+        return message;
+    }
+
+    @Override
+    public synchronized Message getWithoutAck(int batchSize) throws CanalClientException {
+        checkConnected();
+        int size = batchSize;
+        if (entriesPerSecond > 0) {
+            long allowed = (long) ((System.nanoTime() - startNanos) * entriesPerSecond / TimeUnit.SECONDS.toNanos(1)) - delivered;
+            size = (int) Math.min(size, allowed);
+        }
+        List<CanalEntry.Entry> entryList = new ArrayList<>(Math.max(Math.min(size, 1024), 0));
+        while (entryList.size() < size && fill()) {
+            entryList.add(pending.pollFirst());
+        }
+        if (entryList.isEmpty()) {
+            return EMPTY;
+        }
+        long batchId = nextBatchId++;
+        unacked.put(batchId, entryList);
+        delivered += entryList.size();
+        return new Message(batchId, entryList);
+    }
+
+    @Override
+    public Message getWithoutAck(int batchSize, Long timeout, TimeUnit unit) throws CanalClientException {
+        long deadline = System.nanoTime() + (Objects.isNull(timeout) ? 0 : unit.toNanos(timeout));
+        while (true) {
+            Message message = getWithoutAck(batchSize);
+            if (message.getId() != -1 || System.nanoTime() >= deadline || isExhausted()) {
+                return message;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    @Override
+    public synchronized void ack(long batchId) throws CanalClientException {
+        checkConnected();
+        Iterator<Map.Entry<Long, List<CanalEntry.Entry>>> iterator = unacked.entrySet().iterator();
+        if (!iterator.hasNext() || iterator.next().getKey() != batchId) {
+            throw new CanalClientException("batchId: " + batchId + " is not the first unacked batch");
+        }
+        acked += unacked.remove(batchId).size();
+    }
+
+    /**
+     * 与 canal server 一致, 回滚所有未提交的批次
+     */
+    @Override
+    public synchronized void rollback(long batchId) throws CanalClientException {
+        rollback();
+    }
+
+    @Override
+    public synchronized void rollback() throws CanalClientException {
+        List<List<CanalEntry.Entry>> batches = new ArrayList<>(unacked.values());
+        unacked.clear();
+        // 倒序放回队首, 保持原来的顺序
+        ListIterator<List<CanalEntry.Entry>> iterator = batches.listIterator(batches.size());
+        while (iterator.hasPrevious()) {
+            List<CanalEntry.Entry> entryList = iterator.previous();
+            for (int i = entryList.size() - 1; i >= 0; i--) {
+                pending.addFirst(entryList.get(i));
+            }
+            delivered -= entryList.size();
+        }
+    }
+
+    /**
+     * 录制的数据是否已经全部投递并提交
+     */
+    public synchronized boolean isExhausted() {
+        return Objects.nonNull(reader) && reader.isClosed() && pending.isEmpty() && unacked.isEmpty();
+    }
+
+    /**
+     * 已经提交的 entry 数
+     */
+    public synchronized long getAcked() {
+        return acked;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        connected = false;
+        if (Objects.nonNull(reader)) {
+            reader.close();
+        }
+    }
+
+    /**
+     * 待投递的 entry 为空时从录制文件读取下一个批次
+     *
+     * @return false 表示已经没有数据
+     */
+    private boolean fill() {
+        while (pending.isEmpty()) {
+            if (reader.isClosed()) {
+                return false;
+            }
+            try {
+                List<CanalEntry.Entry> entryList = reader.next();
+                if (Objects.isNull(entryList)) {
+                    reader.close();
+                    return false;
+                }
+                pending.addAll(entryList);
+            } catch (IOException e) {
+                throw new CanalClientException("canal record file read failure: " + file, e);
+            }
+        }
+        return true;
+    }
+
+    private synchronized void checkConnected() {
+        if (!connected) {
+            throw new CanalClientException("replay connector is not connected");
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.sym.canal.spool;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.CodedOutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * canal 批次的本地缓冲. 拉取线程把批次追加到内存映射的分段文件中, 成组刷盘以后就可以向 canal server 提交;
+ * 处理线程再从缓冲中按顺序读取批次交给处理器, 并维护自己的检查点. 这样处理器变慢时不会让 canal server 积压未提交的数据.
+ * <p>
+ * 目录结构:
+ * <pre>
+ *   checkpoint                检查点, 下一个待处理记录的位置: [long 分段号][int 偏移量]
+ *   00000000000000000000.spool 分段文件, 文件名即分段号
+ * </pre>
+ * 记录格式(小端): [int 长度][int crc32][long batchId][int entry数][int 长度, entry]... , 长度为-1表示分段结束,
+ * 为0表示后面还没有数据. 长度最后写入, 配合 crc 校验, 进程崩溃后写了一半的记录会被识别出来并截断.
+ * 重启后从检查点开始重放, 已经处理但检查点还没持久化的批次会被重复处理.
+ *
+ * @author shenyanming
+ * Create on 2021/07/27 21:30
+ */
+@Slf4j
+public class CanalSpool implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    /**
+     * 记录头: 长度 + crc
+     */
+    private static final int HEADER_BYTES = 8;
+
+    /**
+     * 分段结束标记
+     */
+    private static final int SEGMENT_END = -1;
+
+    private final File dir;
+
+    /**
+     * 分段文件的大小, 单个批次超过这个大小时该分段会单独扩大
+     */
+    private final int segmentBytes;
+
+    /**
+     * 写入位置, 只有拉取线程访问
+     */
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+
+    /**
+     * 已经写满但还没有刷盘的分段
+     */
+    private final List<MappedByteBuffer> unforcedBuffers = new ArrayList<>();
+    private final CRC32 writeCrc = new CRC32();
+
+    /**
+     * 已经刷盘的位置, 处理线程只能读到这里, 由 this 保护
+     */
+    private long committedSegment;
+    private int committedOffset;
+
+    /**
+     * 检查点, 只有处理线程访问
+     */
+    private final MappedByteBuffer checkpoint;
+    private long readSegment;
+    private int readOffset;
+    private MappedByteBuffer readBuffer;
+    private final CRC32 readCrc = new CRC32();
+
+    public CanalSpool(File dir, int segmentBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can not create spool directory: " + dir);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.checkpoint = map(new File(dir, CHECKPOINT_FILE), 12);
+        this.readSegment = checkpoint.getLong(0);
+        this.readOffset = checkpoint.getInt(8);
+        recover();
+    }
+
+    /**
+     * 追加一个批次, 调用{@link #force()}以后才对处理线程可见
+     */
+    public void append(long batchId, List<CanalEntry.Entry> entries) throws IOException {
+        int bodyBytes = 12;
+        for (CanalEntry.Entry entry : entries) {
+            bodyBytes += 4 + entry.getSerializedSize();
+        }
+        // 需要给分段结束标记留出位置
+        int recordBytes = HEADER_BYTES + bodyBytes;
+        if (writeBuffer.remaining() < recordBytes + 4) {
+            roll(recordBytes + 4);
+        }
+        int start = writeBuffer.position();
+        ByteBuffer body = slice(writeBuffer, start + HEADER_BYTES, bodyBytes);
+        CodedOutputStream output = CodedOutputStream.newInstance(body);
+        output.writeFixed64NoTag(batchId);
+        output.writeFixed32NoTag(entries.size());
+        for (CanalEntry.Entry entry : entries) {
+            output.writeFixed32NoTag(entry.getSerializedSize());
+            entry.writeTo(output);
+        }
+        output.flush();
+        writeCrc.reset();
+        writeCrc.update(slice(writeBuffer, start + HEADER_BYTES, bodyBytes));
+        writeBuffer.putInt(start + 4, (int) writeCrc.getValue());
+        // 长度最后写
+        writeBuffer.putInt(start, bodyBytes);
+        writeBuffer.position(start + recordBytes);
+    }
+
+    /**
+     * 刷盘, 返回以后之前追加的批次都已经持久化, 可以向 canal server 提交了
+     */
+    public void force() {
+        for (MappedByteBuffer buffer : unforcedBuffers) {
+            buffer.force();
+        }
+        unforcedBuffers.clear();
+        writeBuffer.force();
+        synchronized (this) {
+            committedSegment = writeSegment;
+            committedOffset = writeBuffer.position();
+            notifyAll();
+        }
+    }
+
+    /**
+     * 丢弃上一次刷盘以后追加的批次, 写入位置回到已经刷盘的位置. 追加失败或者批次回滚以后调用,
+     * 否则下一次{@link #force()}会让这些批次对处理线程可见, 而 canal server 又会重新投递它们, 导致重复处理.
+     * 丢弃的数据会被清零, 重启恢复时也不会再读到它们
+     */
+    public void discardUncommitted() {
+        long segment;
+        int offset;
+        synchronized (this) {
+            segment = committedSegment;
+            offset = committedOffset;
+        }
+        // 刷盘以后切换过分段时, 第一个没有刷盘的分段就是已经刷盘的位置所在的分段
+        MappedByteBuffer buffer = unforcedBuffers.isEmpty() ? writeBuffer : unforcedBuffers.get(0);
+        int end = Math.min(buffer.position() + 4, buffer.capacity());
+        for (int i = offset; i < end; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.force();
+        for (long s = segment + 1; s <= writeSegment; s++) {
+            if (segmentFile(s).exists()) {
+                deleteSegment(s);
+            }
+        }
+        unforcedBuffers.clear();
+        writeSegment = segment;
+        writeBuffer = buffer;
+        writeBuffer.position(offset);
+    }
+
+    /**
+     * 读取检查点位置的批次, 处理成功以后需要调用{@link #commit(SpoolRecord)}, 否则下次读取的还是同一个批次
+     *
+     * @return 超时还没有数据时返回 null
+     */
+    public SpoolRecord poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            synchronized (this) {
+                long remaining;
+                while (readSegment == committedSegment && readOffset >= committedOffset
+                        && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                if (readSegment == committedSegment && readOffset >= committedOffset) {
+                    return null;
+                }
+            }
+            if (readBuffer == null) {
+                readBuffer = map(segmentFile(readSegment), 0);
+            }
+            int length = readBuffer.getInt(readOffset);
+            if (length != SEGMENT_END) {
+                return read(length);
+            }
+            // 当前分段已经读完, 移动到下一个分段
+            moveCheckpoint(readSegment + 1, 0);
+        }
+    }
+
+    /**
+     * 批次处理完成, 检查点移动到下一个批次. 检查点写在内存映射文件中, 进程崩溃不会丢失, 机器掉电可能会丢失最近的检查点
+     */
+    public void commit(SpoolRecord record) {
+        moveCheckpoint(record.nextSegment, record.nextOffset);
+    }
+
+    private SpoolRecord read(int length) throws IOException {
+        ByteBuffer body = slice(readBuffer, readOffset + HEADER_BYTES, length);
+        readCrc.reset();
+        readCrc.update(body.duplicate());
+        if ((int) readCrc.getValue() != readBuffer.getInt(readOffset + 4)) {
+            throw new IOException("spool record is corrupted, segment: " + readSegment + ", offset: " + readOffset);
+        }
+        long batchId = body.getLong();
+        int count = body.getInt();
+        List<CanalEntry.Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int entryBytes = body.getInt();
+            entries.add(CanalEntry.Entry.PARSER.parseFrom(slice(body, body.position(), entryBytes)));
+            body.position(body.position() + entryBytes);
+        }
+        return new SpoolRecord(batchId, entries, readSegment, readOffset + HEADER_BYTES + length);
+    }
+
+    private void moveCheckpoint(long segment, int offset) {
+        if (segment != readSegment) {
+            // 整个分段都处理完了, 删掉它
+            readBuffer = null;
+            deleteSegment(readSegment);
+        }
+        readSegment = segment;
+        readOffset = offset;
+        checkpoint.putLong(0, segment);
+        checkpoint.putInt(8, offset);
+    }
+
+    /**
+     * 检查点刷盘
+     */
+    public void forceCheckpoint() {
+        checkpoint.force();
+    }
+
+    @Override
+    public void close() {
+        force();
+        forceCheckpoint();
+    }
+
+    /**
+     * 重启以后恢复写入位置: 从检查点开始逐条校验记录, 遇到第一条不完整的记录就截断, 后面的分段全部删除
+     */
+    private void recover() throws IOException {
+        List<Long> segments = listSegments();
+        // 检查点之前的分段已经处理完
+        for (Long segment : segments) {
+            if (segment < readSegment) {
+                deleteSegment(segment);
+            }
+        }
+        segments.removeIf(segment -> segment < readSegment);
+        if (segments.isEmpty() || segments.get(0) != readSegment) {
+            // 检查点对应的分段不存在, 从第一个分段开始
+            readSegment = segments.isEmpty() ? readSegment : segments.get(0);
+            readOffset = 0;
+            checkpoint.putLong(0, readSegment);
+            checkpoint.putInt(8, readOffset);
+        }
+        long segment = readSegment;
+        int offset = readOffset;
+        MappedByteBuffer buffer = segments.isEmpty() ? createSegment(segment, segmentBytes) : map(segmentFile(segment), 0);
+        while (true) {
+            int length = offset + 4 <= buffer.capacity() ? buffer.getInt(offset) : 0;
+            if (length == SEGMENT_END && segments.contains(segment + 1)) {
+                segment++;
+                offset = 0;
+                buffer = map(segmentFile(segment), 0);
+                continue;
+            }
+            if (length == SEGMENT_END) {
+                // 分段已经写满, 但是下一个分段还没来得及创建
+                segment++;
+                offset = 0;
+                buffer = createSegment(segment, segmentBytes);
+                break;
+            }
+            if (length <= 0 || !valid(buffer, offset, length)) {
+                // 截断
+                for (int i = offset; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            offset += HEADER_BYTES + length;
+        }
+        for (Long s : segments) {
+            if (s > segment) {
+                deleteSegment(s);
+            }
+        }
+        writeSegment = segment;
+        writeBuffer = buffer;
+        writeBuffer.position(offset);
+        force();
+        checkpoint.force();
+        log.info("canal spool recovered, checkpoint: {}/{}, write position: {}/{}", readSegment, readOffset, writeSegment, offset);
+    }
+
+    private boolean valid(ByteBuffer buffer, int offset, int length) {
+        if (offset + HEADER_BYTES + length + 4 > buffer.capacity()) {
+            return false;
+        }
+        readCrc.reset();
+        readCrc.update(slice(buffer, offset + HEADER_BYTES, length));
+        return (int) readCrc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    /**
+     * 写结束标记, 切换到下一个分段
+     */
+    private void roll(int minBytes) throws IOException {
+        writeBuffer.putInt(writeBuffer.position(), SEGMENT_END);
+        unforcedBuffers.add(writeBuffer);
+        writeSegment++;
+        writeBuffer = createSegment(writeSegment, Math.max(segmentBytes, minBytes));
+    }
+
+    private MappedByteBuffer createSegment(long segment, int bytes) throws IOException {
+        return map(segmentFile(segment), bytes);
+    }
+
+    private void deleteSegment(long segment) {
+        File file = segmentFile(segment);
+        if (!file.delete()) {
+            log.warn("can not delete spool segment: {}", file);
+        }
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * 映射文件
+     *
+     * @param bytes 文件大小, 0表示使用文件原有的大小
+     */
+    private static MappedByteBuffer map(File file, int bytes) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            long size = bytes > 0 ? Math.max(bytes, channel.size()) : channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(offset + length);
+        duplicate.position(offset);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
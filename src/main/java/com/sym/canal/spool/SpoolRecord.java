@@ -0,0 +1,42 @@
+package com.sym.canal.spool;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.util.List;
+
+/**
+ * 从本地缓冲中读取出来的一个批次
+ *
+ * @author shenyanming
+ * Create on 2021/07/27 21:16
+ */
+public class SpoolRecord {
+
+    /**
+     * canal server 的批次号, 仅用于排查问题, 批次已经在写入缓冲以后提交
+     */
+    private final long batchId;
+
+    private final List<CanalEntry.Entry> entries;
+
+    /**
+     * 下一个记录的位置, 处理完以后检查点移动到这里
+     */
+    final long nextSegment;
+    final int nextOffset;
+
+    SpoolRecord(long batchId, List<CanalEntry.Entry> entries, long nextSegment, int nextOffset) {
+        this.batchId = batchId;
+        this.entries = entries;
+        this.nextSegment = nextSegment;
+        this.nextOffset = nextOffset;
+    }
+
+    public long getBatchId() {
+        return batchId;
+    }
+
+    public List<CanalEntry.Entry> getEntries() {
+        return entries;
+    }
+}
@@ -3,6 +3,7 @@ package com.sym.kafka.consumer;
 import com.sym.kafka.constant.KafkaConstant;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.Deserializer;
 
 import java.util.Properties;
 
@@ -13,11 +14,22 @@ import java.util.Properties;
 public class KafkaConsumers {
 
     public static Properties initProperties() {
+        return initProperties(KafkaConstant.STRING_DESERIALIZER);
+    }
+
+    /**
+     * 指定 value 反序列化器的默认配置, 例如订单消息使用{@link com.sym.kafka.consumer.deserializer.OrderViewDeserializer}
+     */
+    public static Properties initProperties(Class<? extends Deserializer<?>> valueDeserializer) {
+        return initProperties(valueDeserializer.getName());
+    }
+
+    private static Properties initProperties(String valueDeserializer) {
         Properties props = new Properties();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, KafkaConstant.KAFKA_BROKERS);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, KafkaConstant.GROUP_ID_CONFIG);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, KafkaConstant.STRING_DESERIALIZER);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, KafkaConstant.STRING_DESERIALIZER);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, valueDeserializer);
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, KafkaConstant.AUTO_COMMIT_FALSE);
         return props;
     }
@@ -1,31 +1,316 @@
 package com.sym.kafka.consumer.assignor;
 
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.internals.AbstractPartitionAssignor;
+import org.apache.kafka.common.Configurable;
 import org.apache.kafka.common.TopicPartition;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * 自定义的分区分配策略
+ * 自定义的分区分配策略: 按照分区的负载而不是分区个数均衡, 并且尽量保持上一次的分配结果.
+ * <p>
+ * 每个成员在{@link Subscription#userData()}中上报自己当前持有的分区和它们的负载(默认是消费延迟, 也可以是字节速率等任意非负的度量),
+ * 负载由应用通过{@link #reportLoad(String, Map)}或者{@link #reportLag(String, Consumer)}写入, 按 client.id 区分同一进程内的多个消费者,
+ * 所以使用这个策略时需要设置不同的 client.id. 分配过程:
+ * <ol>
+ *     <li>每个分区的权重为 负载+1, 没有上报负载的分区取同一个 topic 的平均值, 都没有上报时退化为按分区个数均衡</li>
+ *     <li>成员继续持有上一次的分区</li>
+ *     <li>剩下的分区按权重从大到小, 分给当前总权重最小的成员</li>
+ *     <li>总权重最大和最小的成员相差超过平均值的{@link #TOLERANCE}时, 从最大的成员移动一个分区给最小的成员, 直到不能再改善</li>
+ * </ol>
+ * 只有负载明显不均衡时才会移动已经持有的分区, 避免每次再均衡都大范围迁移.
  *
  * @author shenyanming
  * @date 2020/6/27 14:41.
  */
+@Slf4j
+public class OrderPartitionAssignor extends AbstractPartitionAssignor implements Configurable {
+
+    public static final String NAME = "order-lag";
+
+    /**
+     * 允许的不均衡程度, 最大和最小的成员的权重差与平均权重之比
+     */
+    public static final double TOLERANCE = 0.1;
+
+    private static final short VERSION = 1;
+
+    /**
+     * client.id -> 分区 -> 负载
+     */
+    private static final Map<String, Map<TopicPartition, Long>> REPORTED_LOAD = new ConcurrentHashMap<>();
+
+    private String clientId = "";
+
+    /**
+     * 上一次分配到的分区
+     */
+    private List<TopicPartition> ownedPartitions = Collections.emptyList();
+
+    public static Properties properties() {
+        Properties prop = new Properties();
+        prop.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, OrderPartitionAssignor.class.getName());
+        return prop;
+    }
+
+    /**
+     * 上报消费者持有的分区的负载, 在下一次再均衡时随订阅信息发送给 leader
+     *
+     * @param clientId 消费者的 client.id
+     * @param load     分区 -> 负载
+     */
+    public static void reportLoad(String clientId, Map<TopicPartition, Long> load) {
+        REPORTED_LOAD.put(Objects.isNull(clientId) ? "" : clientId, new HashMap<>(load));
+    }
+
+    /**
+     * 计算并上报消费延迟, 即分区的最新位置减去消费位置. 需要在消费者线程中调用,
+     * 例如在{@link org.apache.kafka.clients.consumer.ConsumerRebalanceListener#onPartitionsRevoked}中, 这时上报的延迟正好用于接下来的分配
+     */
+    public static void reportLag(String clientId, Consumer<?, ?> consumer) {
+        Set<TopicPartition> assignment = consumer.assignment();
+        if (assignment.isEmpty()) {
+            return;
+        }
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(assignment);
+        Map<TopicPartition, Long> lag = new HashMap<>();
+        for (TopicPartition partition : assignment) {
+            Long endOffset = endOffsets.get(partition);
+            if (endOffset != null) {
+                lag.put(partition, Math.max(endOffset - consumer.position(partition), 0));
+            }
+        }
+        reportLoad(clientId, lag);
+    }
 
-public class OrderPartitionAssignor extends AbstractPartitionAssignor {
     @Override
-    public Map<String, List<TopicPartition>> assign(Map<String, Integer> partitionsPerTopic, Map<String, Subscription> subscriptions) {
-        return null;
+    public void configure(Map<String, ?> configs) {
+        Object id = configs.get(ConsumerConfig.CLIENT_ID_CONFIG);
+        this.clientId = Objects.isNull(id) ? "" : id.toString();
     }
 
     @Override
-    public void onAssignment(Assignment assignment, int generation) {
+    public Subscription subscription(Set<String> topics) {
+        Map<TopicPartition, Long> load = REPORTED_LOAD.getOrDefault(clientId, Collections.emptyMap());
+        int bytes = 2 + 4;
+        List<byte[]> topicBytes = new ArrayList<>(ownedPartitions.size());
+        for (TopicPartition partition : ownedPartitions) {
+            byte[] topic = partition.topic().getBytes(StandardCharsets.UTF_8);
+            topicBytes.add(topic);
+            bytes += 2 + topic.length + 4 + 8;
+        }
+        ByteBuffer userData = ByteBuffer.allocate(bytes);
+        userData.putShort(VERSION);
+        userData.putInt(ownedPartitions.size());
+        for (int i = 0; i < ownedPartitions.size(); i++) {
+            TopicPartition partition = ownedPartitions.get(i);
+            userData.putShort((short) topicBytes.get(i).length);
+            userData.put(topicBytes.get(i));
+            userData.putInt(partition.partition());
+            // -1 表示没有上报
+            userData.putLong(load.getOrDefault(partition, -1L));
+        }
+        userData.flip();
+        return new Subscription(new ArrayList<>(topics), userData);
+    }
 
+    @Override
+    public Map<String, List<TopicPartition>> assign(Map<String, Integer> partitionsPerTopic, Map<String, Subscription> subscriptions) {
+        // 成员按 id 排序, 保证结果是确定的
+        Map<String, Member> members = new TreeMap<>();
+        Map<TopicPartition, Long> reportedLoad = new HashMap<>();
+        Map<TopicPartition, String> previousOwner = new HashMap<>();
+        subscriptions.forEach((memberId, subscription) ->
+                members.put(memberId, new Member(memberId, new HashSet<>(subscription.topics()))));
+        for (String memberId : members.keySet()) {
+            decode(memberId, subscriptions.get(memberId).userData(), reportedLoad, previousOwner);
+        }
+
+        // 计算每个分区的权重
+        Map<TopicPartition, Long> weights = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : partitionsPerTopic.entrySet()) {
+            List<TopicPartition> partitions = partitions(entry.getKey(), entry.getValue());
+            long sum = 0;
+            int count = 0;
+            for (TopicPartition partition : partitions) {
+                Long load = reportedLoad.get(partition);
+                if (load != null) {
+                    sum += load;
+                    count++;
+                }
+            }
+            long average = count == 0 ? 0 : sum / count;
+            for (TopicPartition partition : partitions) {
+                weights.put(partition, reportedLoad.getOrDefault(partition, average) + 1);
+            }
+        }
+
+        // 继续持有上一次的分区, 剩下的按权重从大到小分给当前最空闲的成员
+        List<TopicPartition> unassigned = new ArrayList<>();
+        for (TopicPartition partition : weights.keySet()) {
+            String ownerId = previousOwner.get(partition);
+            Member owner = Objects.isNull(ownerId) ? null : members.get(ownerId);
+            if (owner != null && owner.topics.contains(partition.topic())) {
+                owner.add(partition, weights.get(partition));
+            } else {
+                unassigned.add(partition);
+            }
+        }
+        unassigned.sort(Comparator.comparing((TopicPartition partition) -> weights.get(partition)).reversed()
+                .thenComparing(TopicPartition::topic).thenComparingInt(TopicPartition::partition));
+        for (TopicPartition partition : unassigned) {
+            Member target = null;
+            for (Member member : members.values()) {
+                if (member.topics.contains(partition.topic()) && (target == null || member.weight < target.weight)) {
+                    target = member;
+                }
+            }
+            if (target != null) {
+                target.add(partition, weights.get(partition));
+            }
+        }
+
+        int moves = rebalance(new ArrayList<>(members.values()), weights);
+        if (moves > 0) {
+            log.info("order assignor moved {} partitions to balance load", moves);
+        }
+        Map<String, List<TopicPartition>> assignment = new HashMap<>();
+        members.forEach((memberId, member) -> assignment.put(memberId, member.partitions));
+        return assignment;
+    }
+
+    @Override
+    public void onAssignment(Assignment assignment) {
+        this.ownedPartitions = new ArrayList<>(assignment.partitions());
     }
 
     @Override
     public String name() {
-        return null;
+        return NAME;
+    }
+
+    /**
+     * 不均衡超过容忍度时, 从权重最大的成员移动一个分区给权重最小的成员, 每次移动都会让两者更接近
+     *
+     * @return 移动的分区数
+     */
+    private static int rebalance(List<Member> members, Map<TopicPartition, Long> weights) {
+        if (members.size() < 2) {
+            return 0;
+        }
+        long total = 0;
+        for (Member member : members) {
+            total += member.weight;
+        }
+        double tolerance = TOLERANCE * total / members.size();
+        int moves = 0;
+        int maxMoves = weights.size() * members.size();
+        while (moves < maxMoves) {
+            members.sort(Comparator.comparingLong((Member member) -> member.weight).thenComparing(member -> member.id));
+            boolean moved = false;
+            // 从最重的成员开始, 找一个能接收它的分区的最轻的成员
+            for (int from = members.size() - 1; from > 0 && !moved; from--) {
+                Member source = members.get(from);
+                for (int to = 0; to < from && !moved; to++) {
+                    Member target = members.get(to);
+                    long gap = source.weight - target.weight;
+                    if (gap <= tolerance) {
+                        break;
+                    }
+                    // 选择最接近差值一半的分区, 移动以后两者的差值最小
+                    TopicPartition best = null;
+                    long bestDistance = Long.MAX_VALUE;
+                    for (TopicPartition partition : source.partitions) {
+                        long weight = weights.get(partition);
+                        if (weight >= gap || !target.topics.contains(partition.topic())) {
+                            continue;
+                        }
+                        long distance = Math.abs(gap - 2 * weight);
+                        if (distance < bestDistance) {
+                            best = partition;
+                            bestDistance = distance;
+                        }
+                    }
+                    if (best != null) {
+                        source.remove(best, weights.get(best));
+                        target.add(best, weights.get(best));
+                        moves++;
+                        moved = true;
+                    }
+                }
+            }
+            if (!moved) {
+                break;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * 解析成员上报的分区和负载, 无法解析的忽略, 不影响分配
+     */
+    private static void decode(String memberId, ByteBuffer userData, Map<TopicPartition, Long> reportedLoad,
+                               Map<TopicPartition, String> previousOwner) {
+        if (userData == null || !userData.hasRemaining()) {
+            return;
+        }
+        ByteBuffer buffer = userData.duplicate();
+        try {
+            if (buffer.getShort() < VERSION) {
+                return;
+            }
+            int size = buffer.getInt();
+            for (int i = 0; i < size; i++) {
+                byte[] topic = new byte[buffer.getShort()];
+                buffer.get(topic);
+                TopicPartition partition = new TopicPartition(new String(topic, StandardCharsets.UTF_8), buffer.getInt());
+                long load = buffer.getLong();
+                // 两个成员都声称持有同一个分区时, 以先解析到的为准
+                if (previousOwner.putIfAbsent(partition, memberId) == null && load >= 0) {
+                    reportedLoad.put(partition, load);
+                }
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            log.warn("invalid order assignor user data, member: {}", memberId);
+        }
+    }
+
+    private static class Member {
+        private final String id;
+        private final Set<String> topics;
+        private final List<TopicPartition> partitions = new ArrayList<>();
+        private long weight;
+
+        Member(String id, Set<String> topics) {
+            this.id = id;
+            this.topics = topics;
+        }
+
+        void add(TopicPartition partition, long weight) {
+            partitions.add(partition);
+            this.weight += weight;
+        }
+
+        void remove(TopicPartition partition, long weight) {
+            partitions.remove(partition);
+            this.weight -= weight;
+        }
     }
 }
@@ -0,0 +1,48 @@
+package com.sym.kafka.consumer.deserializer;
+
+import com.sym.kafka.constant.KafkaConstant;
+import com.sym.kafka.domain.Order;
+import com.sym.kafka.domain.OrderView;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 自定义反序列化器{@link Deserializer}, 读取{@link com.sym.kafka.producer.serializer.OrderSerializer}写入的二进制数据, 通过{@link OrderView}完整解码.
+ * 更高版本的数据只要定长部分的偏移量没有变化也可以读取, 末尾追加的字段会被忽略
+ *
+ * @author shenyanming
+ * @date 2021/10/4 11:05.
+ */
+public class OrderDeserializer implements Deserializer<Order> {
+
+    public static Properties properties() {
+        Properties prop = new Properties();
+        prop.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, KafkaConstant.STRING_DESERIALIZER);
+        prop.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "com.sym.kafka.consumer.deserializer.OrderDeserializer");
+        return prop;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+
+    }
+
+    @Override
+    public Order deserialize(String topic, byte[] data) {
+        return data == null ? null : OrderView.wrap(data).toOrder();
+    }
+
+    @Override
+    public Order deserialize(String topic, Headers headers, byte[] data) {
+        return deserialize(topic, data);
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
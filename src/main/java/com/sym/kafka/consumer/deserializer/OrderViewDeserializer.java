@@ -0,0 +1,47 @@
+package com.sym.kafka.consumer.deserializer;
+
+import com.sym.kafka.constant.KafkaConstant;
+import com.sym.kafka.domain.OrderView;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 返回{@link OrderView}的反序列化器{@link Deserializer}, 不解码任何字段, 适合只读取少数字段的过滤、路由消费者.
+ * 需要完整对象时使用{@link OrderDeserializer}或者{@link OrderView#toOrder()}
+ *
+ * @author shenyanming
+ * @date 2021/10/5 10:50.
+ */
+public class OrderViewDeserializer implements Deserializer<OrderView> {
+
+    public static Properties properties() {
+        Properties prop = new Properties();
+        prop.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, KafkaConstant.STRING_DESERIALIZER);
+        prop.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "com.sym.kafka.consumer.deserializer.OrderViewDeserializer");
+        return prop;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+
+    }
+
+    @Override
+    public OrderView deserialize(String topic, byte[] data) {
+        return data == null ? null : OrderView.wrap(data);
+    }
+
+    @Override
+    public OrderView deserialize(String topic, Headers headers, byte[] data) {
+        return deserialize(topic, data);
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
@@ -1,16 +1,58 @@
 package com.sym.kafka.domain;
 
+import lombok.AllArgsConstructor;
+import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.io.Serializable;
+import java.math.BigDecimal;
 
 /**
- * kafka的一个领域
+ * kafka的一个领域, 二进制格式见{@link OrderFormat}
  *
  * @author shenyanming
  * @date 2020/6/14 20:53.
  */
 @Data
-
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class Order implements Serializable {
+    private static final long serialVersionUID = 3386297409521437120L;
+
+    /**
+     * 订单id
+     */
+    private Long orderId;
+
+    /**
+     * 订单号
+     */
+    private String orderNo;
+
+    /**
+     * 商户id
+     */
+    private Long merchantId;
+
+    /**
+     * 用户id
+     */
+    private Long userId;
+
+    /**
+     * 订单金额, 去掉小数点以后不能超出 long 的范围
+     */
+    private BigDecimal amount;
+
+    /**
+     * 订单状态
+     */
+    private Integer status;
+
+    /**
+     * 创建时间(毫秒)
+     */
+    private Long createTime;
 }
@@ -0,0 +1,57 @@
+package com.sym.kafka.domain;
+
+/**
+ * {@link Order}的二进制格式, 大端序, 定长部分的每个字段都在固定的偏移量上, 不需要解析前面的字段就可以直接读取:
+ * <pre>
+ *   0  byte  版本号
+ *   1  byte  null 标记, 第 n 位为1表示第 n 个字段为 null, 顺序见 NULL_* 常量
+ *   2  long  orderId
+ *   10 long  merchantId
+ *   18 long  userId
+ *   26 long  createTime
+ *   34 int   status
+ *   38 long  amount 去掉小数点以后的整数
+ *   46 byte  amount 小数位数
+ *   47 short orderNo 的 UTF-8 字节数
+ *   49 ...   orderNo
+ * </pre>
+ * 升级版本时只能在末尾追加字段, 不能改变已有字段的偏移量, 这样旧版本的读取方可以忽略不认识的部分继续读取.
+ *
+ * @author shenyanming
+ * @date 2021/10/4 10:20.
+ */
+public final class OrderFormat {
+
+    public static final byte VERSION = 1;
+
+    public static final int VERSION_OFFSET = 0;
+    public static final int NULLS_OFFSET = 1;
+    public static final int ORDER_ID_OFFSET = 2;
+    public static final int MERCHANT_ID_OFFSET = 10;
+    public static final int USER_ID_OFFSET = 18;
+    public static final int CREATE_TIME_OFFSET = 26;
+    public static final int STATUS_OFFSET = 34;
+    public static final int AMOUNT_UNSCALED_OFFSET = 38;
+    public static final int AMOUNT_SCALE_OFFSET = 46;
+    public static final int ORDER_NO_LENGTH_OFFSET = 47;
+    public static final int ORDER_NO_OFFSET = 49;
+
+    /**
+     * 定长部分的字节数
+     */
+    public static final int FIXED_BYTES = ORDER_NO_OFFSET;
+
+    /**
+     * null 标记的位
+     */
+    public static final int NULL_ORDER_ID = 1;
+    public static final int NULL_ORDER_NO = 1 << 1;
+    public static final int NULL_MERCHANT_ID = 1 << 2;
+    public static final int NULL_USER_ID = 1 << 3;
+    public static final int NULL_AMOUNT = 1 << 4;
+    public static final int NULL_STATUS = 1 << 5;
+    public static final int NULL_CREATE_TIME = 1 << 6;
+
+    private OrderFormat() {
+    }
+}
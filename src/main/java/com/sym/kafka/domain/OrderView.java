@@ -0,0 +1,137 @@
+package com.sym.kafka.domain;
+
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import static com.sym.kafka.domain.OrderFormat.*;
+
+/**
+ * {@link Order}二进制数据的只读视图, 直接引用消息的字节数组, 不做复制. 定长字段按{@link OrderFormat}的偏移量在访问时读取,
+ * 数值类型的字段返回基本类型, 不会装箱; 订单号和金额第一次访问时才创建对象. 只根据一两个字段过滤、路由的消费者,
+ * 每条消息只需要分配这个视图本身. 字段是否为 null 通过{@link #isNull(int)}判断, 为 null 时数值字段返回0.
+ * <p>
+ * 视图不是线程安全的, 引用的字节数组也不能被修改
+ *
+ * @author shenyanming
+ * @date 2021/10/5 10:15.
+ */
+public final class OrderView {
+
+    private final byte[] data;
+    private final int nulls;
+
+    private String orderNo;
+    private BigDecimal amount;
+
+    private OrderView(byte[] data) {
+        this.data = data;
+        this.nulls = data[NULLS_OFFSET];
+    }
+
+    /**
+     * 包装二进制数据, 只校验长度和版本号
+     *
+     * @throws SerializationException 数据不完整
+     */
+    public static OrderView wrap(byte[] data) {
+        if (data.length < FIXED_BYTES || data[VERSION_OFFSET] < 1) {
+            throw new SerializationException("invalid order data, length: " + data.length);
+        }
+        int orderNoBytes = getShort(data, ORDER_NO_LENGTH_OFFSET);
+        if (orderNoBytes < 0 || FIXED_BYTES + orderNoBytes > data.length) {
+            throw new SerializationException("invalid order no length: " + orderNoBytes);
+        }
+        return new OrderView(data);
+    }
+
+    public int getVersion() {
+        return data[VERSION_OFFSET];
+    }
+
+    /**
+     * 字段是否为 null
+     *
+     * @param nullFlag {@link OrderFormat}中的 NULL_* 常量
+     */
+    public boolean isNull(int nullFlag) {
+        return (nulls & nullFlag) != 0;
+    }
+
+    public long getOrderId() {
+        return getLong(data, ORDER_ID_OFFSET);
+    }
+
+    public long getMerchantId() {
+        return getLong(data, MERCHANT_ID_OFFSET);
+    }
+
+    public long getUserId() {
+        return getLong(data, USER_ID_OFFSET);
+    }
+
+    public long getCreateTime() {
+        return getLong(data, CREATE_TIME_OFFSET);
+    }
+
+    public int getStatus() {
+        return getInt(data, STATUS_OFFSET);
+    }
+
+    public String getOrderNo() {
+        if (orderNo == null && !isNull(NULL_ORDER_NO)) {
+            orderNo = new String(data, ORDER_NO_OFFSET, getShort(data, ORDER_NO_LENGTH_OFFSET), StandardCharsets.UTF_8);
+        }
+        return orderNo;
+    }
+
+    public BigDecimal getAmount() {
+        if (amount == null && !isNull(NULL_AMOUNT)) {
+            amount = BigDecimal.valueOf(getLong(data, AMOUNT_UNSCALED_OFFSET), data[AMOUNT_SCALE_OFFSET]);
+        }
+        return amount;
+    }
+
+    /**
+     * 完整解码
+     */
+    public Order toOrder() {
+        Order order = new Order();
+        if (!isNull(NULL_ORDER_ID)) {
+            order.setOrderId(getOrderId());
+        }
+        if (!isNull(NULL_MERCHANT_ID)) {
+            order.setMerchantId(getMerchantId());
+        }
+        if (!isNull(NULL_USER_ID)) {
+            order.setUserId(getUserId());
+        }
+        if (!isNull(NULL_CREATE_TIME)) {
+            order.setCreateTime(getCreateTime());
+        }
+        if (!isNull(NULL_STATUS)) {
+            order.setStatus(getStatus());
+        }
+        order.setAmount(getAmount());
+        order.setOrderNo(getOrderNo());
+        return order;
+    }
+
+    @Override
+    public String toString() {
+        return toOrder().toString();
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return ((long) getInt(data, offset) << 32) | (getInt(data, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static int getInt(byte[] data, int offset) {
+        return (data[offset] << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static int getShort(byte[] data, int offset) {
+        return (short) ((data[offset] << 8) | (data[offset + 1] & 0xFF));
+    }
+}
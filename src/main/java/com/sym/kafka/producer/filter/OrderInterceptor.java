@@ -1,5 +1,6 @@
 package com.sym.kafka.producer.filter;
 
+import com.sym.kafka.constant.KafkaConstant;
 import com.sym.kafka.domain.Order;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerInterceptor;
@@ -7,10 +8,16 @@ import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 
 /**
- * 自定义拦截器{@link ProducerInterceptor}
+ * 自定义拦截器{@link ProducerInterceptor}, 统计发送的确认延迟、字节数和失败数, 通过 JMX 暴露,
+ * 用来调整 acks、linger.ms、batch.size 这些参数.
+ * <p>
+ * 确认回调只能拿到{@link RecordMetadata}, 拿不到原始记录, 所以在 onSend 里把发送时间写到记录的时间戳上,
+ * 确认时用当前时间减去时间戳就是确认延迟(包括在缓冲区里等待攒批的时间). 调用方自己指定了时间戳的记录,
+ * 或者 topic 配置了 LogAppendTime, 统计出来的就不是发送延迟了
  *
  * @author shenyanming
  * @date 2020/6/14 21:09.
@@ -18,29 +25,49 @@ import java.util.Properties;
 
 public class OrderInterceptor implements ProducerInterceptor<String, Order> {
 
+    private OrderInterceptorMetrics metrics;
+
     public static Properties properties(){
         Properties prop = new Properties();
         prop.put(ProducerConfig.INTERCEPTOR_CLASSES_CONFIG, "com.sym.kafka.producer.filter.OrderInterceptor");
         return prop;
     }
 
+    public OrderInterceptorMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public ProducerRecord<String, Order> onSend(ProducerRecord<String, Order> record) {
-        return null;
+        metrics.onSend();
+        if (Objects.nonNull(record.timestamp())) {
+            return record;
+        }
+        return new ProducerRecord<>(record.topic(), record.partition(), System.currentTimeMillis(),
+                record.key(), record.value(), record.headers());
     }
 
     @Override
     public void onAcknowledgement(RecordMetadata metadata, Exception exception) {
-
+        // 在生产者的 IO 线程上执行, 只做原子自增
+        if (Objects.nonNull(exception)) {
+            metrics.onError(Objects.isNull(metadata) ? OrderInterceptorMetrics.UNKNOWN_TOPIC : metadata.topic(), exception);
+            return;
+        }
+        long latency = metadata.hasTimestamp() ? System.currentTimeMillis() - metadata.timestamp() : -1;
+        long bytes = Math.max(metadata.serializedKeySize(), 0) + Math.max(metadata.serializedValueSize(), 0);
+        metrics.onAck(metadata.topic(), metadata.partition(), latency, bytes);
     }
 
     @Override
     public void close() {
-
+        metrics.unregister();
     }
 
     @Override
     public void configure(Map<String, ?> configs) {
-
+        Object clientId = configs.get(ProducerConfig.CLIENT_ID_CONFIG);
+        this.metrics = new OrderInterceptorMetrics(Objects.isNull(clientId) ? KafkaConstant.CLIENT_ID : clientId.toString());
+        metrics.register();
     }
 }
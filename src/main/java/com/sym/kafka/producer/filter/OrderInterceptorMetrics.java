@@ -0,0 +1,204 @@
+package com.sym.kafka.producer.filter;
+
+import com.sym.util.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link OrderInterceptor}的统计数据, 记录时只有原子自增, 不会阻塞发送线程和 IO 线程
+ *
+ * @author shenyanming
+ * @date 2021/10/8 10:50.
+ */
+@Slf4j
+public class OrderInterceptorMetrics implements OrderInterceptorMetricsMXBean {
+
+    /**
+     * 拿不到 topic 时使用的名称, 比如序列化失败
+     */
+    static final String UNKNOWN_TOPIC = "unknown";
+
+    private final String clientId;
+
+    private final LongAdder sentRecords = new LongAdder();
+    private final LongAdder ackedRecords = new LongAdder();
+    private final LongAdder errorRecords = new LongAdder();
+    private final LongAdder ackedBytes = new LongAdder();
+
+    private final Map<String, TopicStats> topics = new ConcurrentHashMap<>();
+    private final Map<TopicPartition, LatencyHistogram> partitions = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errorTypes = new ConcurrentHashMap<>();
+
+    private volatile long startMillis = System.currentTimeMillis();
+
+    private ObjectName objectName;
+
+    public OrderInterceptorMetrics(String clientId) {
+        this.clientId = clientId;
+    }
+
+    void onSend() {
+        sentRecords.increment();
+    }
+
+    /**
+     * @param latencyMillis 确认延迟, 小于0表示记录没有时间戳, 不统计延迟
+     * @param bytes         序列化后 key 和 value 的字节数
+     */
+    void onAck(String topic, int partition, long latencyMillis, long bytes) {
+        ackedRecords.increment();
+        ackedBytes.add(bytes);
+        TopicStats stats = topicStats(topic);
+        stats.bytes.add(bytes);
+        if (latencyMillis >= 0) {
+            stats.latency.record(latencyMillis);
+            if (partition >= 0) {
+                TopicPartition topicPartition = new TopicPartition(topic, partition);
+                LatencyHistogram latency = partitions.get(topicPartition);
+                if (latency == null) {
+                    latency = partitions.computeIfAbsent(topicPartition, k -> new LatencyHistogram());
+                }
+                latency.record(latencyMillis);
+            }
+        }
+    }
+
+    void onError(String topic, Exception exception) {
+        errorRecords.increment();
+        topicStats(topic).errors.increment();
+        errorTypes.computeIfAbsent(exception.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    private TopicStats topicStats(String topic) {
+        // 先 get 再 computeIfAbsent, 避免热路径上 computeIfAbsent 的锁竞争
+        TopicStats stats = topics.get(topic);
+        return stats != null ? stats : topics.computeIfAbsent(topic, k -> new TopicStats());
+    }
+
+    @Override
+    public String getClientId() {
+        return clientId;
+    }
+
+    @Override
+    public long getSentRecords() {
+        return sentRecords.sum();
+    }
+
+    @Override
+    public long getAckedRecords() {
+        return ackedRecords.sum();
+    }
+
+    @Override
+    public long getErrorRecords() {
+        return errorRecords.sum();
+    }
+
+    @Override
+    public long getAckedBytes() {
+        return ackedBytes.sum();
+    }
+
+    @Override
+    public double getRecordsPerSecond() {
+        return perSecond(ackedRecords.sum());
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return perSecond(ackedBytes.sum());
+    }
+
+    private double perSecond(long value) {
+        long elapsed = System.currentTimeMillis() - startMillis;
+        return elapsed <= 0 ? 0 : value * 1000.0 / elapsed;
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getTopicLatency() {
+        Map<String, LatencyHistogram.Snapshot> result = new HashMap<>();
+        topics.forEach((topic, stats) -> result.put(topic, stats.latency.snapshot()));
+        return result;
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getPartitionLatency() {
+        Map<String, LatencyHistogram.Snapshot> result = new HashMap<>();
+        partitions.forEach((partition, latency) -> result.put(partition.toString(), latency.snapshot()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getTopicBytes() {
+        Map<String, Long> result = new HashMap<>();
+        topics.forEach((topic, stats) -> result.put(topic, stats.bytes.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getTopicErrors() {
+        Map<String, Long> result = new HashMap<>();
+        topics.forEach((topic, stats) -> result.put(topic, stats.errors.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getErrorTypes() {
+        Map<String, Long> result = new HashMap<>();
+        errorTypes.forEach((type, count) -> result.put(type, count.sum()));
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        sentRecords.reset();
+        ackedRecords.reset();
+        errorRecords.reset();
+        ackedBytes.reset();
+        topics.clear();
+        partitions.clear();
+        errorTypes.clear();
+        startMillis = System.currentTimeMillis();
+    }
+
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.sym.kafka:type=OrderInterceptor,clientId=" + ObjectName.quote(clientId));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (Exception e) {
+            log.warn("order interceptor metrics register failure, clientId: {}, ", clientId, e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            log.warn("order interceptor metrics unregister failure, clientId: {}, ", clientId, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    private static class TopicStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+}
@@ -0,0 +1,77 @@
+package com.sym.kafka.producer.filter;
+
+import com.sym.util.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * {@link OrderInterceptor}的 JMX 监控指标, 每个生产者一个,
+ * ObjectName 为 com.sym.kafka:type=OrderInterceptor,clientId=xxx
+ *
+ * @author shenyanming
+ * @date 2021/10/8 10:30.
+ */
+public interface OrderInterceptorMetricsMXBean {
+
+    String getClientId();
+
+    /**
+     * 经过拦截器发送的记录数
+     */
+    long getSentRecords();
+
+    /**
+     * broker 确认成功的记录数
+     */
+    long getAckedRecords();
+
+    /**
+     * 发送失败的记录数
+     */
+    long getErrorRecords();
+
+    /**
+     * 确认成功的记录序列化后的字节数, 即 key 和 value 之和
+     */
+    long getAckedBytes();
+
+    /**
+     * 从启动或者上一次清空统计到现在, 平均每秒确认成功的记录数
+     */
+    double getRecordsPerSecond();
+
+    /**
+     * 从启动或者上一次清空统计到现在, 平均每秒确认成功的字节数
+     */
+    double getBytesPerSecond();
+
+    /**
+     * topic -> 确认延迟分布(毫秒), 即确认时间减去记录的时间戳
+     */
+    Map<String, LatencyHistogram.Snapshot> getTopicLatency();
+
+    /**
+     * topic-partition -> 确认延迟分布(毫秒)
+     */
+    Map<String, LatencyHistogram.Snapshot> getPartitionLatency();
+
+    /**
+     * topic -> 确认成功的字节数
+     */
+    Map<String, Long> getTopicBytes();
+
+    /**
+     * topic -> 失败的记录数
+     */
+    Map<String, Long> getTopicErrors();
+
+    /**
+     * 异常类名 -> 失败的记录数, 用来区分超时、重试耗尽这类错误
+     */
+    Map<String, Long> getErrorTypes();
+
+    /**
+     * 清空统计, 开始新的统计周期
+     */
+    void reset();
+}
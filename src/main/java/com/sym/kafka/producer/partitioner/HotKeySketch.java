@@ -0,0 +1,85 @@
+package com.sym.kafka.producer.partitioner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 统计 key 出现频率的 count-min sketch, 固定占用 depth * width 个 int, 与 key 的数量无关.
+ * 每经过一个窗口的记录数, 所有计数减半, 频率反映的是最近的流量, 已经不热的 key 会逐渐冷却.
+ * 估计值只会偏大不会偏小, 并发更新时允许少量误差
+ *
+ * @author shenyanming
+ * @date 2021/10/6 10:20.
+ */
+class HotKeySketch {
+
+    private static final int DEPTH = 4;
+
+    private final int width;
+    private final int mask;
+    private final AtomicIntegerArray counters;
+
+    /**
+     * 衰减以后的总记录数
+     */
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * 衰减周期
+     */
+    private final int windowRecords;
+    private final AtomicInteger sinceDecay = new AtomicInteger();
+
+    /**
+     * @param width         每一行的计数器个数, 向上取整为2的幂
+     * @param windowRecords 每多少条记录衰减一次
+     */
+    HotKeySketch(int width, int windowRecords) {
+        this.width = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+        this.mask = this.width - 1;
+        this.counters = new AtomicIntegerArray(DEPTH * this.width);
+        this.windowRecords = Math.max(windowRecords, 1);
+    }
+
+    /**
+     * 记录一次出现
+     *
+     * @param hash key 的哈希值
+     * @return 这个 key 当前的频率估计
+     */
+    int add(int hash) {
+        // 用一个哈希值派生出多个哈希函数: h1 + i * h2
+        int h2 = (hash >>> 16 | hash << 16) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * width + ((hash + i * h2) & mask);
+            estimate = Math.min(estimate, counters.incrementAndGet(index));
+        }
+        total.incrementAndGet();
+        if (sinceDecay.incrementAndGet() >= windowRecords) {
+            sinceDecay.set(0);
+            decay();
+        }
+        return estimate;
+    }
+
+    /**
+     * 频率估计是否达到了总记录数的 ratio, 总记录数不足一个窗口时不判断
+     */
+    boolean isHot(int estimate, double ratio) {
+        long current = total.get();
+        return current >= windowRecords && estimate >= ratio * current;
+    }
+
+    long getTotal() {
+        return total.get();
+    }
+
+    private void decay() {
+        for (int i = 0, length = counters.length(); i < length; i++) {
+            counters.set(i, counters.get(i) >>> 1);
+        }
+        total.set(total.get() >>> 1);
+    }
+}
@@ -4,19 +4,62 @@ import com.sym.kafka.constant.KafkaConstant;
 import org.apache.kafka.clients.producer.Partitioner;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 /**
- * 自定义的分区器{@link Partitioner}
+ * 自定义的分区器{@link Partitioner}, 感知热点 key:
+ * <ul>
+ *     <li>有 key 的记录按 key 的 murmur2 哈希值对所有分区取模, 和默认分区器一致, 分区短暂不可用时 key 也不会换分区</li>
+ *     <li>没有 key 的记录在可用分区之间轮询, 没有可用分区时在所有分区之间轮询</li>
+ *     <li>用{@link HotKeySketch}统计 key 最近的出现频率, 超过{@link #HOT_RATIO_CONFIG}的 key 视为热点,
+ *     从它本来的分区开始连续的{@link #HOT_PARTITIONS_CONFIG}个分区中随机选择一个可用的分区, 把大商户的流量分摊开</li>
+ *     <li>匹配{@link #STRICT_KEYS_CONFIG}的 key 需要保证顺序, 即使是热点也不打散</li>
+ * </ul>
+ * 热点 key 被打散以后不再保证分区内有序, 下游需要能够处理乱序. 各分区的记录数和倾斜度见{@link OrderPartitionerMetricsMXBean}
  *
  * @author shenyanming
  * @date 2020/6/14 20:55.
  */
-
 public class OrderPartitioner implements Partitioner {
 
+    /**
+     * 热点 key 的判定比例, 最近的记录中有多大比例属于这个 key, 默认0.01
+     */
+    public static final String HOT_RATIO_CONFIG = "order.partitioner.hot.ratio";
+
+    /**
+     * 热点 key 打散到多少个分区, 小于等于1表示不打散, 默认4
+     */
+    public static final String HOT_PARTITIONS_CONFIG = "order.partitioner.hot.partitions";
+
+    /**
+     * 需要保证顺序的 key 的正则, 默认为空
+     */
+    public static final String STRICT_KEYS_CONFIG = "order.partitioner.strict.keys";
+
+    /**
+     * 频率统计的衰减周期(记录数), 默认10000
+     */
+    public static final String WINDOW_RECORDS_CONFIG = "order.partitioner.window.records";
+
+    private final AtomicInteger roundRobin = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+
+    private double hotRatio = 0.01;
+    private int hotPartitions = 4;
+    private Pattern strictKeys;
+    private HotKeySketch sketch = new HotKeySketch(1024, 10000);
+    private OrderPartitionerMetrics metrics = new OrderPartitionerMetrics("");
+
     public static Properties properties(){
         Properties prop = new Properties();
         prop.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, "com.sym.kafka.producer.partitioner.OrderPartitioner");
@@ -26,16 +69,72 @@ public class OrderPartitioner implements Partitioner {
     @Override
     public int partition(String topic, Object key, byte[] keyBytes, Object value,
                          byte[] valueBytes, Cluster cluster) {
-        return 0;
+        int size = cluster.partitionsForTopic(topic).size();
+        int partition;
+        if (keyBytes == null) {
+            List<PartitionInfo> partitions = cluster.availablePartitionsForTopic(topic);
+            if (partitions.isEmpty()) {
+                partitions = cluster.partitionsForTopic(topic);
+            }
+            partition = partitions.get(Utils.toPositive(roundRobin.getAndIncrement()) % partitions.size()).partition();
+        } else {
+            // 有 key 的记录按所有分区取模, 可用分区的变化不会让同一个 key 换分区
+            int hash = Utils.murmur2(keyBytes);
+            partition = Utils.toPositive(hash) % size;
+            int estimate = sketch.add(hash);
+            if (hotPartitions > 1 && sketch.isHot(estimate, hotRatio)) {
+                boolean spread = strictKeys == null || !strictKeys.matcher(String.valueOf(key)).matches();
+                if (spread) {
+                    partition = spread(topic, partition, size, cluster);
+                }
+                metrics.onHotKey(key, spread);
+            }
+        }
+        metrics.onPartition(topic, partition, size);
+        return partition;
+    }
+
+    /**
+     * 热点 key 从本来的分区开始随机选择一个可用的分区, 选中的分区不可用时留在本来的分区
+     */
+    private int spread(String topic, int partition, int size, Cluster cluster) {
+        int candidate = (partition + ThreadLocalRandom.current().nextInt(Math.min(hotPartitions, size))) % size;
+        if (candidate == partition) {
+            return partition;
+        }
+        PartitionInfo info = cluster.partition(new TopicPartition(topic, candidate));
+        return Objects.nonNull(info) && Objects.nonNull(info.leader()) ? candidate : partition;
+    }
+
+    public OrderPartitionerMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
     public void close() {
-
+        metrics.unregister();
     }
 
     @Override
     public void configure(Map<String, ?> configs) {
-
+        Object hotRatio = configs.get(HOT_RATIO_CONFIG);
+        if (Objects.nonNull(hotRatio)) {
+            this.hotRatio = Double.parseDouble(hotRatio.toString());
+        }
+        Object hotPartitions = configs.get(HOT_PARTITIONS_CONFIG);
+        if (Objects.nonNull(hotPartitions)) {
+            this.hotPartitions = Integer.parseInt(hotPartitions.toString());
+        }
+        Object strictKeys = configs.get(STRICT_KEYS_CONFIG);
+        if (Objects.nonNull(strictKeys) && !strictKeys.toString().isEmpty()) {
+            this.strictKeys = Pattern.compile(strictKeys.toString());
+        }
+        Object windowRecords = configs.get(WINDOW_RECORDS_CONFIG);
+        if (Objects.nonNull(windowRecords)) {
+            this.sketch = new HotKeySketch(1024, Integer.parseInt(windowRecords.toString()));
+        }
+        Object clientId = configs.get(ProducerConfig.CLIENT_ID_CONFIG);
+        this.metrics = new OrderPartitionerMetrics(Objects.isNull(clientId) ? KafkaConstant.CLIENT_ID : clientId.toString());
+        metrics.register();
     }
 }
@@ -0,0 +1,181 @@
+package com.sym.kafka.producer.partitioner;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link OrderPartitioner}的统计数据
+ *
+ * @author shenyanming
+ * @date 2021/10/6 11:20.
+ */
+@Slf4j
+public class OrderPartitionerMetrics implements OrderPartitionerMetricsMXBean {
+
+    /**
+     * 最多记录的热点 key 个数
+     */
+    private static final int MAX_HOT_KEYS = 64;
+    private static final long HOT_KEY_EXPIRE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final String clientId;
+
+    /**
+     * topic -> 每个分区的记录数, 分区数增加时替换成更大的数组
+     */
+    private final Map<String, AtomicLongArray> partitionRecords = new ConcurrentHashMap<>();
+
+    private final LongAdder hotKeyRecords = new LongAdder();
+    private final LongAdder spreadRecords = new LongAdder();
+    private final LongAdder strictHotKeyRecords = new LongAdder();
+
+    /**
+     * 热点 key -> 最近一次出现的时间
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    public OrderPartitionerMetrics(String clientId) {
+        this.clientId = clientId;
+    }
+
+    void onPartition(String topic, int partition, int partitionCount) {
+        AtomicLongArray records = partitionRecords.get(topic);
+        if (records == null || records.length() < partitionCount) {
+            records = partitionRecords.compute(topic, (k, old) -> {
+                if (old != null && old.length() >= partitionCount) {
+                    return old;
+                }
+                AtomicLongArray grown = new AtomicLongArray(partitionCount);
+                for (int i = 0; old != null && i < old.length(); i++) {
+                    grown.set(i, old.get(i));
+                }
+                return grown;
+            });
+        }
+        if (partition < records.length()) {
+            records.incrementAndGet(partition);
+        }
+    }
+
+    void onHotKey(Object key, boolean spread) {
+        hotKeyRecords.increment();
+        if (spread) {
+            spreadRecords.increment();
+        } else {
+            strictHotKeyRecords.increment();
+        }
+        String name = String.valueOf(key);
+        long now = System.currentTimeMillis();
+        if (hotKeys.size() >= MAX_HOT_KEYS && !hotKeys.containsKey(name)) {
+            hotKeys.values().removeIf(time -> now - time > HOT_KEY_EXPIRE_MILLIS);
+            if (hotKeys.size() >= MAX_HOT_KEYS) {
+                return;
+            }
+        }
+        hotKeys.put(name, now);
+    }
+
+    @Override
+    public String getClientId() {
+        return clientId;
+    }
+
+    @Override
+    public Map<String, long[]> getPartitionRecords() {
+        Map<String, long[]> result = new HashMap<>();
+        partitionRecords.forEach((topic, records) -> {
+            long[] values = new long[records.length()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = records.get(i);
+            }
+            result.put(topic, values);
+        });
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getSkew() {
+        Map<String, Double> result = new HashMap<>();
+        getPartitionRecords().forEach((topic, records) -> {
+            long max = 0;
+            long sum = 0;
+            for (long value : records) {
+                max = Math.max(max, value);
+                sum += value;
+            }
+            result.put(topic, sum == 0 ? 1.0 : (double) max * records.length / sum);
+        });
+        return result;
+    }
+
+    @Override
+    public long getHotKeyRecords() {
+        return hotKeyRecords.sum();
+    }
+
+    @Override
+    public long getSpreadRecords() {
+        return spreadRecords.sum();
+    }
+
+    @Override
+    public long getStrictHotKeyRecords() {
+        return strictHotKeyRecords.sum();
+    }
+
+    @Override
+    public String[] getHotKeys() {
+        long now = System.currentTimeMillis();
+        return hotKeys.entrySet().stream()
+                .filter(entry -> now - entry.getValue() <= HOT_KEY_EXPIRE_MILLIS)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public void reset() {
+        partitionRecords.clear();
+        hotKeyRecords.reset();
+        spreadRecords.reset();
+        strictHotKeyRecords.reset();
+        hotKeys.clear();
+    }
+
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.sym.kafka:type=OrderPartitioner,clientId=" + ObjectName.quote(clientId));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (Exception e) {
+            log.warn("order partitioner metrics register failure, clientId: {}, ", clientId, e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            log.warn("order partitioner metrics unregister failure, clientId: {}, ", clientId, e);
+        } finally {
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.sym.kafka.producer.partitioner;
+
+import java.util.Map;
+
+/**
+ * {@link OrderPartitioner}的 JMX 监控指标, 每个生产者一个,
+ * ObjectName 为 com.sym.kafka:type=OrderPartitioner,clientId=xxx
+ *
+ * @author shenyanming
+ * @date 2021/10/6 11:00.
+ */
+public interface OrderPartitionerMetricsMXBean {
+
+    String getClientId();
+
+    /**
+     * topic -> 每个分区的记录数, 下标即分区号
+     */
+    Map<String, long[]> getPartitionRecords();
+
+    /**
+     * topic -> 倾斜度, 即记录数最多的分区与平均值之比, 1表示完全均衡
+     */
+    Map<String, Double> getSkew();
+
+    /**
+     * 属于热点 key 的记录数
+     */
+    long getHotKeyRecords();
+
+    /**
+     * 被打散到多个分区的热点记录数
+     */
+    long getSpreadRecords();
+
+    /**
+     * 需要保证顺序而没有打散的热点记录数
+     */
+    long getStrictHotKeyRecords();
+
+    /**
+     * 最近一分钟内出现过的热点 key
+     */
+    String[] getHotKeys();
+
+    /**
+     * 清空统计
+     */
+    void reset();
+}
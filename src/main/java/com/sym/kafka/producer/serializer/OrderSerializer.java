@@ -2,21 +2,32 @@ package com.sym.kafka.producer.serializer;
 
 import com.sym.kafka.constant.KafkaConstant;
 import com.sym.kafka.domain.Order;
+import com.sym.kafka.domain.OrderFormat;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.serialization.Serializer;
 
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Properties;
 
+import static com.sym.kafka.domain.OrderFormat.*;
+
 /**
- * 自定义序列化器{@link Serializer}
+ * 自定义序列化器{@link Serializer}, 按{@link OrderFormat}写入二进制数据.
+ * 先写入线程独享的缓冲区, 最后只复制一次得到结果, 订单号是 ASCII 时逐个字符写入, 不会创建中间的字节数组
  *
  * @author shenyanming
  * @date 2020/6/14 20:54.
  */
 public class OrderSerializer implements Serializer<Order> {
 
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+
     public static Properties properties(){
         Properties prop = new Properties();
         prop.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, KafkaConstant.STRING_SERIALIZER);
@@ -31,16 +42,97 @@ public class OrderSerializer implements Serializer<Order> {
 
     @Override
     public byte[] serialize(String topic, Order data) {
-        return new byte[0];
+        if (data == null) {
+            return null;
+        }
+        String orderNo = data.getOrderNo();
+        int maxBytes = FIXED_BYTES + (orderNo == null ? 0 : orderNo.length() * 3);
+        ByteBuffer buffer = BUFFER.get();
+        if (buffer.capacity() < maxBytes) {
+            buffer = ByteBuffer.allocate(Math.max(maxBytes, buffer.capacity() * 2));
+            BUFFER.set(buffer);
+        }
+        int nulls = 0;
+        buffer.put(VERSION_OFFSET, VERSION);
+        if (data.getOrderId() == null) {
+            nulls |= NULL_ORDER_ID;
+        }
+        buffer.putLong(ORDER_ID_OFFSET, data.getOrderId() == null ? 0 : data.getOrderId());
+        if (data.getMerchantId() == null) {
+            nulls |= NULL_MERCHANT_ID;
+        }
+        buffer.putLong(MERCHANT_ID_OFFSET, data.getMerchantId() == null ? 0 : data.getMerchantId());
+        if (data.getUserId() == null) {
+            nulls |= NULL_USER_ID;
+        }
+        buffer.putLong(USER_ID_OFFSET, data.getUserId() == null ? 0 : data.getUserId());
+        if (data.getCreateTime() == null) {
+            nulls |= NULL_CREATE_TIME;
+        }
+        buffer.putLong(CREATE_TIME_OFFSET, data.getCreateTime() == null ? 0 : data.getCreateTime());
+        if (data.getStatus() == null) {
+            nulls |= NULL_STATUS;
+        }
+        buffer.putInt(STATUS_OFFSET, data.getStatus() == null ? 0 : data.getStatus());
+        BigDecimal amount = data.getAmount();
+        if (amount == null) {
+            nulls |= NULL_AMOUNT;
+            buffer.putLong(AMOUNT_UNSCALED_OFFSET, 0);
+            buffer.put(AMOUNT_SCALE_OFFSET, (byte) 0);
+        } else {
+            if (amount.scale() != (byte) amount.scale() || amount.unscaledValue().bitLength() > 63) {
+                throw new SerializationException("order amount out of range: " + amount);
+            }
+            buffer.putLong(AMOUNT_UNSCALED_OFFSET, amount.unscaledValue().longValue());
+            buffer.put(AMOUNT_SCALE_OFFSET, (byte) amount.scale());
+        }
+        int orderNoBytes = 0;
+        if (orderNo == null) {
+            nulls |= NULL_ORDER_NO;
+        } else {
+            orderNoBytes = writeOrderNo(buffer, orderNo);
+        }
+        buffer.putShort(ORDER_NO_LENGTH_OFFSET, (short) orderNoBytes);
+        buffer.put(NULLS_OFFSET, (byte) nulls);
+        return Arrays.copyOf(buffer.array(), FIXED_BYTES + orderNoBytes);
     }
 
     @Override
     public byte[] serialize(String topic, Headers headers, Order data) {
-        return new byte[0];
+        return serialize(topic, data);
     }
 
     @Override
     public void close() {
 
     }
+
+    /**
+     * 写入订单号
+     *
+     * @return 写入的字节数
+     */
+    private static int writeOrderNo(ByteBuffer buffer, String orderNo) {
+        int length = orderNo.length();
+        byte[] array = buffer.array();
+        for (int i = 0; i < length; i++) {
+            char c = orderNo.charAt(i);
+            if (c >= 0x80) {
+                // 非 ASCII 字符, 退回到标准的 UTF-8 编码
+                byte[] bytes = orderNo.getBytes(StandardCharsets.UTF_8);
+                checkLength(bytes.length);
+                System.arraycopy(bytes, 0, array, ORDER_NO_OFFSET, bytes.length);
+                return bytes.length;
+            }
+            array[ORDER_NO_OFFSET + i] = (byte) c;
+        }
+        checkLength(length);
+        return length;
+    }
+
+    private static void checkLength(int length) {
+        if (length > Short.MAX_VALUE) {
+            throw new SerializationException("order no is too long: " + length);
+        }
+    }
 }
@@ -17,4 +17,9 @@ public class JSONUtil {
         Objects.requireNonNull(object);
         return gson.toJson(object);
     }
+
+    public static <T> T fromJson(String json, Class<T> clazz){
+        Objects.requireNonNull(json);
+        return gson.fromJson(json, clazz);
+    }
 }
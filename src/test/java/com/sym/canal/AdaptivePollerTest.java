@@ -0,0 +1,59 @@
+package com.sym.canal;
+
+import com.sym.canal.config.CanalConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author shenyanming
+ * Create on 2021/07/19 22:10
+ */
+public class AdaptivePollerTest {
+
+    @Test
+    public void idleBackoff() {
+        AdaptivePoller poller = new AdaptivePoller(CanalConfig.defaultConfig());
+        Assert.assertEquals(10, poller.onEmpty());
+        Assert.assertEquals(20, poller.onEmpty());
+        for (int i = 0; i < 10; i++) {
+            poller.onEmpty();
+        }
+        Assert.assertEquals(500, poller.getIdleMillis());
+        // 拉取到数据立即重置
+        poller.onData();
+        Assert.assertEquals(0, poller.getIdleMillis());
+        Assert.assertEquals(10, poller.onEmpty());
+    }
+
+    @Test
+    public void batchSize() {
+        AdaptivePoller poller = new AdaptivePoller(CanalConfig.defaultConfig());
+        Assert.assertEquals(1000, poller.getBatchSize());
+        // 处理太慢, 每次最多减半
+        poller.onHandled(1000, 2000);
+        Assert.assertEquals(500, poller.getBatchSize());
+        poller.onHandled(500, 2000);
+        Assert.assertEquals(250, poller.getBatchSize());
+        poller.onHandled(250, 2000);
+        Assert.assertEquals(125, poller.getBatchSize());
+        poller.onHandled(125, 2000);
+        Assert.assertEquals(100, poller.getBatchSize());
+        // 处理变快, 批次拉满时才扩大
+        poller.onHandled(50, 10);
+        Assert.assertEquals(100, poller.getBatchSize());
+        poller.onHandled(100, 100);
+        Assert.assertEquals(200, poller.getBatchSize());
+    }
+
+    @Test
+    public void builderDefaults() {
+        // 不通过 defaultConfig() 创建时也不能是0, 否则暂停时会空转
+        CanalConfig config = CanalConfig.builder().destination("example").build();
+        Assert.assertEquals(1, config.getMaxInFlightBatches());
+        Assert.assertEquals(200, config.getTargetHandleMillis());
+        AdaptivePoller poller = new AdaptivePoller(config);
+        Assert.assertEquals(500, poller.getMaxIdleMillis());
+        Assert.assertEquals(10, poller.onEmpty());
+        Assert.assertEquals(1, new AdaptivePoller(config.toBuilder().maxIdleMillis(0).build()).getMaxIdleMillis());
+    }
+}
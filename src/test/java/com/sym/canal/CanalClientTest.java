@@ -0,0 +1,161 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.config.CanalConfig;
+import com.sym.canal.handler.IAsyncCanalMessageHandler;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.canal.replay.CanalRecorder;
+import com.sym.canal.replay.ReplayCanalConnector;
+import com.sym.canal.spool.CanalSpool;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static com.sym.canal.CanalEntryParserTest.entry;
+import static com.sym.canal.CanalTransactionAssemblerTest.begin;
+import static com.sym.canal.CanalTransactionAssemblerTest.end;
+
+/**
+ * 通过{@link ReplayCanalConnector}驱动客户端, 不需要 canal server
+ *
+ * @author shenyanming
+ * Create on 2021/10/10 10:30
+ */
+public class CanalClientTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void transactionAcrossBatches() throws Exception {
+        // 一个事务被拆成3个批次, 在途窗口只有1个批次
+        ReplayCanalConnector connector = replay(Arrays.asList(
+                begin(), insert("1"), insert("2"), insert("3"), insert("4"), insert("5"), end("100")));
+        List<List<ICanalMessageHandler.CanalMessage>> calls = new CopyOnWriteArrayList<>();
+        CanalClient client = new CanalClient(config("client-transaction").toBuilder().transactional(true).build(),
+                connector, IAsyncCanalMessageHandler.of(calls::add), true);
+        client.start();
+        try {
+            await(() -> connector.getAcked() == 7);
+        } finally {
+            client.stop();
+        }
+        Assert.assertEquals(1, calls.size());
+        Assert.assertEquals(5, calls.get(0).size());
+        Assert.assertEquals("100", calls.get(0).get(0).getTransactionId());
+    }
+
+    @Test
+    public void asyncAckAndRollback() throws Exception {
+        ReplayCanalConnector connector = replay(Arrays.asList(
+                insert("1"), insert("2"), insert("3"), insert("4"), insert("5"), insert("6")));
+        List<List<String>> calls = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<Void>> futures = new CopyOnWriteArrayList<>();
+        CanalClient client = new CanalClient(config("client-async").toBuilder().maxInFlightBatches(2).build(),
+                connector, messageList -> {
+            calls.add(messageList.stream().map(message -> message.getAfterRows().get(0).getString("id"))
+                    .collect(Collectors.toList()));
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            futures.add(future);
+            return future;
+        }, false);
+        client.start();
+        try {
+            // 两个批次都交给了处理器, 都还没完成, 不会提交
+            await(() -> calls.size() == 2);
+            Assert.assertEquals(0, connector.getAcked());
+            futures.get(0).complete(null);
+            await(() -> connector.getAcked() == 3);
+
+            // 第二个批次失败, 回滚以后重新投递
+            futures.get(1).completeExceptionally(new IllegalStateException("failure"));
+            await(() -> calls.size() == 3);
+            Assert.assertEquals(Arrays.asList("4", "5", "6"), calls.get(2));
+            Assert.assertEquals(3, connector.getAcked());
+            futures.get(2).complete(null);
+            await(() -> connector.getAcked() == 6);
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test
+    public void closeSpool() throws Exception {
+        ReplayCanalConnector connector = replay(Arrays.asList(insert("1"), insert("2"), insert("3"), insert("4")));
+        File spoolDir = folder.newFolder();
+        List<List<ICanalMessageHandler.CanalMessage>> calls = new CopyOnWriteArrayList<>();
+        CanalClient client = new CanalClient(config("client-spool").toBuilder().spoolDir(spoolDir.getPath()).build(),
+                connector, IAsyncCanalMessageHandler.of(calls::add), true);
+        client.start();
+        await(() -> calls.stream().mapToInt(List::size).sum() == 4);
+        client.stop();
+        await(() -> !alive("canal-client-spool"));
+
+        // 客户端线程退出时缓冲的处理线程已经退出, 检查点已经刷盘, 重新打开不会重放
+        Assert.assertFalse(alive("canal-client-spool-spool"));
+        CanalSpool spool = new CanalSpool(new File(spoolDir, "client-spool"), 64 * 1024);
+        Assert.assertNull(spool.poll(10, TimeUnit.MILLISECONDS));
+        spool.close();
+    }
+
+    @Test
+    public void lambdaHandlers() {
+        // 同步和异步处理器都可以直接传入 lambda
+        CanalClient blocking = new CanalClient(config("client-lambda"), messageList -> {
+        });
+        CanalClient async = CanalClient.async(config("client-lambda"),
+                messageList -> CompletableFuture.completedFuture(null));
+        Assert.assertEquals("NONE", blocking.getStatus());
+        Assert.assertEquals("NONE", async.getStatus());
+    }
+
+    private ReplayCanalConnector replay(List<CanalEntry.Entry> entries) throws Exception {
+        File file = folder.newFile();
+        try (CanalRecorder recorder = new CanalRecorder(file)) {
+            recorder.record(entries);
+        }
+        return ReplayCanalConnector.builder().file(file).build();
+    }
+
+    /**
+     * 每次固定拉取3条, 空闲时很快重新拉取
+     */
+    static CanalConfig config(String destination) {
+        return CanalConfig.defaultConfig().toBuilder()
+                .destination(destination)
+                .maxBatchSize(3)
+                .minBatchSize(3)
+                .targetHandleMillis(0)
+                .minIdleMillis(5)
+                .maxIdleMillis(20)
+                .build();
+    }
+
+    static CanalEntry.Entry insert(String id) {
+        return entry("test", "t_order", CanalEntry.EventType.INSERT, id, "1", "2021-10-10 10:00:00");
+    }
+
+    private static boolean alive(String threadName) {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> threadName.equals(thread.getName()));
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("condition is not satisfied in 5s");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
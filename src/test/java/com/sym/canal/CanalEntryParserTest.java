@@ -0,0 +1,181 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.dispatcher.KeyOrderedDispatcher;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.CanalTableSchema;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.canal.parser.CanalEntryParser;
+import com.sym.canal.parser.CanalSchemaRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author shenyanming
+ * Create on 2021/07/24 17:02
+ */
+public class CanalEntryParserTest {
+
+    @Test
+    public void parse() throws Exception {
+        CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.builder().exclude("test\\.t_log").build());
+        List<ICanalMessageHandler.CanalMessage> messageList = parser.parse(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "12.50", "2021-07-24 16:00:00"),
+                entry("test", "t_log", CanalEntry.EventType.INSERT, "2", "1", "2021-07-24 16:00:00")));
+        Assert.assertEquals(1, messageList.size());
+
+        ICanalMessageHandler.CanalMessage message = messageList.get(0);
+        Assert.assertEquals("t_order", message.getTableName());
+        Assert.assertEquals(ICanalMessageHandler.CanalEventType.INSERT, message.getEventType());
+        Assert.assertTrue(message.getBeforeRows().isEmpty());
+
+        CanalRow row = message.getAfterRows().get(0);
+        Assert.assertEquals(Long.valueOf(1), row.getLong("id"));
+        Assert.assertEquals(new BigDecimal("12.50"), row.getBigDecimal("amount"));
+        Assert.assertEquals(Timestamp.valueOf("2021-07-24 16:00:00"), row.getTimestamp("create_time"));
+        Assert.assertEquals("12.50", message.getRowDataAfterList().get(0).get("amount"));
+    }
+
+    @Test
+    public void shard() throws Exception {
+        CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.acceptAll());
+        KeyOrderedDispatcher dispatcher = new KeyOrderedDispatcher("test", 4);
+        List<List<ICanalMessageHandler.CanalMessage>> shards = dispatcher.shard(parser.parse(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-07-24 16:00:00"),
+                entry("test", "t_order", CanalEntry.EventType.UPDATE, "1", "2", "2021-07-24 16:00:00"))));
+        dispatcher.shutdown();
+        // 同一主键的变更落在同一个分片, 并且保持顺序
+        int count = 0;
+        for (List<ICanalMessageHandler.CanalMessage> messageList : shards) {
+            if (!messageList.isEmpty()) {
+                count++;
+                Assert.assertEquals(ICanalMessageHandler.CanalEventType.INSERT, messageList.get(0).getEventType());
+                Assert.assertEquals(ICanalMessageHandler.CanalEventType.UPDATE, messageList.get(1).getEventType());
+            }
+        }
+        Assert.assertEquals(1, count);
+    }
+
+    @Test
+    public void schemaRegistry() throws Exception {
+        CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.acceptAll());
+        CanalTableSchema first = parser.parse(Collections.singletonList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-07-24 16:00:00"))).get(0).getAfterRows().get(0).getSchema();
+        CanalTableSchema second = parser.parse(Collections.singletonList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "2", "1", "2021-07-24 16:00:00"))).get(0).getAfterRows().get(0).getSchema();
+        Assert.assertSame(first, second);
+
+        // DDL 让表结构失效
+        CanalEntry.Entry ddl = CanalEntry.Entry.newBuilder()
+                .setEntryType(CanalEntry.EntryType.ROWDATA)
+                .setHeader(CanalEntry.Header.newBuilder()
+                        .setSchemaName("test")
+                        .setTableName("t_order")
+                        .setEventType(CanalEntry.EventType.ALTER))
+                .setStoreValue(CanalEntry.RowChange.newBuilder().setIsDdl(true).build().toByteString())
+                .build();
+        Assert.assertTrue(parser.parse(Collections.singletonList(ddl)).isEmpty());
+        Assert.assertNull(parser.getSchemaRegistry().find("test", "t_order"));
+    }
+
+    @Test
+    public void projection() throws Exception {
+        CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.acceptAll(),
+                new CanalSchemaRegistry(Collections.singletonMap("test.t_order", Collections.singleton("amount"))));
+        CanalRow row = parser.parse(Collections.singletonList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "12.50", "2021-07-24 16:00:00"))).get(0).getAfterRows().get(0);
+        // 主键列总是保留
+        Assert.assertEquals(2, row.size());
+        Assert.assertEquals(Long.valueOf(1), row.getLong("id"));
+        Assert.assertEquals(new BigDecimal("12.50"), row.getBigDecimal("amount"));
+        Assert.assertNull(row.getString("create_time"));
+        Assert.assertEquals(3, row.getSchema().getSourceSize());
+    }
+
+    @Test
+    public void deltaUpdates() throws Exception {
+        CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.acceptAll(), new CanalSchemaRegistry(), true);
+        ICanalMessageHandler.CanalMessage message = parser.parse(Collections.singletonList(update("test", "t_order",
+                new String[]{"1", "1", "2021-07-24 16:00:00"}, new String[]{"1", "2", "2021-07-24 16:00:00"}))).get(0);
+        CanalRow before = message.getBeforeRows().get(0);
+        CanalRow after = message.getAfterRows().get(0);
+        Assert.assertTrue(after.isPartial());
+        Assert.assertFalse(after.isPresent(2));
+        Assert.assertEquals(new BigDecimal("1"), before.getBigDecimal("amount"));
+        Assert.assertEquals(new BigDecimal("2"), after.getBigDecimal("amount"));
+        Assert.assertEquals(2, after.asMap().size());
+        Assert.assertFalse(after.asMap().containsKey("create_time"));
+    }
+
+    /**
+     * UPDATE, 只有值发生变化的列标记为已修改
+     */
+    static CanalEntry.Entry update(String schema, String table, String[] before, String[] after) {
+        String[] names = {"id", "amount", "create_time"};
+        int[] sqlTypes = {Types.BIGINT, Types.DECIMAL, Types.TIMESTAMP};
+        CanalEntry.RowData.Builder rowData = CanalEntry.RowData.newBuilder();
+        for (int i = 0; i < names.length; i++) {
+            rowData.addBeforeColumns(column(i, names[i], sqlTypes[i], i == 0, before[i]).toBuilder().setUpdated(false));
+            rowData.addAfterColumns(column(i, names[i], sqlTypes[i], i == 0, after[i]).toBuilder()
+                    .setUpdated(!before[i].equals(after[i])));
+        }
+        return CanalEntry.Entry.newBuilder()
+                .setEntryType(CanalEntry.EntryType.ROWDATA)
+                .setHeader(CanalEntry.Header.newBuilder()
+                        .setSchemaName(schema)
+                        .setTableName(table)
+                        .setEventType(CanalEntry.EventType.UPDATE)
+                        .setExecuteTime(System.currentTimeMillis()))
+                .setStoreValue(CanalEntry.RowChange.newBuilder()
+                        .setEventType(CanalEntry.EventType.UPDATE)
+                        .addRowDatas(rowData)
+                        .build().toByteString())
+                .build();
+    }
+
+    static CanalEntry.Entry entry(String schema, String table, CanalEntry.EventType eventType, String... values) {
+        CanalEntry.RowData.Builder rowData = CanalEntry.RowData.newBuilder();
+        List<CanalEntry.Column> columnList = Arrays.asList(
+                column(0, "id", Types.BIGINT, true, values[0]),
+                column(1, "amount", Types.DECIMAL, false, values[1]),
+                column(2, "create_time", Types.TIMESTAMP, false, values[2]));
+        if (eventType != CanalEntry.EventType.INSERT) {
+            rowData.addAllBeforeColumns(columnList);
+        }
+        if (eventType != CanalEntry.EventType.DELETE) {
+            rowData.addAllAfterColumns(columnList);
+        }
+        CanalEntry.RowChange rowChange = CanalEntry.RowChange.newBuilder()
+                .setEventType(eventType)
+                .addRowDatas(rowData)
+                .build();
+        return CanalEntry.Entry.newBuilder()
+                .setEntryType(CanalEntry.EntryType.ROWDATA)
+                .setHeader(CanalEntry.Header.newBuilder()
+                        .setSchemaName(schema)
+                        .setTableName(table)
+                        .setEventType(eventType)
+                        .setExecuteTime(System.currentTimeMillis()))
+                .setStoreValue(rowChange.toByteString())
+                .build();
+    }
+
+    static CanalEntry.Column column(int index, String name, int sqlType, boolean isKey, String value) {
+        return CanalEntry.Column.newBuilder()
+                .setIndex(index)
+                .setName(name)
+                .setSqlType(sqlType)
+                .setIsKey(isKey)
+                .setUpdated(true)
+                .setValue(value)
+                .build();
+    }
+}
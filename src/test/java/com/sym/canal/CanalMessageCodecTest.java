@@ -0,0 +1,110 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.codec.CanalMessageCodec;
+import com.sym.canal.codec.CanalMessageDecoder;
+import com.sym.canal.codec.CanalMessageEncoder;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.CanalTableSchema;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.canal.parser.CanalEntryParser;
+import com.sym.canal.parser.CanalSchemaRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.sym.canal.CanalEntryParserTest.entry;
+import static com.sym.canal.CanalEntryParserTest.update;
+
+/**
+ * @author shenyanming
+ * Create on 2021/10/02 14:10
+ */
+public class CanalMessageCodecTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.acceptAll(), new CanalSchemaRegistry(), true);
+        List<ICanalMessageHandler.CanalMessage> messageList = parser.parse(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "12.50", "2021-10-02 12:00:00"),
+                update("test", "t_order", new String[]{"1", "12.50", "2021-10-02 12:00:00"},
+                        new String[]{"1", "-0.05", "2021-10-02 12:00:00"}),
+                entry("test", "t_order", CanalEntry.EventType.DELETE, "1", "-0.05", "2021-10-02 12:00:00")));
+        messageList.get(1).setTransactionId("mysql-bin.000001:4");
+        messageList.get(1).setLogfileName("mysql-bin.000001");
+        messageList.get(1).setLogfileOffset(1024);
+
+        List<ICanalMessageHandler.CanalMessage> decoded = CanalMessageCodec.decode(CanalMessageCodec.encode(messageList));
+        Assert.assertEquals(messageList.size(), decoded.size());
+        for (int i = 0; i < messageList.size(); i++) {
+            assertMessage(messageList.get(i), decoded.get(i));
+        }
+        // 增量模式下没有修改的列仍然不存在
+        CanalRow after = decoded.get(1).getAfterRows().get(0);
+        Assert.assertTrue(after.isPartial());
+        Assert.assertFalse(after.isPresent(2));
+        // 同一个流里的行共用表结构
+        Assert.assertSame(decoded.get(0).getAfterRows().get(0).getSchema(), decoded.get(2).getBeforeRows().get(0).getSchema());
+    }
+
+    @Test
+    public void irregularValues() {
+        CanalTableSchema schema = new CanalTableSchema("test", "t_value",
+                new String[]{"id", "price", "ratio", "create_time", "birthday", "remark"},
+                new int[]{Types.BIGINT, Types.DECIMAL, Types.DOUBLE, Types.TIMESTAMP, Types.DATE, Types.VARCHAR},
+                new int[]{0});
+        List<String[]> rows = Arrays.asList(
+                new String[]{"18446744073709551615", "-0.00", "1.5E10", "0000-00-00 00:00:00", "1970-01-01", "中文"},
+                new String[]{"-9", "00.1", "0.125", "2021-10-02 12:00:00.123", "1969-12-31", ""},
+                new String[]{"0", "123456789012345678901", ".5", "1969-12-31 23:59:59", "abc", null});
+        for (String[] values : rows) {
+            ICanalMessageHandler.CanalMessage message = new ICanalMessageHandler.CanalMessage();
+            message.setEventType(ICanalMessageHandler.CanalEventType.INSERT);
+            message.setSchemaName("test");
+            message.setTableName("t_value");
+            message.getAfterRows().add(new CanalRow(schema, values));
+            assertMessage(message, CanalMessageCodec.decode(CanalMessageCodec.encode(Collections.singletonList(message))).get(0));
+        }
+    }
+
+    @Test
+    public void stream() throws Exception {
+        CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.acceptAll());
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        CanalMessageEncoder encoder = new CanalMessageEncoder(stream);
+        encoder.write(parser.parse(Collections.singletonList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-10-02 12:00:00"))).get(0));
+        encoder.flush();
+        int first = stream.size();
+        encoder.write(parser.parse(Collections.singletonList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "2", "1", "2021-10-02 12:00:00"))).get(0));
+        encoder.close();
+        // 表结构和字符串只写一次, 第二条消息比第一条小得多
+        Assert.assertTrue(stream.size() - first < first / 2);
+
+        CanalMessageDecoder decoder = new CanalMessageDecoder(new ByteArrayInputStream(stream.toByteArray()));
+        Assert.assertEquals(Long.valueOf(1), decoder.read().getAfterRows().get(0).getLong("id"));
+        Assert.assertEquals(Long.valueOf(2), decoder.read().getAfterRows().get(0).getLong("id"));
+        Assert.assertNull(decoder.read());
+        decoder.close();
+    }
+
+    private static void assertMessage(ICanalMessageHandler.CanalMessage expected, ICanalMessageHandler.CanalMessage actual) {
+        Assert.assertEquals(expected.getEventType(), actual.getEventType());
+        Assert.assertEquals(expected.getSchemaName(), actual.getSchemaName());
+        Assert.assertEquals(expected.getTableName(), actual.getTableName());
+        Assert.assertEquals(expected.getTransactionId(), actual.getTransactionId());
+        Assert.assertEquals(expected.getExecuteTime(), actual.getExecuteTime());
+        Assert.assertEquals(expected.getLogfileName(), actual.getLogfileName());
+        Assert.assertEquals(expected.getLogfileOffset(), actual.getLogfileOffset());
+        Assert.assertEquals(expected.getRowDataBeforeList(), actual.getRowDataBeforeList());
+        Assert.assertEquals(expected.getRowDataAfterList(), actual.getRowDataAfterList());
+    }
+}
@@ -0,0 +1,36 @@
+package com.sym.canal;
+
+import com.sym.canal.config.CanalConfig;
+import com.sym.canal.metrics.CanalMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+
+/**
+ * @author shenyanming
+ * Create on 2021/08/21 15:30
+ */
+public class CanalMetricsTest {
+
+    @Test
+    public void jmx() throws Exception {
+        CanalMetrics metrics = new CanalMetrics("test", new AdaptivePoller(CanalConfig.defaultConfig()));
+        metrics.onFetched(10);
+        metrics.onHandled(System.currentTimeMillis() - 100, 2_000_000);
+        metrics.register();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.sym.canal:type=CanalMetrics,destination=" + ObjectName.quote("test"));
+            Assert.assertEquals(1L, server.getAttribute(name, "Batches"));
+            CompositeData handle = (CompositeData) server.getAttribute(name, "HandleMicros");
+            Assert.assertEquals(1L, handle.get("count"));
+            Assert.assertTrue((Long) server.getAttribute(name, "LagMillis") >= 100);
+        } finally {
+            metrics.unregister();
+        }
+    }
+}
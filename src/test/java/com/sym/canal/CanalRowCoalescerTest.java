@@ -0,0 +1,81 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.coalescer.CanalRowCoalescer;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.canal.parser.CanalEntryParser;
+import com.sym.canal.parser.CanalSchemaRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.sym.canal.CanalEntryParserTest.entry;
+import static com.sym.canal.CanalEntryParserTest.update;
+
+/**
+ * @author shenyanming
+ * Create on 2021/08/01 14:05
+ */
+public class CanalRowCoalescerTest {
+
+    private final CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.acceptAll());
+
+    @Test
+    public void insertThenUpdate() throws Exception {
+        List<ICanalMessageHandler.CanalMessage> messageList = CanalRowCoalescer.coalesce(parser.parse(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-08-01 12:00:00"),
+                entry("test", "t_order", CanalEntry.EventType.UPDATE, "1", "2", "2021-08-01 12:00:00"),
+                entry("test", "t_order", CanalEntry.EventType.UPDATE, "1", "3", "2021-08-01 12:00:00"))));
+        Assert.assertEquals(1, messageList.size());
+        ICanalMessageHandler.CanalMessage message = messageList.get(0);
+        Assert.assertEquals(ICanalMessageHandler.CanalEventType.INSERT, message.getEventType());
+        Assert.assertEquals(1, message.getAfterRows().size());
+        Assert.assertEquals(new BigDecimal("3"), message.getAfterRows().get(0).getBigDecimal("amount"));
+    }
+
+    @Test
+    public void deltaUpdates() throws Exception {
+        CanalEntryParser deltaParser = new CanalEntryParser(CanalEntryFilter.acceptAll(), new CanalSchemaRegistry(), true);
+        List<ICanalMessageHandler.CanalMessage> messageList = CanalRowCoalescer.coalesce(deltaParser.parse(Arrays.asList(
+                update("test", "t_order", new String[]{"1", "1", "2021-08-01 12:00:00"}, new String[]{"1", "2", "2021-08-01 12:00:00"}),
+                update("test", "t_order", new String[]{"1", "2", "2021-08-01 12:00:00"}, new String[]{"1", "2", "2021-08-01 13:00:00"}))));
+        Assert.assertEquals(1, messageList.size());
+        // 两次修改的列都保留, 修改前取最初的值
+        CanalRow before = messageList.get(0).getBeforeRows().get(0);
+        CanalRow after = messageList.get(0).getAfterRows().get(0);
+        Assert.assertEquals(new BigDecimal("1"), before.getBigDecimal("amount"));
+        Assert.assertEquals("2021-08-01 12:00:00", before.getString("create_time"));
+        Assert.assertEquals(new BigDecimal("2"), after.getBigDecimal("amount"));
+        Assert.assertEquals("2021-08-01 13:00:00", after.getString("create_time"));
+    }
+
+    @Test
+    public void insertThenDelete() throws Exception {
+        List<ICanalMessageHandler.CanalMessage> messageList = CanalRowCoalescer.coalesce(parser.parse(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-08-01 12:00:00"),
+                entry("test", "t_order", CanalEntry.EventType.DELETE, "1", "1", "2021-08-01 12:00:00"),
+                entry("test", "t_order", CanalEntry.EventType.DELETE, "2", "1", "2021-08-01 12:00:00"))));
+        // 主键1 的插入和删除抵消, 只剩下主键2 的删除
+        Assert.assertEquals(1, messageList.size());
+        Assert.assertEquals(ICanalMessageHandler.CanalEventType.DELETE, messageList.get(0).getEventType());
+        Assert.assertEquals(Long.valueOf(2), messageList.get(0).getBeforeRows().get(0).getLong("id"));
+    }
+
+    @Test
+    public void keepOrderAcrossKeys() throws Exception {
+        List<ICanalMessageHandler.CanalMessage> messageList = CanalRowCoalescer.coalesce(parser.parse(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.DELETE, "1", "1", "2021-08-01 12:00:00"),
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "2", "1", "2021-08-01 12:00:00"),
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "5", "2021-08-01 12:00:00"))));
+        // 主键1 先删后插合并成更新, 位置保持在第一次出现的地方
+        Assert.assertEquals(2, messageList.size());
+        Assert.assertEquals(ICanalMessageHandler.CanalEventType.UPDATE, messageList.get(0).getEventType());
+        Assert.assertEquals(new BigDecimal("5"), messageList.get(0).getAfterRows().get(0).getBigDecimal("amount"));
+        Assert.assertEquals(ICanalMessageHandler.CanalEventType.INSERT, messageList.get(1).getEventType());
+    }
+}
@@ -0,0 +1,96 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.spool.CanalSpool;
+import com.sym.canal.spool.SpoolRecord;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author shenyanming
+ * Create on 2021/07/28 20:45
+ */
+public class CanalSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendAndReplay() throws Exception {
+        File dir = folder.newFolder("spool");
+        // 分段设置得很小, 让它频繁切换分段
+        CanalSpool spool = new CanalSpool(dir, 512);
+        for (int i = 1; i <= 10; i++) {
+            spool.append(i, Collections.singletonList(CanalEntryParserTest.entry("test", "t_order",
+                    CanalEntry.EventType.INSERT, String.valueOf(i), "1", "2021-07-28 20:00:00")));
+        }
+        // 刷盘以前读不到
+        Assert.assertNull(spool.poll(10, TimeUnit.MILLISECONDS));
+        spool.force();
+        for (int i = 1; i <= 4; i++) {
+            SpoolRecord record = spool.poll(10, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(i, record.getBatchId());
+            Assert.assertEquals("t_order", record.getEntries().get(0).getHeader().getTableName());
+            spool.commit(record);
+        }
+        // 没有提交的批次重启以后会重放
+        Assert.assertEquals(5, spool.poll(10, TimeUnit.MILLISECONDS).getBatchId());
+        spool.close();
+
+        spool = new CanalSpool(dir, 512);
+        for (int i = 5; i <= 10; i++) {
+            SpoolRecord record = spool.poll(10, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(i, record.getBatchId());
+            spool.commit(record);
+        }
+        Assert.assertNull(spool.poll(10, TimeUnit.MILLISECONDS));
+        // 继续追加
+        spool.append(11, Collections.emptyList());
+        spool.force();
+        Assert.assertEquals(11, spool.poll(10, TimeUnit.MILLISECONDS).getBatchId());
+        spool.close();
+    }
+
+    @Test
+    public void discardUncommitted() throws Exception {
+        File dir = folder.newFolder("spool");
+        CanalSpool spool = new CanalSpool(dir, 512);
+        append(spool, 1, 2);
+        spool.force();
+        // 追加以后回滚, 中间切换过分段
+        append(spool, 3, 10);
+        Assert.assertTrue(dir.listFiles((d, name) -> name.endsWith(".spool")).length > 1);
+        spool.discardUncommitted();
+        Assert.assertEquals(1, dir.listFiles((d, name) -> name.endsWith(".spool")).length);
+        // canal server 重新投递的批次
+        append(spool, 3, 4);
+        spool.force();
+        for (int i = 1; i <= 4; i++) {
+            SpoolRecord record = spool.poll(10, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(i, record.getBatchId());
+            spool.commit(record);
+        }
+        Assert.assertNull(spool.poll(10, TimeUnit.MILLISECONDS));
+
+        // 丢弃的数据重启以后也读不到
+        append(spool, 5, 6);
+        spool.discardUncommitted();
+        spool.close();
+        spool = new CanalSpool(dir, 512);
+        Assert.assertNull(spool.poll(10, TimeUnit.MILLISECONDS));
+        spool.close();
+    }
+
+    private static void append(CanalSpool spool, int from, int to) throws Exception {
+        for (int i = from; i <= to; i++) {
+            spool.append(i, Collections.singletonList(CanalEntryParserTest.entry("test", "t_order",
+                    CanalEntry.EventType.INSERT, String.valueOf(i), "1", "2021-07-28 20:00:00")));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.parser.CanalTransaction;
+import com.sym.canal.parser.CanalTransactionAssembler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.sym.canal.CanalEntryParserTest.entry;
+
+/**
+ * @author shenyanming
+ * Create on 2021/08/07 15:40
+ */
+public class CanalTransactionAssemblerTest {
+
+    @Test
+    public void acrossBatches() throws Exception {
+        CanalTransactionAssembler assembler = new CanalTransactionAssembler();
+        List<CanalEntry.Entry> first = Arrays.asList(
+                begin(),
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-08-07 12:00:00"),
+                end("100"),
+                begin(),
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "2", "1", "2021-08-07 12:00:00"));
+        List<CanalTransaction> transactionList = assembler.append(first);
+        Assert.assertEquals(1, transactionList.size());
+        Assert.assertEquals("100", transactionList.get(0).getTransactionId());
+        Assert.assertEquals(1, transactionList.get(0).getEntries().size());
+        Assert.assertTrue(assembler.isOpen());
+        Assert.assertEquals(3, CanalTransactionAssembler.boundary(first));
+
+        // 第二个事务在下一批次结束
+        transactionList = assembler.append(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.UPDATE, "2", "3", "2021-08-07 12:00:00"),
+                end("101")));
+        Assert.assertEquals(1, transactionList.size());
+        Assert.assertEquals("101", transactionList.get(0).getTransactionId());
+        Assert.assertEquals(2, transactionList.get(0).getEntries().size());
+        Assert.assertFalse(assembler.isOpen());
+    }
+
+    @Test
+    public void reset() throws Exception {
+        CanalTransactionAssembler assembler = new CanalTransactionAssembler();
+        assembler.append(Arrays.asList(begin(),
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-08-07 12:00:00")));
+        assembler.reset();
+        Assert.assertFalse(assembler.isOpen());
+        Assert.assertTrue(assembler.append(Collections.singletonList(begin())).isEmpty());
+        Assert.assertEquals(0, CanalTransactionAssembler.boundary(Collections.singletonList(begin())));
+    }
+
+    static CanalEntry.Entry begin() {
+        return CanalEntry.Entry.newBuilder()
+                .setEntryType(CanalEntry.EntryType.TRANSACTIONBEGIN)
+                .setHeader(CanalEntry.Header.newBuilder().setLogfileName("mysql-bin.000001").setLogfileOffset(4))
+                .setStoreValue(CanalEntry.TransactionBegin.newBuilder().build().toByteString())
+                .build();
+    }
+
+    static CanalEntry.Entry end(String transactionId) {
+        return CanalEntry.Entry.newBuilder()
+                .setEntryType(CanalEntry.EntryType.TRANSACTIONEND)
+                .setHeader(CanalEntry.Header.newBuilder().setExecuteTime(System.currentTimeMillis()))
+                .setStoreValue(CanalEntry.TransactionEnd.newBuilder().setTransactionId(transactionId).build().toByteString())
+                .build();
+    }
+}
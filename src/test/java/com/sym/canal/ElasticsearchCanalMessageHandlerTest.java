@@ -0,0 +1,180 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.ElasticsearchCanalMessageHandler;
+import com.sym.canal.parser.CanalEntryParser;
+import com.sym.canal.parser.CanalSchemaRegistry;
+import io.searchbox.action.Action;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.sym.canal.CanalEntryParserTest.entry;
+import static com.sym.canal.CanalEntryParserTest.update;
+
+/**
+ * @author shenyanming
+ * Create on 2021/09/11 16:10
+ */
+public class ElasticsearchCanalMessageHandlerTest {
+
+    private final CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.acceptAll());
+
+    @Test
+    public void retryFailedItems() throws Exception {
+        FakeJestClient client = new FakeJestClient(
+                "{\"items\":[{\"index\":{\"_index\":\"test_t_order\",\"_type\":\"_doc\",\"_id\":\"1\",\"status\":201}},"
+                        + "{\"index\":{\"_index\":\"test_t_order\",\"_type\":\"_doc\",\"_id\":\"2\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\"}}},"
+                        + "{\"delete\":{\"_index\":\"test_t_order\",\"_type\":\"_doc\",\"_id\":\"3\",\"status\":409,\"error\":{\"type\":\"version_conflict_engine_exception\"}}}]}",
+                "{\"items\":[{\"index\":{\"_index\":\"test_t_order\",\"_type\":\"_doc\",\"_id\":\"2\",\"status\":201}}]}");
+        ElasticsearchCanalMessageHandler handler = ElasticsearchCanalMessageHandler.builder()
+                .client(client).bulkActions(3).maxRetries(2).build();
+        CompletableFuture<Void> future = handler.resolve(parser.parse(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-09-11 12:00:00"),
+                entry("test", "t_order", CanalEntry.EventType.UPDATE, "2", "1", "2021-09-11 12:00:00"),
+                entry("test", "t_order", CanalEntry.EventType.DELETE, "3", "1", "2021-09-11 12:00:00"))))
+                .toCompletableFuture();
+        future.get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(2, client.requests.size());
+        Assert.assertTrue(client.requests.get(0).contains("\"delete\""));
+        // 第二次只重试失败的条目
+        Assert.assertEquals(2, client.requests.get(1).split("\n").length);
+        Assert.assertTrue(client.requests.get(1).contains("\"_id\":\"2\""));
+        handler.close();
+    }
+
+    @Test
+    public void flushByTime() throws Exception {
+        FakeJestClient client = new FakeJestClient(
+                "{\"items\":[{\"index\":{\"_index\":\"test_t_order\",\"_type\":\"_doc\",\"_id\":\"1\",\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\"}}}]}");
+        ElasticsearchCanalMessageHandler handler = ElasticsearchCanalMessageHandler.builder()
+                .client(client).bulkActions(100).flushMillis(50).maxRetries(2).build();
+        CompletableFuture<Void> future = handler.resolve(parser.parse(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-09-11 12:00:00"))))
+                .toCompletableFuture();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (Exception e) {
+            // 不可重试的错误直接失败
+            Assert.assertEquals(1, client.requests.size());
+        }
+        handler.close();
+    }
+
+    @Test
+    public void partialUpdate() throws Exception {
+        FakeJestClient client = new FakeJestClient(
+                "{\"items\":[{\"update\":{\"_index\":\"test_t_order\",\"_type\":\"_doc\",\"_id\":\"1\",\"status\":200}},"
+                        + "{\"index\":{\"_index\":\"test_t_order\",\"_type\":\"_doc\",\"_id\":\"2\",\"status\":200}}]}");
+        ElasticsearchCanalMessageHandler handler = ElasticsearchCanalMessageHandler.builder()
+                .client(client).bulkActions(2).build();
+        CanalEntryParser deltaParser = new CanalEntryParser(CanalEntryFilter.acceptAll(), new CanalSchemaRegistry(), true);
+        CanalEntry.Entry partial = update("test", "t_order",
+                new String[]{"1", "1", "2021-09-11 12:00:00"}, new String[]{"1", "2", "2021-09-11 12:00:00"});
+        partial = partial.toBuilder().setHeader(partial.getHeader().toBuilder()
+                .setLogfileName("mysql-bin.000002").setLogfileOffset(100)).build();
+        handler.resolve(deltaParser.parse(Arrays.asList(
+                partial,
+                update("test", "t_order", new String[]{"2", "1", "2021-09-11 12:00:00"}, new String[]{"2", "2", "2021-09-11 13:00:00"}))))
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1, client.requests.size());
+        String[] lines = client.requests.get(0).split("\n");
+        Assert.assertEquals(4, lines.length);
+        // 只修改了部分列的行转成局部 update, 不包含没有修改的列
+        Assert.assertTrue(lines[0].contains("\"update\"") && lines[0].contains("\"_id\":\"1\""));
+        Assert.assertFalse(lines[0].contains("version"));
+        // 用脚本比较文档中保存的版本号, 重复投递的旧数据不会覆盖新数据
+        Assert.assertTrue(lines[1].startsWith("{\"script\":{"));
+        Assert.assertTrue(lines[1].contains("\"doc\":{\"id\":\"1\",\"amount\":\"2\"}"));
+        Assert.assertTrue(lines[1].contains("\"version\":" + ((2L << 32) | 100)));
+        Assert.assertFalse(lines[1].contains("create_time"));
+        // 所有列都修改了的行仍然是完整的 index
+        Assert.assertTrue(lines[2].contains("\"index\"") && lines[2].contains("\"_id\":\"2\""));
+        Assert.assertTrue(lines[3].contains("create_time"));
+        handler.close();
+    }
+
+    @Test
+    public void keyChange() throws Exception {
+        FakeJestClient client = new FakeJestClient(
+                "{\"items\":[{\"delete\":{\"_index\":\"test_t_order\",\"_type\":\"_doc\",\"_id\":\"1\",\"status\":200}},"
+                        + "{\"index\":{\"_index\":\"test_t_order\",\"_type\":\"_doc\",\"_id\":\"9\",\"status\":201}}]}");
+        ElasticsearchCanalMessageHandler handler = ElasticsearchCanalMessageHandler.builder()
+                .client(client).bulkActions(2).build();
+        CanalEntry.Entry entry = update("test", "t_order",
+                new String[]{"1", "1", "2021-09-11 12:00:00"}, new String[]{"9", "1", "2021-09-11 12:00:00"});
+        entry = entry.toBuilder().setHeader(entry.getHeader().toBuilder()
+                .setLogfileName("mysql-bin.000002").setLogfileOffset(100)).build();
+        handler.resolve(parser.parse(Collections.singletonList(entry))).toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        // 先按外部版本号删除旧主键的文档, 再写入新主键的文档
+        String[] lines = client.requests.get(0).split("\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertTrue(lines[0].contains("\"delete\"") && lines[0].contains("\"_id\":\"1\""));
+        long version = (2L << 32) | 100;
+        Assert.assertTrue(lines[0].contains(String.valueOf(version)) && lines[0].contains("external"));
+        Assert.assertTrue(lines[1].contains("\"index\"") && lines[1].contains("\"_id\":\"9\""));
+        // 完整的文档也保存版本号, 供之后的局部 update 比较
+        Assert.assertTrue(lines[2].contains("\"" + ElasticsearchCanalMessageHandler.VERSION_FIELD + "\":" + version));
+        handler.close();
+    }
+
+    /**
+     * 按顺序返回预先设置好的 bulk 结果
+     */
+    private static class FakeJestClient implements JestClient {
+        private final Queue<String> responses;
+        private final List<String> requests = new ArrayList<>();
+
+        FakeJestClient(String... responses) {
+            this.responses = new LinkedList<>(Arrays.asList(responses));
+        }
+
+        @Override
+        public <T extends JestResult> T execute(Action<T> action) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends JestResult> void executeAsync(Action<T> action, JestResultHandler<? super T> handler) {
+            requests.add(((Bulk) action).getData(new Gson()));
+            BulkResult result = new BulkResult(new Gson());
+            result.setJsonObject(new JsonParser().parse(responses.poll()).getAsJsonObject());
+            result.setSucceeded(true);
+            ((JestResultHandler<BulkResult>) handler).completed(result);
+        }
+
+        @Override
+        public void shutdownClient() {
+        }
+
+        @Override
+        public void setServers(Set<String> servers) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
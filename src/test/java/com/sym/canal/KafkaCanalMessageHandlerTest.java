@@ -0,0 +1,101 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.canal.handler.KafkaCanalMessageHandler;
+import com.sym.canal.parser.CanalEntryParser;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import static com.sym.canal.CanalEntryParserTest.entry;
+import static com.sym.canal.CanalEntryParserTest.update;
+
+/**
+ * @author shenyanming
+ * Create on 2021/09/04 15:20
+ */
+public class KafkaCanalMessageHandlerTest {
+
+    private final CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.acceptAll());
+
+    @Test
+    public void completeAfterCallbacks() throws Exception {
+        MockProducer<String, String> producer = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+        List<ICanalMessageHandler.CanalMessage> messageList = parser.parse(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-09-04 12:00:00"),
+                entry("test", "t_order", CanalEntry.EventType.DELETE, "2", "1", "2021-09-04 12:00:00")));
+        CompletableFuture<Void> future = KafkaCanalMessageHandler.perTable(producer, "cdc.")
+                .resolve(messageList).toCompletableFuture();
+
+        List<ProducerRecord<String, String>> history = producer.history();
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals("cdc.test.t_order", history.get(0).topic());
+        Assert.assertEquals("1", history.get(0).key());
+        Assert.assertEquals("2", history.get(1).key());
+        Assert.assertTrue(history.get(1).value().contains("\"after\":null"));
+
+        // 所有回调都成功才算完成
+        Assert.assertTrue(producer.completeNext());
+        Assert.assertFalse(future.isDone());
+        Assert.assertTrue(producer.completeNext());
+        Assert.assertTrue(future.isDone());
+        Assert.assertFalse(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void failOnError() throws Exception {
+        MockProducer<String, String> producer = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+        CompletableFuture<Void> future = KafkaCanalMessageHandler.singleTopic(producer, "cdc")
+                .resolve(parser.parse(Arrays.asList(
+                        entry("test", "t_order", CanalEntry.EventType.INSERT, "1", "1", "2021-09-04 12:00:00"),
+                        entry("test", "t_order", CanalEntry.EventType.INSERT, "2", "1", "2021-09-04 12:00:00"))))
+                .toCompletableFuture();
+        Assert.assertEquals("test.t_order:1", producer.history().get(0).key());
+        Assert.assertEquals("INSERT", new String(producer.history().get(0).headers().lastHeader("type").value()));
+
+        Assert.assertTrue(producer.errorNext(new RuntimeException("broker down")));
+        Assert.assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void keyChange() throws Exception {
+        MockProducer<String, String> producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        CompletableFuture<Void> future = KafkaCanalMessageHandler.perTable(producer, "cdc.")
+                .resolve(parser.parse(Arrays.asList(
+                        update("test", "t_order", new String[]{"1", "1", "2021-09-04 12:00:00"},
+                                new String[]{"9", "1", "2021-09-04 12:00:00"}))))
+                .toCompletableFuture();
+        Assert.assertTrue(future.isDone());
+        Assert.assertFalse(future.isCompletedExceptionally());
+
+        // 旧主键先收到一条 DELETE, 新主键再收到 UPDATE
+        List<ProducerRecord<String, String>> history = producer.history();
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals("1", history.get(0).key());
+        Assert.assertTrue(history.get(0).value().contains("\"type\":\"DELETE\""));
+        Assert.assertTrue(history.get(0).value().contains("\"after\":null"));
+        Assert.assertEquals("9", history.get(1).key());
+        Assert.assertTrue(history.get(1).value().contains("\"type\":\"UPDATE\""));
+    }
+
+    @Test
+    public void properties() {
+        Properties prop = KafkaCanalMessageHandler.properties();
+        // 完整的 producer 配置, 不需要再合并序列化器这些基础配置
+        Assert.assertNotNull(prop.get(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG));
+        Assert.assertNotNull(prop.get(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG));
+        Assert.assertNotNull(prop.get(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG));
+        Assert.assertEquals("all", prop.get(ProducerConfig.ACKS_CONFIG));
+        Assert.assertEquals("true", prop.get(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG));
+    }
+}
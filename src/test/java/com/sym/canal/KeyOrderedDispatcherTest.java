@@ -0,0 +1,181 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.config.CanalConfig;
+import com.sym.canal.dispatcher.KeyOrderedDispatcher;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.IAsyncCanalMessageHandler;
+import com.sym.canal.handler.ICanalMessageHandler;
+import com.sym.canal.parser.CanalEntryParser;
+import com.sym.canal.replay.CanalRecorder;
+import com.sym.canal.replay.ReplayCanalConnector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.sym.canal.CanalClientTest.await;
+import static com.sym.canal.CanalClientTest.config;
+import static com.sym.canal.CanalClientTest.insert;
+import static com.sym.canal.CanalEntryParserTest.entry;
+import static com.sym.canal.CanalEntryParserTest.update;
+
+/**
+ * @author shenyanming
+ * Create on 2021/10/12 20:10
+ */
+public class KeyOrderedDispatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CanalEntryParser parser = new CanalEntryParser(CanalEntryFilter.acceptAll());
+    private final KeyOrderedDispatcher dispatcher = new KeyOrderedDispatcher("test", 4);
+
+    @After
+    public void close() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void perKeyOrder() throws Exception {
+        // 20个主键, 每个主键依次修改 amount, 分片的处理速度不一样
+        List<CanalEntry.Entry> entries = new ArrayList<>();
+        for (int amount = 1; amount <= 10; amount++) {
+            for (int id = 1; id <= 20; id++) {
+                entries.add(entry("test", "t_order", CanalEntry.EventType.UPDATE,
+                        String.valueOf(id), String.valueOf(amount), "2021-10-12 20:00:00"));
+            }
+        }
+        Map<String, List<Integer>> amounts = new ConcurrentHashMap<>();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        IAsyncCanalMessageHandler handler = IAsyncCanalMessageHandler.of(messageList -> {
+            threads.add(Thread.currentThread().getName());
+            sleep(ThreadLocalRandom.current().nextInt(3));
+            for (ICanalMessageHandler.CanalMessage message : messageList) {
+                message.getAfterRows().forEach(row -> amounts.computeIfAbsent(row.getString("id"),
+                        k -> new CopyOnWriteArrayList<>()).add(row.getBigDecimal("amount").intValue()));
+            }
+        });
+        List<ICanalMessageHandler.CanalMessage> messageList = parser.parse(entries);
+        for (int i = 0; i < messageList.size(); i += 20) {
+            dispatcher.dispatch(messageList.subList(i, i + 20), handler);
+        }
+        dispatcher.dispatch(Collections.emptyList(), handler).get(5, TimeUnit.SECONDS);
+        await(() -> amounts.values().stream().mapToInt(List::size).sum() == 200);
+
+        Assert.assertTrue(threads.size() > 1);
+        List<Integer> expected = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        for (int id = 1; id <= 20; id++) {
+            Assert.assertEquals(expected, amounts.get(String.valueOf(id)));
+        }
+    }
+
+    @Test
+    public void keyChangeAcrossShards() throws Exception {
+        // 找两个落在不同分片上的主键
+        String oldKey = "1";
+        String newKey = "2";
+        while (shardOf(newKey) == shardOf(oldKey)) {
+            newKey = String.valueOf(Integer.parseInt(newKey) + 1);
+        }
+        List<String> handled = new CopyOnWriteArrayList<>();
+        IAsyncCanalMessageHandler handler = IAsyncCanalMessageHandler.of(messageList -> {
+            for (ICanalMessageHandler.CanalMessage message : messageList) {
+                if (message.getEventType() == ICanalMessageHandler.CanalEventType.INSERT) {
+                    // 旧主键所在的分片比较慢
+                    sleep(100);
+                }
+                for (int i = 0; i < message.getAfterRows().size(); i++) {
+                    handled.add(message.getEventType() + ":" + message.getAfterRows().get(i).getString("id"));
+                }
+            }
+        });
+        dispatcher.dispatch(parser.parse(Arrays.asList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, oldKey, "1", "2021-10-12 20:00:00"),
+                update("test", "t_order", new String[]{oldKey, "1", "2021-10-12 20:00:00"},
+                        new String[]{newKey, "1", "2021-10-12 20:00:00"}),
+                entry("test", "t_order", CanalEntry.EventType.INSERT, oldKey, "2", "2021-10-12 20:00:00"))), handler)
+                .get(5, TimeUnit.SECONDS);
+
+        // 修改主键的 UPDATE 和新旧两个主键的变更都不乱序
+        Assert.assertEquals(Arrays.asList("INSERT:" + oldKey, "UPDATE:" + newKey, "INSERT:" + oldKey), handled);
+    }
+
+    @Test
+    public void ackAfterAllShards() throws Exception {
+        File file = folder.newFile();
+        try (CanalRecorder recorder = new CanalRecorder(file)) {
+            recorder.record(Arrays.asList(insert("1"), insert("2"), insert("3")));
+        }
+        ReplayCanalConnector connector = ReplayCanalConnector.builder().file(file).build();
+        // 和主键1落在同一个分片上的行都会阻塞
+        Set<String> blockedIds = ConcurrentHashMap.newKeySet();
+        for (String id : Arrays.asList("1", "2", "3")) {
+            if (shardOf(id) == shardOf("1")) {
+                blockedIds.add(id);
+            }
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        Set<String> handled = ConcurrentHashMap.newKeySet();
+        CanalConfig config = config("dispatcher-ack").toBuilder().parallelism(4).build();
+        CanalClient client = new CanalClient(config, connector, IAsyncCanalMessageHandler.of(messageList -> {
+            boolean blocked = messageList.stream().anyMatch(message -> message.getAfterRows().stream()
+                    .anyMatch(row -> blockedIds.contains(row.getString("id"))));
+            if (blocked) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            messageList.forEach(message -> message.getAfterRows().forEach(row -> handled.add(row.getString("id"))));
+        }), true);
+        client.start();
+        try {
+            // 其它分片都处理完了, 还有一个分片没有完成, 批次不会提交
+            await(() -> handled.size() == 3 - blockedIds.size());
+            Thread.sleep(100);
+            Assert.assertEquals(0, connector.getAcked());
+            latch.countDown();
+            await(() -> connector.getAcked() == 3);
+            Assert.assertEquals(3, handled.size());
+        } finally {
+            latch.countDown();
+            client.stop();
+        }
+    }
+
+    private int shardOf(String id) throws Exception {
+        List<List<ICanalMessageHandler.CanalMessage>> shards = dispatcher.shard(parser.parse(Collections.singletonList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, id, "1", "2021-10-12 20:00:00"))));
+        for (int i = 0; i < shards.size(); i++) {
+            if (!shards.get(i).isEmpty()) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("no shard for " + id);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.sym.canal.filter.CanalEntryFilter;
+import com.sym.canal.handler.CanalRow;
+import com.sym.canal.handler.RedisCacheRule;
+import com.sym.canal.parser.CanalEntryParser;
+import com.sym.canal.parser.CanalSchemaRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static com.sym.canal.CanalEntryParserTest.entry;
+import static com.sym.canal.CanalEntryParserTest.update;
+
+/**
+ * @author shenyanming
+ * Create on 2021/09/18 15:00
+ */
+public class RedisCacheRuleTest {
+
+    @Test
+    public void key() throws Exception {
+        CanalRow row = new CanalEntryParser(CanalEntryFilter.acceptAll()).parse(Collections.singletonList(
+                entry("test", "t_order", CanalEntry.EventType.INSERT, "7", "12.50", "2021-09-18 12:00:00")))
+                .get(0).getAfterRows().get(0);
+        Assert.assertEquals("order:7", RedisCacheRule.invalidate("test.t_order", "order:{id}").key(row));
+        Assert.assertEquals("order:7:12.50:detail",
+                RedisCacheRule.refresh("test.t_order", "order:{id}:{amount}:detail", 60).key(row));
+        // 引用的列不存在
+        Assert.assertNull(RedisCacheRule.invalidate("test.t_order", "order:{no}").key(row));
+    }
+
+    @Test
+    public void keyOfPartialRow() throws Exception {
+        RedisCacheRule rule = RedisCacheRule.refresh("test.t_order", "order:{id}:{create_time}", 60);
+        CanalEntry.Entry entry = update("test", "t_order",
+                new String[]{"7", "1", "2021-09-18 12:00:00"}, new String[]{"7", "2", "2021-09-18 12:00:00"});
+        // create_time 没有修改, 增量模式下不在行数据中
+        CanalRow partial = new CanalEntryParser(CanalEntryFilter.acceptAll(), new CanalSchemaRegistry(), true)
+                .parse(Collections.singletonList(entry)).get(0).getAfterRows().get(0);
+        try {
+            rule.key(partial);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // 算不出 key 时不能静默跳过
+        }
+
+        // 配置成保留列以后总是存在, 这里所有的列都存在, 不再是局部数据
+        Map<String, Set<String>> retained = Collections.singletonMap(rule.getTable(), rule.getColumns());
+        CanalRow row = new CanalEntryParser(CanalEntryFilter.acceptAll(), new CanalSchemaRegistry(null, retained), true)
+                .parse(Collections.singletonList(entry)).get(0).getAfterRows().get(0);
+        Assert.assertEquals("order:7:2021-09-18 12:00:00", rule.key(row));
+    }
+}
@@ -0,0 +1,105 @@
+package com.sym.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.Message;
+import com.sym.canal.replay.CanalRecorder;
+import com.sym.canal.replay.RecordingCanalConnector;
+import com.sym.canal.replay.ReplayCanalConnector;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.sym.canal.CanalEntryParserTest.entry;
+
+/**
+ * @author shenyanming
+ * Create on 2021/09/26 17:20
+ */
+public class ReplayCanalConnectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replay() throws Exception {
+        File file = folder.newFile("replay.rec");
+        try (CanalRecorder recorder = new CanalRecorder(file)) {
+            recorder.record(Arrays.asList(insert("1"), insert("2"), insert("3")));
+            recorder.record(Arrays.asList(insert("4"), insert("5")));
+        }
+        ReplayCanalConnector connector = ReplayCanalConnector.builder().file(file).build();
+        connector.connect();
+        // 按照拉取条数重新组批
+        Message first = connector.getWithoutAck(2);
+        Assert.assertEquals(Arrays.asList("1", "2"), ids(first));
+        Message second = connector.getWithoutAck(2);
+        Assert.assertEquals(Arrays.asList("3", "4"), ids(second));
+        connector.ack(first.getId());
+        // 回滚以后从未提交的批次重新投递
+        connector.rollback();
+        Message third = connector.getWithoutAck(10);
+        Assert.assertEquals(Arrays.asList("3", "4", "5"), ids(third));
+        Assert.assertFalse(connector.isExhausted());
+        connector.ack(third.getId());
+        Assert.assertEquals(-1, connector.getWithoutAck(10).getId());
+        Assert.assertTrue(connector.isExhausted());
+        Assert.assertEquals(5, connector.getAcked());
+        connector.close();
+    }
+
+    @Test
+    public void recordOnlyAcked() throws Exception {
+        File source = folder.newFile("source.rec");
+        try (CanalRecorder recorder = new CanalRecorder(source)) {
+            recorder.record(Arrays.asList(insert("1"), insert("2"), insert("3")));
+        }
+        File target = new File(folder.getRoot(), "target.rec");
+        RecordingCanalConnector recording = new RecordingCanalConnector(
+                ReplayCanalConnector.builder().file(source).build(), new CanalRecorder(target));
+        recording.connect();
+        recording.getWithoutAck(2);
+        recording.rollback();
+        Message message = recording.getWithoutAck(3);
+        recording.ack(message.getId());
+        recording.disconnect();
+        recording.close();
+
+        // 回滚的批次不会重复录制
+        ReplayCanalConnector connector = ReplayCanalConnector.builder().file(target).build();
+        connector.connect();
+        Assert.assertEquals(Arrays.asList("1", "2", "3"), ids(connector.get(10)));
+        Assert.assertTrue(connector.isExhausted());
+        connector.close();
+    }
+
+    @Test
+    public void rateLimit() throws Exception {
+        File file = folder.newFile("rate.rec");
+        try (CanalRecorder recorder = new CanalRecorder(file)) {
+            recorder.record(Arrays.asList(insert("1"), insert("2"), insert("3")));
+        }
+        ReplayCanalConnector connector = ReplayCanalConnector.builder().file(file).entriesPerSecond(1).build();
+        connector.connect();
+        // 刚开始还没有配额
+        Assert.assertEquals(-1, connector.getWithoutAck(10).getId());
+        connector.close();
+    }
+
+    private static CanalEntry.Entry insert(String id) {
+        return entry("test", "t_order", CanalEntry.EventType.INSERT, id, "1", "2021-09-26 17:00:00");
+    }
+
+    private static List<String> ids(Message message) throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (CanalEntry.Entry entry : message.getEntries()) {
+            ids.add(CanalEntry.RowChange.parseFrom(entry.getStoreValue()).getRowDatas(0).getAfterColumns(0).getValue());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,86 @@
+package com.sym.kafka;
+
+import com.sym.kafka.domain.Order;
+import com.sym.kafka.producer.filter.OrderInterceptor;
+import com.sym.kafka.producer.filter.OrderInterceptorMetrics;
+import com.sym.util.LatencyHistogram;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * @author shenyanming
+ * @date 2021/10/8 14:00.
+ */
+public class OrderInterceptorTest {
+
+    private static final String TOPIC = "order";
+
+    private final OrderInterceptor interceptor = new OrderInterceptor();
+
+    @Before
+    public void init() {
+        interceptor.configure(Collections.singletonMap(ProducerConfig.CLIENT_ID_CONFIG, "order-interceptor-test"));
+    }
+
+    @After
+    public void close() {
+        interceptor.close();
+    }
+
+    @Test
+    public void stampSendTime() {
+        Order order = Order.builder().orderId(1L).build();
+        long before = System.currentTimeMillis();
+        ProducerRecord<String, Order> stamped = interceptor.onSend(new ProducerRecord<>(TOPIC, "1", order));
+        Assert.assertNotNull(stamped.timestamp());
+        Assert.assertTrue(stamped.timestamp() >= before);
+        Assert.assertSame(order, stamped.value());
+        Assert.assertEquals("1", stamped.key());
+
+        // 调用方指定了时间戳的记录原样返回
+        ProducerRecord<String, Order> record = new ProducerRecord<>(TOPIC, 0, 100L, "1", order);
+        Assert.assertSame(record, interceptor.onSend(record));
+        Assert.assertEquals(2, interceptor.getMetrics().getSentRecords());
+    }
+
+    @Test
+    public void recordAcknowledgement() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            interceptor.onAcknowledgement(metadata(i % 2, now - 50, 10, 90), null);
+        }
+        interceptor.onAcknowledgement(metadata(0, -1, -1, 90), null);
+        interceptor.onAcknowledgement(metadata(1, -1, -1, -1), new TimeoutException("expired"));
+        interceptor.onAcknowledgement(null, new TimeoutException("expired"));
+
+        OrderInterceptorMetrics metrics = interceptor.getMetrics();
+        Assert.assertEquals(11, metrics.getAckedRecords());
+        Assert.assertEquals(1090, metrics.getAckedBytes());
+        Assert.assertEquals(2, metrics.getErrorRecords());
+        Assert.assertEquals(Long.valueOf(1), metrics.getTopicErrors().get(TOPIC));
+        Assert.assertEquals(Long.valueOf(2), metrics.getErrorTypes().get("TimeoutException"));
+
+        // 没有时间戳的记录不统计延迟
+        LatencyHistogram.Snapshot latency = metrics.getTopicLatency().get(TOPIC);
+        Assert.assertEquals(10, latency.getCount());
+        Assert.assertTrue(latency.getP50() >= 50);
+        Assert.assertEquals(5, metrics.getPartitionLatency().get(TOPIC + "-1").getCount());
+
+        metrics.reset();
+        Assert.assertEquals(0, metrics.getAckedRecords());
+        Assert.assertTrue(metrics.getTopicLatency().isEmpty());
+    }
+
+    private static RecordMetadata metadata(int partition, long timestamp, int keySize, int valueSize) {
+        return new RecordMetadata(new TopicPartition(TOPIC, partition), 0, 0, timestamp, null, keySize, valueSize);
+    }
+}
@@ -0,0 +1,90 @@
+package com.sym.kafka;
+
+import com.sym.kafka.consumer.assignor.OrderPartitionAssignor;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.internals.PartitionAssignor;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author shenyanming
+ * @date 2021/10/7 16:20.
+ */
+public class OrderPartitionAssignorTest {
+
+    private static final String TOPIC = "order";
+
+    @Test
+    public void balanceByCountWithoutLoad() {
+        Map<String, PartitionAssignor.Subscription> subscriptions = new HashMap<>();
+        subscriptions.put("c1", assignor("c1").subscription(Collections.singleton(TOPIC)));
+        subscriptions.put("c2", assignor("c2").subscription(Collections.singleton(TOPIC)));
+        Map<String, List<TopicPartition>> assignment = new OrderPartitionAssignor()
+                .assign(Collections.singletonMap(TOPIC, 6), subscriptions);
+        Assert.assertEquals(3, assignment.get("c1").size());
+        Assert.assertEquals(3, assignment.get("c2").size());
+    }
+
+    @Test
+    public void balanceByLagAndStaySticky() {
+        // c1 持有所有分区, 分区0的延迟是其它分区的50倍
+        OrderPartitionAssignor c1 = assignor("c1");
+        OrderPartitionAssignor c2 = assignor("c2");
+        c1.onAssignment(new PartitionAssignor.Assignment(partitions(0, 1, 2, 3, 4, 5)));
+        Map<TopicPartition, Long> lag = new HashMap<>();
+        lag.put(new TopicPartition(TOPIC, 0), 5000L);
+        for (int i = 1; i < 6; i++) {
+            lag.put(new TopicPartition(TOPIC, i), 100L);
+        }
+        OrderPartitionAssignor.reportLoad("c1", lag);
+
+        Map<String, PartitionAssignor.Subscription> subscriptions = new HashMap<>();
+        subscriptions.put("c1", c1.subscription(Collections.singleton(TOPIC)));
+        subscriptions.put("c2", c2.subscription(Collections.singleton(TOPIC)));
+        Map<String, List<TopicPartition>> assignment = new OrderPartitionAssignor()
+                .assign(Collections.singletonMap(TOPIC, 6), subscriptions);
+        // 最热的分区单独给一个成员, 其余的分区给另一个成员
+        List<TopicPartition> hot = assignment.get("c1").contains(new TopicPartition(TOPIC, 0)) ? assignment.get("c1") : assignment.get("c2");
+        Assert.assertEquals(Collections.singletonList(new TopicPartition(TOPIC, 0)), hot);
+
+        // 负载均衡以后再次分配, 不再移动分区
+        c1.onAssignment(new PartitionAssignor.Assignment(assignment.get("c1")));
+        c2.onAssignment(new PartitionAssignor.Assignment(assignment.get("c2")));
+        OrderPartitionAssignor.reportLoad("c1", owned(lag, assignment.get("c1")));
+        OrderPartitionAssignor.reportLoad("c2", owned(lag, assignment.get("c2")));
+        subscriptions.put("c1", c1.subscription(Collections.singleton(TOPIC)));
+        subscriptions.put("c2", c2.subscription(Collections.singleton(TOPIC)));
+        Map<String, List<TopicPartition>> next = new OrderPartitionAssignor()
+                .assign(Collections.singletonMap(TOPIC, 6), subscriptions);
+        Assert.assertEquals(new HashSet<>(assignment.get("c1")), new HashSet<>(next.get("c1")));
+        Assert.assertEquals(new HashSet<>(assignment.get("c2")), new HashSet<>(next.get("c2")));
+    }
+
+    private static OrderPartitionAssignor assignor(String clientId) {
+        OrderPartitionAssignor assignor = new OrderPartitionAssignor();
+        assignor.configure(Collections.singletonMap(ConsumerConfig.CLIENT_ID_CONFIG, clientId));
+        return assignor;
+    }
+
+    private static Map<TopicPartition, Long> owned(Map<TopicPartition, Long> lag, List<TopicPartition> partitions) {
+        Map<TopicPartition, Long> owned = new HashMap<>();
+        partitions.forEach(partition -> owned.put(partition, lag.get(partition)));
+        return owned;
+    }
+
+    private static List<TopicPartition> partitions(int... ids) {
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (int id : ids) {
+            partitions.add(new TopicPartition(TOPIC, id));
+        }
+        return partitions;
+    }
+}
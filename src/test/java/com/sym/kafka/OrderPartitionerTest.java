@@ -0,0 +1,124 @@
+package com.sym.kafka;
+
+import com.sym.kafka.producer.partitioner.OrderPartitioner;
+import com.sym.kafka.producer.partitioner.OrderPartitionerMetrics;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author shenyanming
+ * @date 2021/10/6 15:00.
+ */
+public class OrderPartitionerTest {
+
+    private static final String TOPIC = "order";
+    private static final int PARTITIONS = 8;
+
+    private final OrderPartitioner partitioner = new OrderPartitioner();
+    private Cluster cluster;
+
+    @Before
+    public void init() {
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions.add(new PartitionInfo(TOPIC, i, node, new Node[]{node}, new Node[]{node}));
+        }
+        cluster = new Cluster("test", Collections.singletonList(node), partitions, Collections.emptySet(), Collections.emptySet());
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(ProducerConfig.CLIENT_ID_CONFIG, "order-partitioner-test");
+        configs.put(OrderPartitioner.HOT_RATIO_CONFIG, "0.1");
+        configs.put(OrderPartitioner.HOT_PARTITIONS_CONFIG, "3");
+        configs.put(OrderPartitioner.STRICT_KEYS_CONFIG, "strict-.*");
+        configs.put(OrderPartitioner.WINDOW_RECORDS_CONFIG, "1000");
+        partitioner.configure(configs);
+    }
+
+    @After
+    public void close() {
+        partitioner.close();
+    }
+
+    @Test
+    public void spreadHotKey() {
+        Set<Integer> hotPartitions = new HashSet<>();
+        Set<Integer> strictPartitions = new HashSet<>();
+        for (int i = 0; i < 20000; i++) {
+            hotPartitions.add(partition("merchant-1"));
+            strictPartitions.add(partition("strict-1"));
+            // 冷 key 始终按哈希值取模
+            String cold = "merchant-" + (i + 100);
+            Assert.assertEquals(Utils.toPositive(Utils.murmur2(bytes(cold))) % PARTITIONS, partition(cold));
+        }
+        Assert.assertEquals(3, hotPartitions.size());
+        Assert.assertEquals(1, strictPartitions.size());
+
+        OrderPartitionerMetrics metrics = partitioner.getMetrics();
+        Assert.assertTrue(metrics.getSpreadRecords() > 0);
+        Assert.assertTrue(metrics.getStrictHotKeyRecords() > 0);
+        Assert.assertArrayEquals(new String[]{"merchant-1", "strict-1"}, metrics.getHotKeys());
+        long[] records = metrics.getPartitionRecords().get(TOPIC);
+        Assert.assertEquals(60000, Arrays.stream(records).sum());
+        Assert.assertTrue(metrics.getSkew().get(TOPIC) > 1);
+    }
+
+    @Test
+    public void keyIgnoresAvailability() {
+        // 分区3没有 leader, 有 key 的记录仍然按所有分区取模, 不会因为可用分区变化换分区
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions.add(new PartitionInfo(TOPIC, i, i == 3 ? null : node, new Node[]{node}, new Node[]{node}));
+        }
+        Cluster degraded = new Cluster("test", Collections.singletonList(node), partitions,
+                Collections.emptySet(), Collections.emptySet());
+        // 热点 key 本来的分区是2, 打散范围是2、3、4
+        String hot = "merchant-0";
+        for (int i = 1; Utils.toPositive(Utils.murmur2(bytes(hot))) % PARTITIONS != 2; i++) {
+            hot = "merchant-" + i;
+        }
+        Set<Integer> hotPartitions = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String key = "strict-" + i;
+            Assert.assertEquals(Utils.toPositive(Utils.murmur2(bytes(key))) % PARTITIONS,
+                    partitioner.partition(TOPIC, key, bytes(key), null, null, degraded));
+            hotPartitions.add(partitioner.partition(TOPIC, hot, bytes(hot), null, null, degraded));
+        }
+        // 热点 key 只打散到可用的分区
+        Assert.assertEquals(new HashSet<>(Arrays.asList(2, 4)), hotPartitions);
+    }
+
+    @Test
+    public void roundRobinWithoutKey() {
+        Set<Integer> partitions = new HashSet<>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions.add(partitioner.partition(TOPIC, null, null, null, null, cluster));
+        }
+        Assert.assertEquals(PARTITIONS, partitions.size());
+    }
+
+    private int partition(String key) {
+        return partitioner.partition(TOPIC, key, bytes(key), null, null, cluster);
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,87 @@
+package com.sym.kafka;
+
+import com.sym.kafka.consumer.deserializer.OrderDeserializer;
+import com.sym.kafka.consumer.deserializer.OrderViewDeserializer;
+import com.sym.kafka.domain.Order;
+import com.sym.kafka.domain.OrderFormat;
+import com.sym.kafka.domain.OrderView;
+import com.sym.kafka.producer.serializer.OrderSerializer;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * @author shenyanming
+ * @date 2021/10/4 14:30.
+ */
+public class OrderSerializerTest {
+
+    private final OrderSerializer serializer = new OrderSerializer();
+    private final OrderDeserializer deserializer = new OrderDeserializer();
+
+    @Test
+    public void roundTrip() {
+        Order order = Order.builder()
+                .orderId(1001L)
+                .orderNo("SO20211004000001")
+                .merchantId(20L)
+                .userId(-3L)
+                .amount(new BigDecimal("128.50"))
+                .status(2)
+                .createTime(1633320000000L)
+                .build();
+        byte[] bytes = serializer.serialize("order", order);
+        Assert.assertEquals(OrderFormat.FIXED_BYTES + 16, bytes.length);
+        Assert.assertEquals(order, deserializer.deserialize("order", bytes));
+
+        // 非 ASCII 的订单号, 并且缓冲区需要扩容
+        char[] chars = new char[200];
+        Arrays.fill(chars, '单');
+        order.setOrderNo(new String(chars));
+        Assert.assertEquals(order, deserializer.deserialize("order", serializer.serialize("order", order)));
+    }
+
+    @Test
+    public void view() {
+        Order order = Order.builder()
+                .orderId(Long.MAX_VALUE)
+                .orderNo("SO1")
+                .merchantId(20L)
+                .amount(new BigDecimal("-0.01"))
+                .status(-1)
+                .build();
+        OrderView view = new OrderViewDeserializer().deserialize("order", serializer.serialize("order", order));
+        Assert.assertEquals(Long.MAX_VALUE, view.getOrderId());
+        Assert.assertEquals(20L, view.getMerchantId());
+        Assert.assertEquals(-1, view.getStatus());
+        Assert.assertTrue(view.isNull(OrderFormat.NULL_USER_ID));
+        Assert.assertFalse(view.isNull(OrderFormat.NULL_MERCHANT_ID));
+        Assert.assertEquals(new BigDecimal("-0.01"), view.getAmount());
+        Assert.assertSame(view.getOrderNo(), view.getOrderNo());
+        Assert.assertEquals(order, view.toOrder());
+    }
+
+    @Test
+    public void nullFields() {
+        Order order = Order.builder().orderId(1L).build();
+        Assert.assertEquals(order, deserializer.deserialize("order", serializer.serialize("order", order)));
+        Assert.assertNull(serializer.serialize("order", null));
+    }
+
+    @Test
+    public void newerVersion() {
+        byte[] bytes = serializer.serialize("order", Order.builder().orderId(1L).orderNo("SO1").build());
+        // 更高的版本在末尾追加了字段
+        byte[] newer = Arrays.copyOf(bytes, bytes.length + 8);
+        newer[OrderFormat.VERSION_OFFSET] = 2;
+        Assert.assertEquals("SO1", deserializer.deserialize("order", newer).getOrderNo());
+    }
+
+    @Test(expected = SerializationException.class)
+    public void amountOutOfRange() {
+        serializer.serialize("order", Order.builder().amount(new BigDecimal("123456789012345678901234567890")).build());
+    }
+}
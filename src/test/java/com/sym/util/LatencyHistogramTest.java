@@ -0,0 +1,38 @@
+package com.sym.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author shenyanming
+ * Create on 2021/08/21 15:10
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucket() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(value);
+            Assert.assertTrue(value >= LatencyHistogram.lowerBound(index));
+            Assert.assertTrue(value <= LatencyHistogram.upperBound(index));
+        }
+    }
+
+    @Test
+    public void percentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(500.5, snapshot.getMean(), 0.001);
+        Assert.assertEquals(1000, snapshot.getMax());
+        // 相对误差不超过 1/16
+        Assert.assertEquals(500, snapshot.getP50(), 500 / 16.0);
+        Assert.assertEquals(990, snapshot.getP99(), 990 / 16.0);
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.snapshot().getCount());
+    }
+}